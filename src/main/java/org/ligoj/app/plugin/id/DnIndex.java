@@ -0,0 +1,177 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.id;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Distinguished Name (DN) index, a trie of the reversed RDNs. Answers in a time proportional to the DN depth the values
+ * whose DN contains a DN, and the values whose DN is contained by a DN. The matching follows
+ * {@link DnUtils#equalsOrParentOf(String, String)}: case-sensitive and RDNs delimited by the commas.
+ *
+ * @param <V> The indexed value type.
+ */
+public class DnIndex<V> {
+
+	/**
+	 * Trie node, one per RDN.
+	 */
+	private static class Node<V> {
+		private Map<String, Node<V>> children;
+		private List<Entry<V>> entries;
+	}
+
+	/**
+	 * Indexed value with its insertion order.
+	 */
+	private record Entry<V>(int order, V value) {
+	}
+
+	private final Node<V> root = new Node<>();
+
+	private int sequence;
+
+	/**
+	 * Build an index of the given values.
+	 *
+	 * @param values The values to index. Their iteration order is the insertion order.
+	 * @param toDn   The function returning the DN of a value. Values without DN are ignored.
+	 * @param <V>    The indexed value type.
+	 * @return The new index.
+	 */
+	public static <V> DnIndex<V> of(final Collection<V> values, final Function<V, String> toDn) {
+		final var index = new DnIndex<V>();
+		values.forEach(v -> {
+			final var dn = toDn.apply(v);
+			if (dn != null) {
+				index.put(dn, v);
+			}
+		});
+		return index;
+	}
+
+	/**
+	 * Add a value to this index.
+	 *
+	 * @param dn    The DN of this value.
+	 * @param value The value to add.
+	 */
+	public void put(final String dn, final V value) {
+		var node = root;
+		var end = dn.length();
+		while (end >= 0) {
+			final var start = dn.lastIndexOf(',', end - 1);
+			final var rdn = dn.substring(start + 1, end);
+			if (node.children == null) {
+				node.children = new HashMap<>();
+			}
+			node = node.children.computeIfAbsent(rdn, r -> new Node<>());
+			end = start;
+		}
+		if (node.entries == null) {
+			node.entries = new ArrayList<>(1);
+		}
+		node.entries.add(new Entry<>(sequence++, value));
+	}
+
+	/**
+	 * Visit the nodes of the given DN path, from the root to the deepest existing node.
+	 *
+	 * @return The deepest node of the full DN. <code>null</code> when the DN is not fully indexed.
+	 */
+	private Node<V> visit(final String dn, final List<Entry<V>> parents) {
+		var node = root;
+		var end = dn.length();
+		while (end >= 0) {
+			if (node.children == null) {
+				return null;
+			}
+			final var start = dn.lastIndexOf(',', end - 1);
+			node = node.children.get(dn.substring(start + 1, end));
+			if (node == null) {
+				return null;
+			}
+			if (parents != null && node.entries != null) {
+				parents.addAll(node.entries);
+			}
+			end = start;
+		}
+		return node;
+	}
+
+	/**
+	 * Return the values whose DN is equal to or contains the given DN.
+	 *
+	 * @param dn The DN to check. May be <code>null</code>.
+	 * @return The values whose DN is equal to or contains the given DN, in the insertion order.
+	 */
+	public List<V> findParents(final String dn) {
+		if (dn == null) {
+			return List.of();
+		}
+		final var parents = new ArrayList<Entry<V>>();
+		visit(dn, parents);
+		return parents.stream().sorted(Comparator.comparingInt(Entry::order)).map(Entry::value).toList();
+	}
+
+	/**
+	 * Return the first inserted value whose DN is equal to or contains the given DN.
+	 *
+	 * @param dn The DN to check. May be <code>null</code>.
+	 * @return The first inserted value whose DN is equal to or contains the given DN. <code>null</code> when not
+	 *         found.
+	 */
+	public V findFirstParent(final String dn) {
+		if (dn == null) {
+			return null;
+		}
+		final var parents = new ArrayList<Entry<V>>();
+		visit(dn, parents);
+		return parents.stream().min(Comparator.comparingInt(Entry::order)).map(Entry::value).orElse(null);
+	}
+
+	/**
+	 * Indicates there is a value whose DN is equal to or contains the given DN.
+	 *
+	 * @param dn The DN to check. May be <code>null</code>.
+	 * @return <code>true</code> when there is a value whose DN is equal to or contains the given DN.
+	 */
+	public boolean containsParentOf(final String dn) {
+		return findFirstParent(dn) != null;
+	}
+
+	/**
+	 * Return the values whose DN is equal to or is contained by the given DN.
+	 *
+	 * @param dn The parent DN. May be <code>null</code>.
+	 * @return The values whose DN is equal to or is contained by the given DN, in the insertion order.
+	 */
+	public List<V> findAllUnder(final String dn) {
+		if (dn == null) {
+			return List.of();
+		}
+		final var node = visit(dn, null);
+		if (node == null) {
+			return List.of();
+		}
+		final var result = new ArrayList<Entry<V>>();
+		collect(node, result);
+		return result.stream().sorted(Comparator.comparingInt(Entry::order)).map(Entry::value).toList();
+	}
+
+	private void collect(final Node<V> node, final List<Entry<V>> result) {
+		if (node.entries != null) {
+			result.addAll(node.entries);
+		}
+		if (node.children != null) {
+			node.children.values().forEach(c -> collect(c, result));
+		}
+	}
+}
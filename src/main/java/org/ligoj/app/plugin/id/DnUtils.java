@@ -7,7 +7,6 @@ import java.util.Collection;
 
 import jakarta.validation.constraints.NotNull;
 
-import org.apache.commons.lang3.StringUtils;
 import org.ligoj.app.api.Normalizer;
 
 /**
@@ -27,7 +26,7 @@ public final class DnUtils {
 	 * @return the RDN of given DN.
 	 */
 	public static String toRdn(@NotNull final String dn) {
-		return Normalizer.normalize(StringUtils.split(dn, "=,")[1]);
+		return Normalizer.normalize(token(dn, 1));
 	}
 
 	/**
@@ -38,7 +37,43 @@ public final class DnUtils {
 	 * @return the normalized RDN of the parent of given DN.
 	 */
 	public static String toParentRdn(@NotNull final String dn) {
-		return Normalizer.normalize(StringUtils.split(dn, "=,")[3]);
+		return Normalizer.normalize(token(dn, 3));
+	}
+
+	/**
+	 * Return the token at the given position, the tokens being delimited by '=' or ','. Same result than
+	 * <code>StringUtils.split(dn, "=,")[index]</code>, without splitting the whole DN.
+	 * 
+	 * @param dn
+	 *            The DN to split.
+	 * @param index
+	 *            The position of the token, starting from <code>0</code>.
+	 * @return The token at the given position.
+	 */
+	private static String token(final String dn, final int index) {
+		final var length = dn.length();
+		var current = 0;
+		var start = -1;
+		for (var i = 0; i <= length; i++) {
+			if (i == length || isSeparator(dn.charAt(i))) {
+				if (start != -1) {
+					// End of a token
+					if (current == index) {
+						return dn.substring(start, i);
+					}
+					current++;
+					start = -1;
+				}
+			} else if (start == -1) {
+				// Start of a token
+				start = i;
+			}
+		}
+		throw new ArrayIndexOutOfBoundsException(index);
+	}
+
+	private static boolean isSeparator(final char c) {
+		return c == '=' || c == ',';
 	}
 
 	/**
@@ -51,7 +86,13 @@ public final class DnUtils {
 	 * @return <code>true</code> when <code>child=parent</code> or <code>child=.*,parent</code>
 	 */
 	public static boolean equalsOrParentOf(@NotNull final String parentDn, final String childDn) {
-		return childDn != null && (childDn.endsWith("," + parentDn) || childDn.equals(parentDn));
+		if (childDn == null || parentDn == null) {
+			return false;
+		}
+		final var offset = childDn.length() - parentDn.length();
+		// Compare the suffix in place, without building the ",parent" string
+		return offset == 0 ? childDn.equals(parentDn)
+				: offset > 0 && childDn.charAt(offset - 1) == ',' && childDn.startsWith(parentDn, offset);
 	}
 
 	/**
@@ -9,12 +9,25 @@ import org.ligoj.app.api.Normalizer;
 import org.ligoj.app.iam.*;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 /**
- * In memory cache with JPA back-end cache for users/groups/companies.
+ * In memory cache with JPA back-end cache for users/groups/companies. Writers are serialized and never update the
+ * membership collections in place: a new collection replaces the previous one, and the changed resources are published
+ * to the next {@link MemCacheSnapshot} version.
  */
 @Slf4j
 public abstract class AbstractMemCacheRepository {
@@ -49,10 +62,79 @@ public abstract class AbstractMemCacheRepository {
 	@Setter
 	protected IamProvider[] iamProvider;
 
+	/**
+	 * When enabled, the user/group memberships are stored in a compact {@link MembershipIndex} instead of a collection
+	 * per user and per group. Enabled by default.
+	 */
+	@Setter
+	protected boolean compactMemberships = true;
+
+	/**
+	 * When enabled, companies and groups are fetched concurrently, and users are fetched as soon as the groups are
+	 * available. Disabled by default. The fetches then run on virtual threads not inheriting the caller's transaction
+	 * nor its security context: {@link ICompanyRepository#findAllNoCache()}, {@link IGroupRepository#findAllNoCache()}
+	 * and {@link IUserRepository#findAllNoCache(Map)} must not rely on them.
+	 */
+	@Setter
+	protected boolean concurrentFetch;
+
+	/**
+	 * The compact membership store, <code>null</code> when not enabled.
+	 */
+	private MembershipIndex memberships;
+
+	/**
+	 * The member counters of the current data, <code>null</code> when the data are not yet available.
+	 */
+	private volatile MemberCountIndex memberCounts;
+
+	/**
+	 * The user search index of the current data, <code>null</code> when the data are not yet available.
+	 */
+	private volatile UserSearchIndex userSearch;
+
+	/**
+	 * Optional on-disk snapshot store.
+	 */
+	@Autowired(required = false)
+	@Setter
+	protected MemCacheSnapshotStore snapshotStore;
+
 	/**
 	 * Current data.
 	 */
-	protected Map<CacheDataType, Map<String, ? extends ResourceOrg>> data;
+	protected volatile Map<CacheDataType, Map<String, ? extends ResourceOrg>> data;
+
+	/**
+	 * Current data version, incremented by each change.
+	 */
+	private final AtomicLong version = new AtomicLong();
+
+	/**
+	 * Indicates the current data are restored from the on-disk snapshot, and not yet reconciled with the origin data.
+	 */
+	private volatile boolean restored;
+
+	/**
+	 * Last built snapshot, <code>null</code> when not yet built from the current data.
+	 */
+	private volatile MemCacheSnapshot snapshot;
+
+	/**
+	 * Resources changed since the last built snapshot, by type and identifier. A <code>null</code> resource is a
+	 * removal.
+	 */
+	private final Map<CacheDataType, Map<String, ResourceOrg>> changes = new EnumMap<>(CacheDataType.class);
+
+	/**
+	 * The running refresh, <code>null</code> when there is none.
+	 */
+	private final AtomicReference<CompletableFuture<Map<CacheDataType, Map<String, ? extends ResourceOrg>>>> refreshing = new AtomicReference<>();
+
+	/**
+	 * Amount of refresh requests served by an already running refresh.
+	 */
+	private final AtomicLong coalescedRefreshes = new AtomicLong();
 
 	/**
 	 * Add the group to the given group. Cache is also updated.
@@ -60,13 +142,15 @@ public abstract class AbstractMemCacheRepository {
 	 * @param subGroup The group to add to the other group.
 	 * @param group    The group to update.
 	 */
-	public void addGroupToGroup(final GroupOrg subGroup, final GroupOrg group) {
+	public synchronized void addGroupToGroup(final GroupOrg subGroup, final GroupOrg group) {
 		// Add to JPA cache
 		cache.addGroupToGroup(subGroup, group);
 
 		// Also update the membership cache
-		group.getSubGroups().add(subGroup.getId());
+		group.setSubGroups(add(group.getSubGroups(), subGroup.getId()));
 		subGroup.setParent(group.getId());
+		publish(CacheDataType.GROUP, group.getId(), group);
+		publish(CacheDataType.GROUP, subGroup.getId(), subGroup);
 	}
 
 	/**
@@ -75,14 +159,23 @@ public abstract class AbstractMemCacheRepository {
 	 * @param user  The user to add to the other group.
 	 * @param group The group to update.
 	 */
-	public void addUserToGroup(final UserOrg user, final GroupOrg group) {
+	public synchronized void addUserToGroup(final UserOrg user, final GroupOrg group) {
 
 		// Add to JPA cache
 		cache.addUserToGroup(user, group);
 
 		// Also update the membership cache
-		group.getMembers().add(user.getId());
-		user.getGroups().add(group.getId());
+		if (memberCounts != null && !group.getMembers().contains(user.getId())) {
+			memberCounts.add(user, group);
+		}
+		if (memberships == null) {
+			group.setMembers(add(group.getMembers(), user.getId()));
+			user.setGroups(add(user.getGroups(), group.getId()));
+		} else {
+			memberships.add(user, group);
+		}
+		publish(CacheDataType.USER, user.getId(), user);
+		publish(CacheDataType.GROUP, group.getId(), group);
 	}
 
 	/**
@@ -91,9 +184,10 @@ public abstract class AbstractMemCacheRepository {
 	 * @param company The new company.
 	 * @return <code>company</code>
 	 */
-	public CompanyOrg create(final CompanyOrg company) {
+	public synchronized CompanyOrg create(final CompanyOrg company) {
 		cache.create(company);
 		getCompany().findAll().put(company.getId(), company);
+		publish(CacheDataType.COMPANY, company.getId(), company);
 		return company;
 	}
 
@@ -103,9 +197,10 @@ public abstract class AbstractMemCacheRepository {
 	 * @param group The new group.
 	 * @return <code>group</code>
 	 */
-	public GroupOrg create(final GroupOrg group) {
+	public synchronized GroupOrg create(final GroupOrg group) {
 		cache.create(group, Collections.emptyMap());
 		getGroup().findAll().put(group.getId(), group);
+		publish(CacheDataType.GROUP, group.getId(), group);
 		return group;
 	}
 
@@ -115,9 +210,16 @@ public abstract class AbstractMemCacheRepository {
 	 * @param user The new user.
 	 * @return <code>user</code>
 	 */
-	public UserOrg create(final UserOrg user) {
+	public synchronized UserOrg create(final UserOrg user) {
 		cache.create(user);
 		getUser().findAll().put(user.getId(), user);
+		if (memberCounts != null) {
+			memberCounts.create(user);
+		}
+		if (userSearch != null) {
+			userSearch.update(user);
+		}
+		publish(CacheDataType.USER, user.getId(), user);
 		return user;
 	}
 
@@ -127,7 +229,7 @@ public abstract class AbstractMemCacheRepository {
 	 *
 	 * @param company The company to remove.
 	 */
-	public void delete(final CompanyOrg company) {
+	public synchronized void delete(final CompanyOrg company) {
 		final var companiesNameToDn = getCompany().findAll();
 
 		// Remove from JPA cache
@@ -135,6 +237,7 @@ public abstract class AbstractMemCacheRepository {
 
 		// Remove from in-memory cache
 		companiesNameToDn.remove(company.getId());
+		publish(CacheDataType.COMPANY, company.getId(), null);
 	}
 
 	/**
@@ -142,7 +245,7 @@ public abstract class AbstractMemCacheRepository {
 	 *
 	 * @param group the group to remove.
 	 */
-	public void delete(final GroupOrg group) {
+	public synchronized void delete(final GroupOrg group) {
 		final var groupsNameToDn = getGroup().findAll();
 
 		// Remove the group from the users
@@ -153,6 +256,7 @@ public abstract class AbstractMemCacheRepository {
 
 		// Remove the group
 		groupsNameToDn.remove(group.getId());
+		publish(CacheDataType.GROUP, group.getId(), null);
 	}
 
 	/**
@@ -161,14 +265,22 @@ public abstract class AbstractMemCacheRepository {
 	 *
 	 * @param user the user to remove.
 	 */
-	public void delete(final UserOrg user) {
+	public synchronized void delete(final UserOrg user) {
 		final var users = getUser().findAll();
 
 		// Remove from JPA cache
 		cache.delete(user);
 
 		// Remove it-self from in-memory cache
-		users.remove(Normalizer.normalize(user.getId()));
+		final var id = Normalizer.normalize(user.getId());
+		users.remove(id);
+		if (memberCounts != null) {
+			memberCounts.delete(user);
+		}
+		if (userSearch != null) {
+			userSearch.delete(user);
+		}
+		publish(CacheDataType.USER, id, null);
 	}
 
 	/**
@@ -180,11 +292,23 @@ public abstract class AbstractMemCacheRepository {
 	private void deleteMemoryAssociations(final GroupOrg group, final Map<String, UserOrg> users) {
 		// Remove from in-memory cache all users
 		for (final var member : group.getMembers()) {
-			users.get(member).getGroups().remove(group.getId());
+			final var user = users.get(member);
+			if (memberships == null) {
+				user.setGroups(remove(user.getGroups(), group.getId()));
+			} else {
+				memberships.remove(user, group);
+			}
+			publish(CacheDataType.USER, user.getId(), user);
 		}
 
 		// Clear the members list
-		group.getMembers().clear();
+		if (memberships == null) {
+			group.setMembers(new HashSet<>());
+		}
+		if (memberCounts != null) {
+			memberCounts.empty(group);
+		}
+		publish(CacheDataType.GROUP, group.getId(), group);
 	}
 
 	/**
@@ -193,7 +317,7 @@ public abstract class AbstractMemCacheRepository {
 	 * @param group The group to empty.
 	 * @param users All known users could be removed from this group.
 	 */
-	public void empty(final GroupOrg group, final Map<String, UserOrg> users) {
+	public synchronized void empty(final GroupOrg group, final Map<String, UserOrg> users) {
 		// Remove the group from the users
 		deleteMemoryAssociations(group, users);
 
@@ -201,6 +325,164 @@ public abstract class AbstractMemCacheRepository {
 		cache.empty(group);
 	}
 
+	/**
+	 * Return a copy of the given collection with the added item.
+	 */
+	private static <C extends Collection<String>> C add(final C collection, final String item) {
+		return copyOf(collection, c -> c.add(item));
+	}
+
+	/**
+	 * Return a copy of the given collection without the given item.
+	 */
+	private static <C extends Collection<String>> C remove(final C collection, final String item) {
+		return copyOf(collection, c -> c.remove(item));
+	}
+
+	/**
+	 * Return an updated copy of the given collection. Sets are copied as sets, other collections as lists.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <C extends Collection<String>> C copyOf(final C collection, final Consumer<Collection<String>> updater) {
+		final Collection<String> copy = collection instanceof Set ? new HashSet<>(collection) : new ArrayList<>(collection);
+		updater.accept(copy);
+		return (C) copy;
+	}
+
+	/**
+	 * Move the memberships of the given data into a new compact store when enabled.
+	 */
+	@SuppressWarnings("unchecked")
+	private void compact(final Map<CacheDataType, Map<String, ? extends ResourceOrg>> data) {
+		if (compactMemberships) {
+			final var index = MembershipIndex.compact((Map<String, UserOrg>) data.get(CacheDataType.USER),
+					(Map<String, GroupOrg>) data.get(CacheDataType.GROUP));
+			synchronized (this) {
+				memberships = index;
+			}
+		}
+	}
+
+	/**
+	 * Build the member counters of the given data.
+	 */
+	@SuppressWarnings("unchecked")
+	private void count(final Map<CacheDataType, Map<String, ? extends ResourceOrg>> data) {
+		final var index = MemberCountIndex.of((Map<String, UserOrg>) data.get(CacheDataType.USER),
+				(Map<String, GroupOrg>) data.get(CacheDataType.GROUP));
+		synchronized (this) {
+			memberCounts = index;
+		}
+	}
+
+	/**
+	 * Return the member counters of the current data.
+	 *
+	 * @return The member counters of the current data. <code>null</code> when the data are not yet available.
+	 */
+	public MemberCountIndex getMemberCounts() {
+		return memberCounts;
+	}
+
+	/**
+	 * Return the user search index of the current data.
+	 *
+	 * @return The user search index of the current data. <code>null</code> when the data are not yet available.
+	 */
+	public UserSearchIndex getUserSearch() {
+		return userSearch;
+	}
+
+	/**
+	 * Publish a new version of the data with the given changed resource. The next snapshot request builds a new
+	 * snapshot from the previous one and the changed resources.
+	 *
+	 * @param type     The resource type.
+	 * @param id       The resource identifier.
+	 * @param resource The changed resource. <code>null</code> when removed.
+	 */
+	private void publish(final CacheDataType type, final String id, final ResourceOrg resource) {
+		changes.computeIfAbsent(type, t -> new HashMap<>()).put(id, resource);
+		version.incrementAndGet();
+	}
+
+	/**
+	 * Publish the given new data and their user search index. The next snapshot request builds a new snapshot from
+	 * these data.
+	 *
+	 * @param newData The new data.
+	 */
+	@SuppressWarnings("unchecked")
+	private void publish(final Map<CacheDataType, Map<String, ? extends ResourceOrg>> newData) {
+		final var search = UserSearchIndex.of(((Map<String, UserOrg>) newData.get(CacheDataType.USER)).values());
+		synchronized (this) {
+			// The data and their index are published together, so a snapshot never mixes them
+			this.data = newData;
+			this.userSearch = search;
+			changes.clear();
+			snapshot = null;
+			version.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Return the current immutable snapshot of the data. The snapshot is built once per data version, and the
+	 * current data are fetched when they are not yet available.
+	 *
+	 * @return The current snapshot.
+	 */
+	public MemCacheSnapshot getSnapshot() {
+		final var current = snapshot;
+		if (current != null && current.getVersion() == version.get()) {
+			// Lock free path
+			return current;
+		}
+		if (data == null) {
+			getData();
+		}
+		return buildSnapshot();
+	}
+
+	/**
+	 * Return the current snapshot when the given users are the ones of the current data, so the caller can read this
+	 * snapshot instead of the given users. The data are never fetched by this call.
+	 *
+	 * @param users The users as returned by the user repository.
+	 * @return The current snapshot. <code>null</code> when the data are not yet available, or when the given users are
+	 *         not the current ones.
+	 */
+	public MemCacheSnapshot getSnapshot(final Map<String, UserOrg> users) {
+		final var current = data;
+		return current != null && current.get(CacheDataType.USER) == users ? getSnapshot() : null;
+	}
+
+	/**
+	 * Return the last built snapshot when it is the one of the current version. Neither the data nor a snapshot are
+	 * built by this call.
+	 *
+	 * @return The current snapshot. <code>null</code> when not yet built for the current version.
+	 */
+	public MemCacheSnapshot getBuiltSnapshot() {
+		final var current = snapshot;
+		return current != null && current.getVersion() == version.get() ? current : null;
+	}
+
+	/**
+	 * Build the snapshot of the current version: from the current data when there is no snapshot yet, otherwise from
+	 * the previous snapshot and the resources changed since.
+	 */
+	private synchronized MemCacheSnapshot buildSnapshot() {
+		final var current = snapshot;
+		final var latest = version.get();
+		if (current == null) {
+			snapshot = new MemCacheSnapshot(latest, data, userSearch);
+		} else if (current.getVersion() != latest) {
+			snapshot = current.with(latest, changes, userSearch);
+		}
+		changes.clear();
+		return snapshot;
+	}
+
 	/**
 	 * Company repository provider.
 	 *
@@ -211,8 +493,8 @@ public abstract class AbstractMemCacheRepository {
 	}
 
 	/**
-	 * Reset the database cache with the LDAP data. Note there is no synchronization for this method. Initial first
-	 * concurrent calls may not involve the cache.
+	 * Reset the database cache with the LDAP data. Concurrent refreshes are coalesced by {@link #refreshData()}, see
+	 * {@link #onRefresh(Map)} to reset the database cache once for all of them.
 	 *
 	 * @return The cached LDAP data..
 	 */
@@ -237,22 +519,162 @@ public abstract class AbstractMemCacheRepository {
 	}
 
 	/**
-	 * Reset the database cache with the LDAP data. Note there is no synchronization for this method. Initial first
-	 * concurrent calls may not involve the cache.
+	 * Fetch the LDAP data. Only one refresh runs at a time: a concurrent call waits for the running refresh and returns
+	 * its result. The database cache is not reset by this method, see {@link #onRefresh(Map)}. Companies and groups are
+	 * fetched concurrently when {@link #concurrentFetch} is enabled. When there is no data yet, the data are restored
+	 * from the on-disk snapshot when available, and reconciled in background.
 	 *
 	 * @return The fresh LDAP data.
 	 */
 	protected Map<CacheDataType, Map<String, ? extends ResourceOrg>> refreshData() {
+		final var flight = new CompletableFuture<Map<CacheDataType, Map<String, ? extends ResourceOrg>>>();
+		final var running = refreshing.compareAndExchange(null, flight);
+		if (running != null) {
+			// Reuse the running refresh
+			coalescedRefreshes.incrementAndGet();
+			log.info("Waiting for the running identity data refresh ...");
+			return join(running);
+		}
+		Map<CacheDataType, Map<String, ? extends ResourceOrg>> result = null;
+		try {
+			result = data == null ? restoreData() : null;
+			if (result == null) {
+				result = fetchData();
+				onRefresh(result);
+				if (snapshotStore != null) {
+					snapshotStore.write(result, System.currentTimeMillis());
+				}
+			}
+			flight.complete(result);
+			return result;
+		} catch (final RuntimeException | Error e) {
+			flight.completeExceptionally(e);
+			throw e;
+		} finally {
+			refreshing.set(null);
+			if (restored && result != null) {
+				// Reconcile once this refresh is no more running
+				reconcile();
+			}
+		}
+	}
+
+	/**
+	 * Start a refresh in the background to reconcile the restored data with the origin data.
+	 */
+	private void reconcile() {
+		log.info("Identity data restored from the snapshot, reconciling in background ...");
+		Thread.ofVirtual().name("id-cache-reconcile").start(() -> {
+			try {
+				refreshData();
+			} catch (final RuntimeException e) {
+				log.error("Background identity data refresh failed", e);
+			}
+		});
+	}
+
+	/**
+	 * Called once the fresh data are fetched and published, within the single refresh. Can be used to reset the
+	 * database cache, so concurrent refresh requests do not reset it again.
+	 *
+	 * @param data The fresh LDAP data.
+	 */
+	protected void onRefresh(final Map<CacheDataType, Map<String, ? extends ResourceOrg>> data) {
+		// Nothing to do by default
+	}
+
+	/**
+	 * Restore the data from the on-disk snapshot, when available, not older than the last database cache refresh and
+	 * not older than the maximal age of a snapshot. On success, the data are served immediately until the next refresh
+	 * reconciles them with the origin data.
+	 *
+	 * @return The restored data. <code>null</code> when there is no valid snapshot.
+	 */
+	private Map<CacheDataType, Map<String, ? extends ResourceOrg>> restoreData() {
+		if (snapshotStore == null) {
+			return null;
+		}
+		final var result = snapshotStore.read(cache.getCacheRefreshTime());
+		if (result != null) {
+			compact(result);
+			count(result);
+			publish(result);
+			restored = true;
+		}
+		return result;
+	}
+
+	/**
+	 * Move the fresh data into the restored maps, so a caller still holding the restored maps sees the fresh data.
+	 */
+	@SuppressWarnings("unchecked")
+	private synchronized Map<CacheDataType, Map<String, ? extends ResourceOrg>> merge(
+			final Map<CacheDataType, Map<String, ? extends ResourceOrg>> current,
+			final Map<CacheDataType, Map<String, ? extends ResourceOrg>> fresh) {
+		fresh.forEach((type, resources) -> {
+			final var target = (Map<String, ResourceOrg>) current.get(type);
+			target.putAll(resources);
+			target.keySet().retainAll(resources.keySet());
+		});
+		return current;
+	}
+
+	/**
+	 * Return the amount of refresh requests served by an already running refresh since the start.
+	 *
+	 * @return The amount of coalesced refresh requests.
+	 */
+	public long getCoalescedRefreshes() {
+		return coalescedRefreshes.get();
+	}
+
+	/**
+	 * Fetch the origin data and publish them.
+	 */
+	private Map<CacheDataType, Map<String, ? extends ResourceOrg>> fetchData() {
 		final Map<CacheDataType, Map<String, ? extends ResourceOrg>> result = new EnumMap<>(CacheDataType.class);
 
 		// Fetch origin data
 		log.info("Fetching origin identity data ...");
-		final var groups = getGroup().findAllNoCache();
-		result.put(CacheDataType.COMPANY, getCompany().findAllNoCache());
-		result.put(CacheDataType.GROUP, groups);
-		result.put(CacheDataType.USER, getUser().findAllNoCache(groups));
-		this.data = result;
-		return result;
+		if (concurrentFetch) {
+			try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+				final var groups = CompletableFuture.supplyAsync(() -> getGroup().findAllNoCache(), executor);
+				final var companies = CompletableFuture.supplyAsync(() -> getCompany().findAllNoCache(), executor);
+				final var users = groups.thenApplyAsync(g -> getUser().findAllNoCache(g), executor);
+				result.put(CacheDataType.COMPANY, join(companies));
+				result.put(CacheDataType.GROUP, join(groups));
+				result.put(CacheDataType.USER, join(users));
+			}
+		} else {
+			final var groups = getGroup().findAllNoCache();
+			result.put(CacheDataType.COMPANY, getCompany().findAllNoCache());
+			result.put(CacheDataType.GROUP, groups);
+			result.put(CacheDataType.USER, getUser().findAllNoCache(groups));
+		}
+		final var current = data;
+		final var fresh = restored && current != null ? merge(current, result) : result;
+		compact(fresh);
+		count(fresh);
+		publish(fresh);
+		restored = false;
+		return fresh;
+	}
+
+	/**
+	 * Wait for the given fetch and return its result. The original failure is propagated as is.
+	 */
+	private <T> T join(final CompletableFuture<T> future) {
+		try {
+			return future.join();
+		} catch (final CompletionException e) {
+			if (e.getCause() instanceof RuntimeException re) {
+				throw re;
+			}
+			if (e.getCause() instanceof Error error) {
+				throw error;
+			}
+			throw e;
+		}
 	}
 
 	/**
@@ -261,15 +683,17 @@ public abstract class AbstractMemCacheRepository {
 	 * @param subGroup The group to remove from the other group.
 	 * @param group    The group to update.
 	 */
-	public void removeGroupFromGroup(final GroupOrg subGroup, final GroupOrg group) {
+	public synchronized void removeGroupFromGroup(final GroupOrg subGroup, final GroupOrg group) {
 		// Remove from JPA cache
 		if (group != null) {
 			cache.removeGroupFromGroup(subGroup, group);
 
 			// Also update the membership cache
-			group.getSubGroups().remove(subGroup.getId());
+			group.setSubGroups(remove(group.getSubGroups(), subGroup.getId()));
+			publish(CacheDataType.GROUP, group.getId(), group);
 		}
 		subGroup.setParent(null);
+		publish(CacheDataType.GROUP, subGroup.getId(), subGroup);
 	}
 
 	/**
@@ -278,13 +702,22 @@ public abstract class AbstractMemCacheRepository {
 	 * @param user  The user to remove from the given group.
 	 * @param group The group to update.
 	 */
-	public void removeUserFromGroup(final UserOrg user, final GroupOrg group) {
+	public synchronized void removeUserFromGroup(final UserOrg user, final GroupOrg group) {
 		// Remove from JPA cache
 		cache.removeUserFromGroup(user, group);
 
 		// Also update the membership cache
-		user.getGroups().remove(group.getId());
-		group.getMembers().remove(user.getId());
+		if (memberCounts != null && group.getMembers().contains(user.getId())) {
+			memberCounts.remove(user, group);
+		}
+		if (memberships == null) {
+			user.setGroups(remove(user.getGroups(), group.getId()));
+			group.setMembers(remove(group.getMembers(), user.getId()));
+		} else {
+			memberships.remove(user, group);
+		}
+		publish(CacheDataType.USER, user.getId(), user);
+		publish(CacheDataType.GROUP, group.getId(), group);
 	}
 
 	/**
@@ -292,7 +725,14 @@ public abstract class AbstractMemCacheRepository {
 	 *
 	 * @param user The user to update.
 	 */
-	public void update(final UserOrg user) {
+	public synchronized void update(final UserOrg user) {
 		cache.update(user);
+		if (memberCounts != null) {
+			memberCounts.update(user);
+		}
+		if (userSearch != null) {
+			userSearch.update(user);
+		}
+		publish(CacheDataType.USER, user.getId(), user);
 	}
 }
@@ -0,0 +1,47 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.id.dao;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import org.ligoj.app.plugin.id.model.BatchTaskEntry;
+import org.ligoj.bootstrap.core.dao.RestRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+
+/**
+ * {@link BatchTaskEntry} repository.
+ */
+public interface BatchTaskEntryRepository extends RestRepository<BatchTaskEntry, Integer> {
+
+	/**
+	 * Return the entries of a task.
+	 *
+	 * @param task The task's identifier.
+	 * @return The entries ordered by line.
+	 */
+	@Query("FROM BatchTaskEntry WHERE task.id = ?1 ORDER BY line")
+	List<BatchTaskEntry> findAllBy(int task);
+
+	/**
+	 * Return some entries of a task.
+	 *
+	 * @param task  The task's identifier.
+	 * @param lines The lines of the entries.
+	 * @return The matching entries.
+	 */
+	@Query("FROM BatchTaskEntry WHERE task.id = ?1 AND line IN ?2")
+	List<BatchTaskEntry> findAllBy(int task, Collection<Integer> lines);
+
+	/**
+	 * Delete the entries of the tasks finished before the given date.
+	 *
+	 * @param before The newest deleted end date.
+	 */
+	@Modifying
+	@Query("DELETE BatchTaskEntry WHERE task.id IN (SELECT id FROM BatchTask WHERE endDate < ?1)")
+	void deleteFinished(Date before);
+}
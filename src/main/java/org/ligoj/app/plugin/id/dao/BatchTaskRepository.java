@@ -0,0 +1,102 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.id.dao;
+
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+
+import org.ligoj.app.plugin.id.model.BatchTask;
+import org.ligoj.bootstrap.core.dao.RestRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+
+/**
+ * {@link BatchTask} repository.
+ */
+public interface BatchTaskRepository extends RestRepository<BatchTask, Integer> {
+
+	/**
+	 * Return the task of a principal.
+	 *
+	 * @param principal The user principal requesting the import.
+	 * @param taskId    The public task identifier.
+	 * @return The task or <code>null</code>.
+	 */
+	@Query("FROM BatchTask WHERE principal = ?1 AND taskId = ?2")
+	BatchTask findBy(String principal, long taskId);
+
+	/**
+	 * Return the unfinished tasks of the other nodes without heartbeat since the given date.
+	 *
+	 * @param node   The current node identifier.
+	 * @param before The oldest accepted heartbeat.
+	 * @return The unfinished tasks to recover.
+	 */
+	@Query("FROM BatchTask WHERE endDate IS NULL AND node <> ?1 AND heartbeat < ?2")
+	List<BatchTask> findAllRecoverable(String node, Instant before);
+
+	/**
+	 * Move a task to another node, only when the task has not been updated since it has been read.
+	 *
+	 * @param id        The task's identifier.
+	 * @param node      The new owner node.
+	 * @param heartbeat The new heartbeat.
+	 * @param oldNode   The read owner node.
+	 * @param old       The read heartbeat.
+	 * @return The amount of updated rows: <code>1</code> when the task is claimed.
+	 */
+	@Modifying
+	@Query("UPDATE BatchTask SET node = ?2, heartbeat = ?3 WHERE id = ?1 AND node = ?4 AND heartbeat = ?5")
+	int claim(int id, String node, Instant heartbeat, String oldNode, Instant old);
+
+	/**
+	 * Update the heartbeat of a task owned by the given node.
+	 *
+	 * @param id        The task's identifier.
+	 * @param node      The owner node.
+	 * @param heartbeat The new heartbeat.
+	 * @return The amount of updated rows: <code>0</code> when the task is owned by another node.
+	 */
+	@Modifying
+	@Query("UPDATE BatchTask SET heartbeat = ?3 WHERE id = ?1 AND node = ?2")
+	int heartbeat(int id, String node, Instant heartbeat);
+
+	/**
+	 * Update the progress of a task owned by the given node.
+	 *
+	 * @param id        The task's identifier.
+	 * @param node      The owner node.
+	 * @param heartbeat The new heartbeat.
+	 * @param entries   The total amount of known entries.
+	 * @param done      The amount of proceeded entries.
+	 * @param status    The task status. <code>null</code> when not finished.
+	 * @param text      The task status text. May be <code>null</code>.
+	 * @param end       The task end. <code>null</code> when not finished.
+	 * @return The amount of updated rows: <code>0</code> when the task is owned by another node.
+	 */
+	@Modifying
+	@Query("UPDATE BatchTask SET heartbeat = ?3, entries = ?4, done = ?5, status = ?6, statusText = ?7, endDate = ?8 WHERE id = ?1 AND node = ?2")
+	int progress(int id, String node, Instant heartbeat, int entries, int done, Boolean status, String text, Date end);
+
+	/**
+	 * Mark all the entries of a task owned by the given node as persisted.
+	 *
+	 * @param id   The task's identifier.
+	 * @param node The owner node.
+	 * @return The amount of updated rows: <code>0</code> when the task is owned by another node.
+	 */
+	@Modifying
+	@Query("UPDATE BatchTask SET fullyRead = true WHERE id = ?1 AND node = ?2")
+	int fullyRead(int id, String node);
+
+	/**
+	 * Delete the tasks finished before the given date. The entries must be deleted before.
+	 *
+	 * @param before The newest deleted end date.
+	 */
+	@Modifying
+	@Query("DELETE BatchTask WHERE endDate < ?1")
+	void deleteFinished(Date before);
+}
@@ -0,0 +1,38 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.id.dao;
+
+import lombok.Getter;
+
+/**
+ * Amount of inserted, updated, unchanged and deleted rows of a cache entity type during a reset.
+ */
+@Getter
+public class CacheDelta {
+
+	/**
+	 * Amount of inserted rows.
+	 */
+	int inserted;
+
+	/**
+	 * Amount of updated rows.
+	 */
+	int updated;
+
+	/**
+	 * Amount of rows without change, and then without write.
+	 */
+	int unchanged;
+
+	/**
+	 * Amount of deleted rows.
+	 */
+	int deleted;
+
+	@Override
+	public String toString() {
+		return inserted + " inserted, " + updated + " updated, " + unchanged + " unchanged, " + deleted + " deleted";
+	}
+}
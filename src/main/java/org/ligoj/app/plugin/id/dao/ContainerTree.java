@@ -0,0 +1,117 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.id.dao;
+
+import org.ligoj.app.iam.ContainerOrg;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Parent hierarchy of a fixed set of containers. The ancestors and the descendants of a container are computed once,
+ * then shared as immutable lists. A cycle in the parent links, or a parent out of the given containers, ends the chain
+ * instead of looping.
+ *
+ * @param <T> The container type.
+ */
+public class ContainerTree<T extends ContainerOrg> {
+
+	/**
+	 * The containers by identifier.
+	 */
+	private final Map<String, T> containers;
+
+	/**
+	 * The direct children of each container having a child.
+	 */
+	private final Map<String, List<String>> children = new HashMap<>();
+
+	private final Map<String, List<String>> ancestors = new ConcurrentHashMap<>();
+
+	private final Map<String, List<String>> descendants = new ConcurrentHashMap<>();
+
+	private ContainerTree(final Map<String, T> containers) {
+		this.containers = containers;
+		containers.values().stream().filter(c -> c.getParent() != null)
+				.forEach(c -> children.computeIfAbsent(c.getParent(), k -> new ArrayList<>()).add(c.getId()));
+	}
+
+	/**
+	 * Build the tree of the given containers.
+	 *
+	 * @param containers The containers by identifier.
+	 * @param <T>        The container type.
+	 * @return The new tree.
+	 */
+	public static <T extends ContainerOrg> ContainerTree<T> of(final Map<String, T> containers) {
+		return new ContainerTree<>(containers);
+	}
+
+	/**
+	 * Return the identifiers of the ancestors of a container.
+	 *
+	 * @param id The container identifier.
+	 * @return The ancestor identifiers, the closest first. Empty when the container is unknown or has no parent.
+	 */
+	public List<String> getAncestors(final String id) {
+		final var cached = ancestors.get(id);
+		if (cached != null) {
+			return cached;
+		}
+
+		// Walk up to a known chain, the root, or an already visited container
+		final var chain = new ArrayList<String>();
+		final var visited = new HashSet<String>();
+		visited.add(id);
+		var tail = List.<String>of();
+		var current = containers.get(id);
+		while (current != null && current.getParent() != null && visited.add(current.getParent())) {
+			chain.add(current.getParent());
+			final var known = ancestors.get(current.getParent());
+			if (known != null) {
+				tail = known;
+				break;
+			}
+			current = containers.get(current.getParent());
+		}
+		for (final var ancestor : tail) {
+			if (!visited.add(ancestor)) {
+				// Cycle through the known chain
+				break;
+			}
+			chain.add(ancestor);
+		}
+		final var result = List.copyOf(chain);
+		ancestors.put(id, result);
+		return result;
+	}
+
+	/**
+	 * Return the identifiers of the descendants of a container.
+	 *
+	 * @param id The container identifier.
+	 * @return The descendant identifiers, breadth first. Empty when the container is unknown or has no child.
+	 */
+	public List<String> getDescendants(final String id) {
+		return descendants.computeIfAbsent(id, k -> {
+			final var result = new ArrayList<String>();
+			final var visited = new HashSet<String>();
+			visited.add(id);
+			final var queue = new ArrayDeque<String>();
+			queue.add(id);
+			while (!queue.isEmpty()) {
+				children.getOrDefault(queue.poll(), List.of()).stream().filter(visited::add).forEach(c -> {
+					result.add(c);
+					queue.add(c);
+				});
+			}
+			return List.copyOf(result);
+		});
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.id.dao;
+
+import org.ligoj.app.iam.dao.CacheCompanyRepository;
+import org.ligoj.app.iam.dao.CacheContainerRepository;
+import org.ligoj.app.iam.dao.CacheGroupRepository;
+import org.ligoj.app.iam.model.CacheContainer;
+import org.ligoj.app.model.ContainerType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.cache.annotation.CacheKey;
+import javax.cache.annotation.CacheResult;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Principal scoped visibility of the containers. The identifiers of the containers a user can see are cached, and
+ * evicted on each change of the database cache. Delegates are managed outside this plugin and their changes do not
+ * evict this cache: the entries expire after one minute, so a granted or revoked read access may take up to one
+ * minute to be visible. The write and administration accesses are not cached, so a revoked delegate is effective
+ * immediately.
+ */
+@Component
+public class ContainerVisibilityCache {
+
+	/**
+	 * Cache name.
+	 */
+	public static final String CACHE = "id-visibility";
+
+	/**
+	 * Container access level.
+	 */
+	public enum Access {
+		/**
+		 * Visible containers.
+		 */
+		READ,
+
+		/**
+		 * Containers with write access.
+		 */
+		WRITE,
+
+		/**
+		 * Containers with administration access.
+		 */
+		ADMIN
+	}
+
+	@Autowired
+	private CacheGroupRepository cacheGroupRepository;
+
+	@Autowired
+	private CacheCompanyRepository cacheCompanyRepository;
+
+	/**
+	 * Return the identifiers of the containers the given user can access.
+	 *
+	 * @param type   The container type.
+	 * @param user   The user login.
+	 * @param access The required access level.
+	 * @return The ordered identifiers of the containers the given user can access.
+	 */
+	@CacheResult(cacheName = CACHE)
+	public List<String> findAll(@CacheKey final ContainerType type, @CacheKey final String user,
+			@CacheKey final Access access) {
+		return findAllNoCache(type, user, access);
+	}
+
+	/**
+	 * Return the identifiers of the containers the given user can access, without cache.
+	 *
+	 * @param type   The container type.
+	 * @param user   The user login.
+	 * @param access The required access level.
+	 * @return The ordered identifiers of the containers the given user can access.
+	 */
+	public List<String> findAllNoCache(final ContainerType type, final String user, final Access access) {
+		final CacheContainerRepository<? extends CacheContainer> repository = type == ContainerType.GROUP
+				? cacheGroupRepository
+				: cacheCompanyRepository;
+		final var containers = switch (access) {
+			case READ -> repository.findAll(user);
+			case WRITE -> repository.findAllWrite(user);
+			case ADMIN -> repository.findAllAdmin(user);
+		};
+		return containers.stream().map(CacheContainer::getId).collect(Collectors.toCollection(ArrayList::new));
+	}
+}
@@ -8,6 +8,7 @@ import org.ligoj.app.iam.GroupOrg;
 import org.ligoj.app.iam.UserOrg;
 import org.ligoj.app.iam.model.CacheCompany;
 import org.ligoj.app.iam.model.CacheGroup;
+import org.ligoj.app.iam.model.CacheUser;
 
 import java.util.Map;
 
@@ -140,4 +141,17 @@ public interface IdCacheDao {
 	 * @return the UTC last cache refresh time (milli).
 	 */
 	long getCacheRefreshTime();
+
+	/**
+	 * Return the peak amount of entities managed by the persistence context during the last reset.
+	 * @return the peak amount of managed entities during the last reset.
+	 */
+	int getResetPeakEntities();
+
+	/**
+	 * Return the amount of inserted, updated, unchanged and deleted rows during the last reset.
+	 * @return the statistics of the last reset, by cache entity type: {@link CacheCompany}, {@link CacheGroup} and
+	 *         {@link CacheUser}.
+	 */
+	Map<Class<?>, CacheDelta> getResetDeltas();
 }
@@ -21,16 +21,21 @@ import org.ligoj.app.iam.dao.DelegateOrgRepository;
 import org.ligoj.app.iam.model.*;
 import org.ligoj.app.model.CacheProjectGroup;
 import org.ligoj.app.model.Project;
+import org.hibernate.Session;
 import org.ligoj.bootstrap.core.DescribedBean;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Persistable;
 import org.springframework.stereotype.Repository;
 
+import javax.cache.annotation.CacheRemoveAll;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -42,6 +47,27 @@ import java.util.stream.Stream;
 @Slf4j
 public class IdCacheDaoImpl implements IdCacheDao {
 
+	/**
+	 * Configuration name of the JDBC batch size used while resetting the cache.
+	 */
+	public static final String CONF_BATCH_SIZE = "service:id:cache-batch-size";
+
+	/**
+	 * Default JDBC batch size used while resetting the cache.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 500;
+
+	/**
+	 * Configuration name of the amount of rows processed between two flush/clear of the persistence context while
+	 * resetting the cache.
+	 */
+	public static final String CONF_CHUNK_SIZE = "service:id:cache-chunk-size";
+
+	/**
+	 * Default amount of rows processed between two flush/clear of the persistence context while resetting the cache.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 5000;
+
 	@PersistenceContext(type = PersistenceContextType.TRANSACTION, unitName = "pu")
 	private EntityManager em;
 
@@ -51,10 +77,20 @@ public class IdCacheDaoImpl implements IdCacheDao {
 	@Autowired
 	private DelegateOrgRepository delegateOrgRepository;
 
+	@Autowired
+	private ConfigurationResource configuration;
+
 	@Getter
 	private long cacheRefreshTime = 0;
 
+	@Getter
+	private int resetPeakEntities = 0;
+
+	@Getter
+	private Map<Class<?>, CacheDelta> resetDeltas = Map.of();
+
 	@Override
+	@CacheRemoveAll(cacheName = ContainerVisibilityCache.CACHE)
 	public void addGroupToGroup(final GroupOrg subGroup, final GroupOrg group) {
 		addGroupToGroupInternal(em.find(CacheGroup.class, subGroup.getId()), group);
 	}
@@ -67,6 +103,7 @@ public class IdCacheDaoImpl implements IdCacheDao {
 	}
 
 	@Override
+	@CacheRemoveAll(cacheName = ContainerVisibilityCache.CACHE)
 	public void addUserToGroup(final UserOrg user, final GroupOrg group) {
 		updateUserToGroupInternal(em.find(CacheUser.class, user.getId()), em.find(CacheGroup.class, group.getId()), Collections.emptySet());
 	}
@@ -84,6 +121,32 @@ public class IdCacheDaoImpl implements IdCacheDao {
 		}
 	}
 
+	/**
+	 * Insert the given memberships with multi-row statements. The membership identifier is generated by the database,
+	 * and such entities are never grouped in JDBC batches by a 'persist'.
+	 *
+	 * @param member      The member attribute: <code>user</code> or <code>subGroup</code>.
+	 * @param memberType  The member entity type.
+	 * @param memberships The member and group identifiers of the new memberships.
+	 * @param batchSize   The amount of rows per statement.
+	 */
+	private void insertMemberships(final String member, final Class<?> memberType, final List<String[]> memberships,
+			final int batchSize) {
+		ListUtils.partition(memberships, Math.max(1, batchSize)).forEach(chunk -> {
+			final var values = new StringJoiner(", ");
+			for (var i = 0; i < chunk.size(); i++) {
+				values.add("(:m" + i + ", :g" + i + ")");
+			}
+			final var query = em.createQuery("INSERT INTO CacheMembership (" + member + ", group) VALUES " + values);
+			for (var i = 0; i < chunk.size(); i++) {
+				query.setParameter("m" + i, em.getReference(memberType, chunk.get(i)[0]))
+						.setParameter("g" + i, em.getReference(CacheGroup.class, chunk.get(i)[1]));
+			}
+			query.executeUpdate();
+			em.clear();
+		});
+	}
+
 	/**
 	 * Associate a subgroup to a group using the cache groups to prevent duplicate entries.
 	 */
@@ -98,21 +161,25 @@ public class IdCacheDaoImpl implements IdCacheDao {
 	}
 
 	@Override
+	@CacheRemoveAll(cacheName = ContainerVisibilityCache.CACHE)
 	public CacheCompany create(final CompanyOrg company, final Map<String, CacheCompany> entities) {
-		return createInternal(company, entities);
+		return createInternal(company, entities, CacheCompany::new, new CacheDelta());
 	}
 
 	@Override
+	@CacheRemoveAll(cacheName = ContainerVisibilityCache.CACHE)
 	public CacheCompany create(final CompanyOrg company) {
-		return createInternal(company, Collections.emptyMap());
+		return create(company, Collections.emptyMap());
 	}
 
 	@Override
+	@CacheRemoveAll(cacheName = ContainerVisibilityCache.CACHE)
 	public CacheGroup create(final GroupOrg group, final Map<String, CacheGroup> entities) {
-		return createInternal(group, entities);
+		return createInternal(group, entities, CacheGroup::new, new CacheDelta());
 	}
 
 	@Override
+	@CacheRemoveAll(cacheName = ContainerVisibilityCache.CACHE)
 	public void create(final UserOrg user) {
 		final var entity = toCacheUser(user);
 
@@ -128,60 +195,170 @@ public class IdCacheDaoImpl implements IdCacheDao {
 	}
 
 	/**
-	 * Persist a new company. Depending on the cached entities, a 'merge' or a 'persist' is executed.
+	 * Persist/update a container and return it. Depending on the cached entities, a 'merge' or a 'persist' is executed.
+	 * An existing entity without change is left untouched.
 	 */
-	private CacheCompany createInternal(final CompanyOrg company, final Map<String, CacheCompany> entities) {
-		final CacheCompany entity;
-		if (entities.containsKey(company.getId())) {
-			// Update as needed
-			entity = toCacheCompany(company, entities.get(company.getId()));
-			em.merge(entity);
+	private <T extends CacheContainer> T createInternal(final ContainerOrg container, final Map<String, T> entities,
+			final Supplier<T> factory, final CacheDelta delta) {
+		final T entity;
+		if (entities.containsKey(container.getId())) {
+			entity = entities.get(container.getId());
+			if (isChanged(container, entity.getName(), entity.getDescription())) {
+				// Update as needed
+				fillCacheContainer(container, entity);
+				mergeDetached(entity);
+				delta.updated++;
+			} else {
+				delta.unchanged++;
+			}
 		} else {
-			entity = toCacheCompany(company, new CacheCompany());
+			entity = fillCacheContainer(container, factory.get());
 			em.persist(entity);
+			delta.inserted++;
 		}
 		return entity;
 	}
 
 	/**
-	 * Persist/update a group and return it.
+	 * Persist the new containers and update the changed ones. The existing state is read from a projection, and only the
+	 * changed rows are loaded in the persistence context.
+	 *
+	 * @param entityClass The cache entity class.
+	 * @param containers  The new containers reference.
+	 * @param factory     The cache entity factory.
+	 * @param delta       The statistics to update.
+	 * @param chunkSize   The amount of rows processed between two flush/clear.
+	 * @return The projection of the existing containers: identifier, name and DN, by identifier.
 	 */
-	private CacheGroup createInternal(final GroupOrg group, final Map<String, CacheGroup> entities) {
-		final CacheGroup entity;
-		if (entities.containsKey(group.getId())) {
-			// Update as needed
-			entity = toCacheGroup(group, entities.get(group.getId()));
-			em.merge(entity);
-		} else {
-			entity = toCacheGroup(group, new CacheGroup());
-			em.persist(entity);
+	private <T extends CacheContainer> Map<String, Object[]> resetContainers(final Class<T> entityClass,
+			final Map<String, ? extends ContainerOrg> containers, final Supplier<T> factory, final CacheDelta delta, final int chunkSize) {
+		final var oldContainers = findAllTuples("SELECT id, name, description FROM " + entityClass.getSimpleName());
+		final var changed = new ArrayList<String>();
+		for (final var container : containers.values()) {
+			final var row = oldContainers.get(container.getId());
+			if (row == null) {
+				em.persist(fillCacheContainer(container, factory.get()));
+				flushChunk(++delta.inserted, chunkSize);
+			} else if (isChanged(container, (String) row[1], (String) row[2])) {
+				changed.add(container.getId());
+			} else {
+				delta.unchanged++;
+			}
 		}
-		return entity;
+
+		// Update as needed
+		delta.updated = findAllById(entityClass, changed, e -> fillCacheContainer(containers.get(e.getId()), e), chunkSize);
+		return oldContainers;
 	}
 
 	/**
-	 * Persist/update new user and return it.
+	 * Persist the new users and update the changed ones. The existing state is read from a projection, and only the
+	 * changed rows are loaded in the persistence context.
+	 *
+	 * @param users     The new users reference.
+	 * @param companies The new companies reference.
+	 * @param delta     The statistics to update.
+	 * @param chunkSize The amount of rows processed between two flush/clear.
+	 * @return The projection of the existing users: identifier, first name, last name, mail and company, by identifier.
 	 */
-	private CacheUser createInternal(final UserOrg user, final Map<String, CacheUser> entities, final Map<String, CacheCompany> companies) {
-		final CacheUser entity;
-		if (entities.containsKey(user.getId())) {
-			// Update as needed
-			entity = toCacheUserInternal(user, entities.get(user.getId()), companies);
-			em.merge(entity);
-		} else {
-			entity = toCacheUserInternal(user, new CacheUser(), companies);
-			em.persist(entity);
+	private Map<String, Object[]> resetUsers(final Map<String, UserOrg> users, final Map<String, CompanyOrg> companies,
+			final CacheDelta delta, final int chunkSize) {
+		final var oldUsers = findAllTuples("SELECT id, firstName, lastName, mails, company.id FROM CacheUser");
+		final Function<String, CacheCompany> toCompany = c -> companies.containsKey(c) ? em.getReference(CacheCompany.class, c) : null;
+		final UnaryOperator<String> toCompanyId = c -> companies.containsKey(c) ? c : null;
+		final var changed = new ArrayList<String>();
+		for (final var user : users.values()) {
+			final var row = oldUsers.get(user.getId());
+			if (row == null) {
+				em.persist(toCacheUserInternal(user, new CacheUser(), toCompany));
+				flushChunk(++delta.inserted, chunkSize);
+			} else if (isChanged(user, toCompanyId.apply(user.getCompany()), row)) {
+				changed.add(user.getId());
+			} else {
+				delta.unchanged++;
+			}
 		}
 
-		return entity;
+		// Update as needed
+		delta.updated = findAllById(CacheUser.class, changed, e -> toCacheUserInternal(users.get(e.getId()), e, toCompany), chunkSize);
+		return oldUsers;
+	}
+
+	/**
+	 * Return the tuples of the given projection query, by identifier. The identifier must be the first selected column.
+	 */
+	private Map<String, Object[]> findAllTuples(final String query) {
+		return em.createQuery(query, Object[].class).getResultList().stream().collect(Collectors.toMap(r -> (String) r[0], Function.identity()));
+	}
+
+	/**
+	 * Load the managed entities of the given identifiers by partitions, and apply the given consumer to them. The
+	 * changes are then written by dirty checking, and the persistence context is cleared after each partition.
+	 *
+	 * @return The amount of identifiers.
+	 */
+	private <T> int findAllById(final Class<T> entityClass, final List<String> ids, final Consumer<T> consumer, final int chunkSize) {
+		ListUtils.partition(ids, Math.min(chunkSize, 1000)).forEach(sIds -> {
+			em.createQuery("FROM " + entityClass.getSimpleName() + " WHERE id IN (:ids)", entityClass).setParameter("ids", sIds).getResultList()
+					.forEach(consumer);
+			flushAndClear();
+		});
+		return ids.size();
+	}
+
+	/**
+	 * Flush and clear the persistence context when the given counter reaches the end of a chunk.
+	 */
+	private void flushChunk(final int counter, final int chunkSize) {
+		if (counter % chunkSize == 0) {
+			flushAndClear();
+		}
+	}
+
+	/**
+	 * Flush and clear the persistence context, and keep track of the peak amount of managed entities.
+	 */
+	private void flushAndClear() {
+		resetPeakEntities = Math.max(resetPeakEntities, em.unwrap(Session.class).getStatistics().getEntityCount());
+		em.flush();
+		em.clear();
+	}
+
+	/**
+	 * Indicates the container differs from its cached name or DN.
+	 */
+	private boolean isChanged(final ContainerOrg container, final String name, final String dn) {
+		return !Objects.equals(container.getName(), name) || !Objects.equals(container.getDescription(), dn);
+	}
+
+	/**
+	 * Indicates the user differs from its cached projection: names, mail or company. An empty mail list does not replace
+	 * the cached mail. The company is the one written in the cache: <code>null</code> when it is not a known company.
+	 */
+	private boolean isChanged(final UserOrg user, final String company, final Object[] row) {
+		return !Objects.equals(user.getFirstName(), row[1]) || !Objects.equals(user.getLastName(), row[2])
+				|| CollectionUtils.isNotEmpty(user.getMails()) && !user.getMails().getFirst().equals(row[3])
+				|| !Objects.equals(company, row[4]);
+	}
+
+	/**
+	 * Merge the given entity only when it is not already managed. A managed entity is flushed by dirty checking, without
+	 * the additional select issued by a 'merge'.
+	 */
+	private void mergeDetached(final Object entity) {
+		if (!em.contains(entity)) {
+			em.merge(entity);
+		}
 	}
 
 	@Override
+	@CacheRemoveAll(cacheName = ContainerVisibilityCache.CACHE)
 	public void delete(final CompanyOrg company) {
 		removeAll(em.createQuery("FROM CacheCompany WHERE id=:id").setParameter("id", company.getId()));
 	}
 
 	@Override
+	@CacheRemoveAll(cacheName = ContainerVisibilityCache.CACHE)
 	public void delete(final GroupOrg group) {
 		removeAll(em.createQuery("FROM CacheMembership WHERE group.id=:id OR subGroup.id=:id").setParameter("id", group.getId()),
 				em.createQuery("FROM CacheProjectGroup WHERE group.id=:id").setParameter("id", group.getId()),
@@ -196,12 +373,14 @@ public class IdCacheDaoImpl implements IdCacheDao {
 	}
 
 	@Override
+	@CacheRemoveAll(cacheName = ContainerVisibilityCache.CACHE)
 	public void delete(final UserOrg user) {
 		removeAll(em.createQuery("FROM CacheMembership WHERE user.id=:id").setParameter("id", user.getId()),
 				em.createQuery("FROM CacheUser WHERE id=:id").setParameter("id", user.getId()));
 	}
 
 	@Override
+	@CacheRemoveAll(cacheName = ContainerVisibilityCache.CACHE)
 	public void empty(final GroupOrg group) {
 		removeAll(em.createQuery("FROM CacheMembership WHERE group.id=:id").setParameter("id", group.getId()));
 	}
@@ -217,93 +396,130 @@ public class IdCacheDaoImpl implements IdCacheDao {
 	/**
 	 * Persist association between users and groups.
 	 *
-	 * @param users       The new users reference.
-	 * @param groups      The new groups reference.
-	 * @param cacheGroups The groups already persisted in database.
+	 * @param users     The new users reference.
+	 * @param groups    The new groups reference.
+	 * @param companies The new companies reference.
+	 * @param delta     The user statistics to update.
+	 * @param chunkSize The amount of rows processed between two flush/clear.
+	 * @param batchSize The amount of new memberships inserted per statement.
 	 * @return the amount of persisted relations.
 	 */
-	private int persistUsersAndMemberships(final Map<String, UserOrg> users, final Map<String, GroupOrg> groups, final Map<String, CacheGroup> cacheGroups,
-			final Map<String, CacheCompany> cacheCompanies) {
-		final var cacheUsers = em.createQuery("FROM CacheUser", CacheUser.class).getResultList().stream()
-				.collect(Collectors.toMap(CacheUser::getId, Function.identity()));
-
-		final var userMemberships = em.createQuery("FROM CacheMembership WHERE user is not null", CacheMembership.class).getResultList();
-		final var groupMemberships = em.createQuery("FROM CacheMembership WHERE subGroup is not null", CacheMembership.class).getResultList();
-
-		// Remove duplicates
-		groupMemberships.stream().collect(Collectors.groupingBy(c -> c.getSubGroup().getId() + "-" + c.getGroup())).values().stream().filter(l -> l.size() > 1)
-				.forEach(l -> l.stream().skip(1).forEach(em::remove));
-		userMemberships.stream().collect(Collectors.groupingBy(c -> c.getUser().getId() + "-" + c.getGroup())).values().stream().filter(l -> l.size() > 1)
-				.forEach(l -> l.stream().skip(1).forEach(em::remove));
-
-		final var membershipsByUser = userMemberships.stream()
-				.collect(Collectors.groupingBy(c -> c.getUser().getId(), Collectors.mapping(c -> c.getGroup().getId(), Collectors.toSet())));
-		final var membershipsByGroup = groupMemberships.stream()
-				.collect(Collectors.groupingBy(c -> c.getGroup().getId(), Collectors.mapping(c -> c.getSubGroup().getId(), Collectors.toSet())));
+	private int persistUsersAndMemberships(final Map<String, UserOrg> users, final Map<String, GroupOrg> groups,
+			final Map<String, CompanyOrg> companies, final CacheDelta delta, final int chunkSize, final int batchSize) {
+		// Persist users first, so the inserts of the same table are grouped in the same JDBC batches
+		final var cacheUsers = resetUsers(users, companies, delta, chunkSize);
+		flushAndClear();
+
+		final var userMemberships = em.createQuery("SELECT id, user.id, group.id FROM CacheMembership WHERE user IS NOT NULL", Object[].class)
+				.getResultList();
+		final var groupMemberships = em
+				.createQuery("SELECT id, group.id, subGroup.id FROM CacheMembership WHERE subGroup IS NOT NULL", Object[].class).getResultList();
+
+		// Identifiers of the duplicate and removed memberships, deleted at once
+		final var staleMemberships = new ArrayList<Integer>();
+		final var membershipsByUser = toMembershipIds(userMemberships, staleMemberships);
+		final var subGroupsByGroup = toMembershipIds(groupMemberships, staleMemberships);
 
 		var memberships = 0;
 
-		// Persist users and memberships
+		// Then collect the new user memberships, inserted at once
+		final var newUserMemberships = new ArrayList<String[]>();
+		final var newGroupMemberships = new ArrayList<String[]>();
 		for (final var user : users.values()) {
-			// Create/update user
-			final var entity = createInternal(user, cacheUsers, cacheCompanies);
-
 			// Create/update membership
-			final var cacheUserGroups = membershipsByUser.getOrDefault(user.getId(), Collections.emptySet());
+			final var cacheUserGroups = membershipsByUser.getOrDefault(user.getId(), Collections.emptyMap());
 			for (final var group : user.getGroups()) {
-				updateUserToGroupInternal(entity, cacheGroups.get(group), cacheUserGroups);
+				if (!cacheUserGroups.containsKey(group)) {
+					newUserMemberships.add(new String[] { user.getId(), group });
+				}
 			}
 			memberships += user.getGroups().size();
 
-			// Remove old memberships
-			cacheUserGroups.removeAll(user.getGroups());
-			cacheUserGroups.forEach(g -> {
-				log.info("Deleting removed cache entry {}#{}-{} (user/group)", CacheMembership.class.getSimpleName(), user.getId(), g);
-				em.createQuery("DELETE FROM CacheMembership WHERE user.id=:user and group.id=:group").setParameter(USER_ATTRIBUTE, user.getId())
-						.setParameter(GROUP_ATTRIBUTE, g).executeUpdate();
-			});
+			// Collect old memberships
+			collectStaleMemberships(cacheUserGroups, user.getGroups(), staleMemberships);
 		}
 
-		// Persist subgroups and memberships
+		// Then collect the new subgroup memberships
 		for (final var group : groups.values()) {
-			final var cachedGroup = cacheGroups.get(group.getId());
-			final var cacheSubGroups = membershipsByGroup.getOrDefault(group.getId(), Collections.emptySet());
+			final var cacheSubGroups = subGroupsByGroup.getOrDefault(group.getId(), Collections.emptyMap());
 			for (final var subGroup : group.getSubGroups()) {
-				updateGroupToGroupInternal(cacheGroups.get(subGroup), cachedGroup, cacheSubGroups);
+				if (!cacheSubGroups.containsKey(subGroup)) {
+					newGroupMemberships.add(new String[] { subGroup, group.getId() });
+				}
 			}
 			memberships += group.getSubGroups().size();
 
-			// Remove old memberships
-			cacheSubGroups.removeAll(group.getSubGroups());
-			cacheSubGroups.forEach(g -> {
-				log.info("Deleting removed cache entry {}#{}-{} (sub/group)", CacheMembership.class.getSimpleName(), g, group.getId());
-				em.createQuery("DELETE FROM CacheMembership WHERE subGroup.id=:subGroup and group.id=:group").setParameter("subGroup", g)
-						.setParameter(GROUP_ATTRIBUTE, group.getId()).executeUpdate();
-			});
+			// Collect old memberships
+			collectStaleMemberships(cacheSubGroups, group.getSubGroups(), staleMemberships);
 		}
 
+		insertMemberships("user", CacheUser.class, newUserMemberships, batchSize);
+		insertMemberships("subGroup", CacheGroup.class, newGroupMemberships, batchSize);
+
+		// Remove duplicate and old memberships
+		deleteBatch(CacheMembership.class, staleMemberships,
+				sIds -> em.createQuery("DELETE FROM CacheMembership WHERE id in (:ids)").setParameter("ids", sIds).executeUpdate());
+
 		// Remove old users and related membership
-		deleteOldCacheEntities(CacheUser.class, cacheUsers, users, ids -> deleteBatch(CacheMembership.class, ids,
+		delta.deleted = deleteOldCacheEntities(CacheUser.class, cacheUsers, users, ids -> deleteBatch(CacheMembership.class, ids,
 				sIds -> em.createQuery("DELETE FROM CacheMembership WHERE user.id in (:ids)").setParameter("ids", sIds).executeUpdate()));
 		return memberships;
 	}
 
+	/**
+	 * Index the membership identifiers by owner, then by owned item. Only the first membership of a same pair is
+	 * indexed, the identifiers of the duplicates are added to the stale memberships.
+	 *
+	 * @param memberships      The membership projections to index: identifier, owner and owned item. Such as user and
+	 *                         group, or group and subgroup.
+	 * @param staleMemberships The collected stale membership identifiers.
+	 * @return The membership identifiers indexed by owned item, by owner.
+	 */
+	private Map<String, Map<String, Integer>> toMembershipIds(final List<Object[]> memberships, final List<Integer> staleMemberships) {
+		final var result = new HashMap<String, Map<String, Integer>>();
+		memberships.forEach(c -> {
+			final var groups = result.computeIfAbsent((String) c[1], m -> new HashMap<>());
+			if (groups.putIfAbsent((String) c[2], (Integer) c[0]) != null) {
+				// Duplicate
+				staleMemberships.add((Integer) c[0]);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Collect the cached membership identifiers whose group is not in the new groups.
+	 */
+	private void collectStaleMemberships(final Map<String, Integer> cacheGroups, final Collection<String> groups,
+			final List<Integer> staleMemberships) {
+		cacheGroups.forEach((g, id) -> {
+			if (!groups.contains(g)) {
+				staleMemberships.add(id);
+			}
+		});
+	}
+
 	/**
 	 * Persist association between project and groups.
 	 *
-	 * @param groups The groups already persisted in database.
+	 * @param groups The new groups reference, already persisted in database.
 	 * @return the amount of persisted relations.
 	 */
-	private int persistProjectGroups(final Map<String, CacheGroup> groups) {
-		final var cachedProjectGroups = em.createQuery("FROM CacheProjectGroup WHERE group is not null", CacheProjectGroup.class).getResultList();
-
-		// Remove duplicates
-		cachedProjectGroups.stream().collect(Collectors.groupingBy(c -> c.getProject().getId() + "-" + c.getGroup())).values().stream()
-				.filter(l -> l.size() > 1).forEach(l -> l.stream().skip(1).forEach(em::remove));
+	private int persistProjectGroups(final Map<String, GroupOrg> groups) {
+		final var cachedProjectGroups = em
+				.createQuery("SELECT id, project.id, group.id FROM CacheProjectGroup WHERE group IS NOT NULL", Object[].class).getResultList();
+
+		// Identifiers of the duplicate and removed project groups, deleted at once
+		final var staleProjectGroups = new ArrayList<Integer>();
+		final var cachedProjectGroupsByProject = new HashMap<Integer, Map<String, Integer>>();
+		cachedProjectGroups.forEach(c -> {
+			if (cachedProjectGroupsByProject.computeIfAbsent((Integer) c[1], p -> new HashMap<>()).putIfAbsent((String) c[2], (Integer) c[0]) != null) {
+				// Duplicate
+				staleProjectGroups.add((Integer) c[0]);
+			}
+		});
 
 		// Create missing cached project groups as needed
-		final var cachedProjectGroupsByProject = cachedProjectGroups.stream()
-				.collect(Collectors.groupingBy(c -> c.getProject().getId(), Collectors.mapping(c -> c.getGroup().getId(), Collectors.toSet())));
 		final var allProjectGroups = cacheProjectGroupRepository.findAllProjectGroup().stream()
 				.collect(Collectors.groupingBy(pg -> (Integer) pg[0], Collectors.mapping(pg -> (String) pg[1], Collectors.toSet())));
 		for (final var projectGroups : allProjectGroups.entrySet()) {
@@ -311,13 +527,11 @@ public class IdCacheDaoImpl implements IdCacheDao {
 			final var groupIds = projectGroups.getValue();
 			final var cachedProjectGroupIds = cachedProjectGroupsByProject.get(projectId);
 			for (final var groupId : groupIds) {
-				if ((cachedProjectGroupIds == null || !cachedProjectGroupIds.contains(groupId)) && groups.containsKey(groupId)) {
+				if ((cachedProjectGroupIds == null || !cachedProjectGroupIds.containsKey(groupId)) && groups.containsKey(groupId)) {
 					// New association
-					final var project = new Project();
-					project.setId(projectId);
 					final var entity = new CacheProjectGroup();
-					entity.setProject(project);
-					entity.setGroup(groups.get(groupId));
+					entity.setProject(em.getReference(Project.class, projectId));
+					entity.setGroup(em.getReference(CacheGroup.class, groupId));
 					em.persist(entity);
 				} else if (cachedProjectGroupIds != null) {
 					cachedProjectGroupIds.remove(groupId);
@@ -326,28 +540,28 @@ public class IdCacheDaoImpl implements IdCacheDao {
 		}
 
 		// Remove old memberships
-		cachedProjectGroupsByProject.keySet().forEach(project -> cachedProjectGroupsByProject.get(project).forEach(group -> {
-			log.info("Deleting removed cache entry {}#{}-{}", CacheProjectGroup.class.getSimpleName(), project, group);
-			em.createQuery("DELETE FROM CacheProjectGroup WHERE project.id=:project and group.id=:group").setParameter("project", project)
-					.setParameter(GROUP_ATTRIBUTE, group).executeUpdate();
-		}));
+		cachedProjectGroupsByProject.values().forEach(g -> staleProjectGroups.addAll(g.values()));
+		deleteBatch(CacheProjectGroup.class, staleProjectGroups,
+				sIds -> em.createQuery("DELETE FROM CacheProjectGroup WHERE id in (:ids)").setParameter("ids", sIds).executeUpdate());
 
 		return allProjectGroups.size();
 	}
 
 	@Override
+	@CacheRemoveAll(cacheName = ContainerVisibilityCache.CACHE)
 	public void removeGroupFromGroup(final GroupOrg subGroup, final GroupOrg group) {
 		removeAll(em.createQuery("FROM CacheMembership WHERE subGroup.id=:subGroup AND group.id=:group").setParameter(GROUP_ATTRIBUTE, group.getId())
 				.setParameter("subGroup", subGroup.getId()));
 	}
 
 	@Override
+	@CacheRemoveAll(cacheName = ContainerVisibilityCache.CACHE)
 	public void removeUserFromGroup(final UserOrg user, final GroupOrg group) {
 		removeAll(em.createQuery("FROM CacheMembership WHERE user.id=:user AND group.id=:group").setParameter(GROUP_ATTRIBUTE, group.getId())
 				.setParameter(USER_ATTRIBUTE, user.getId()));
 	}
 
-	private void deleteBatch(Class<?> cls, List<String> ids, Consumer<List<String>> batchConsumer) {
+	private <I> void deleteBatch(Class<?> cls, List<I> ids, Consumer<List<I>> batchConsumer) {
 		if (!ids.isEmpty()) {
 			log.info("Deleting removed cache {} {} entries", cls.getSimpleName(), ids.size());
 			ListUtils.partition(ids, 1000).forEach(batchConsumer);
@@ -355,52 +569,58 @@ public class IdCacheDaoImpl implements IdCacheDao {
 	}
 
 	@Override
+	@CacheRemoveAll(cacheName = ContainerVisibilityCache.CACHE)
 	@Transactional(Transactional.TxType.REQUIRES_NEW)
 	public void reset(final Map<String, CompanyOrg> companies, final Map<String, GroupOrg> groups, final Map<String, UserOrg> users) {
 		final var start = System.currentTimeMillis();
 
 		// Insert data into database
-		log.info("Updating cache entries: {} groups, {} companies, {} users", groups.size(), companies.size(), users.size());
+		final var batchSize = configuration.get(CONF_BATCH_SIZE, DEFAULT_BATCH_SIZE);
+		final var chunkSize = Math.max(1, configuration.get(CONF_CHUNK_SIZE, DEFAULT_CHUNK_SIZE));
+		log.info("Updating cache entries: {} groups, {} companies, {} users, batch size {}, chunk size {}", groups.size(), companies.size(),
+				users.size(), batchSize, chunkSize);
 		em.flush();
 		em.clear();
+		resetPeakEntities = 0;
+
+		// Group the statements in JDBC batches for this session
+		em.unwrap(Session.class).setJdbcBatchSize(batchSize);
 
 		// Update companies
-		final var oldCompanies = em.createQuery("FROM CacheCompany", CacheCompany.class).getResultList().stream()
-				.collect(Collectors.toMap(CacheCompany::getId, Function.identity()));
-		final var cacheCompanies = companies.values().stream().map(c -> create(c, oldCompanies))
-				.collect(Collectors.toMap(CacheCompany::getId, Function.identity()));
-		em.flush();
+		final var companyDelta = new CacheDelta();
+		final var oldCompanies = resetContainers(CacheCompany.class, companies, CacheCompany::new, companyDelta, chunkSize);
+		flushAndClear();
 
 		// Update groups
-		final var oldGroups = em.createQuery("FROM CacheGroup", CacheGroup.class).getResultList().stream()
-				.collect(Collectors.toMap(CacheGroup::getId, Function.identity()));
-		final var cacheGroups = groups.values().stream().map(c -> create(c, oldGroups)).collect(Collectors.toMap(CacheGroup::getId, Function.identity()));
-		em.flush();
-
-		final var memberships = persistUsersAndMemberships(users, groups, cacheGroups, cacheCompanies);
-		em.flush();
-		final var subscribedProjects = persistProjectGroups(cacheGroups);
-		em.flush();
-		final var updatedDelegate = updateDelegateDn(cacheGroups, cacheCompanies);
+		final var groupDelta = new CacheDelta();
+		final var oldGroups = resetContainers(CacheGroup.class, groups, CacheGroup::new, groupDelta, chunkSize);
+		flushAndClear();
+
+		final var userDelta = new CacheDelta();
+		final var memberships = persistUsersAndMemberships(users, groups, companies, userDelta, chunkSize, batchSize);
+		flushAndClear();
+		final var subscribedProjects = persistProjectGroups(groups);
+		flushAndClear();
+		final var updatedDelegate = updateDelegateDn(groups, companies);
 		em.flush();
 
 		// Remove old groups and companies
-		deleteOldCacheEntities(CacheGroup.class, oldGroups, groups, ids -> deleteBatch(CacheProjectGroup.class, ids, sIds -> {
+		groupDelta.deleted = deleteOldCacheEntities(CacheGroup.class, oldGroups, groups, ids -> deleteBatch(CacheProjectGroup.class, ids, sIds -> {
 			em.createQuery("DELETE FROM CacheMembership WHERE group.id in (:ids) OR subGroup.id in (:ids)").setParameter("ids", sIds).executeUpdate();
 			em.createQuery("DELETE FROM CacheProjectGroup WHERE group.id in (:ids)").setParameter("ids", sIds).executeUpdate();
 		}));
 
-		deleteOldCacheEntities(CacheCompany.class, oldCompanies, companies, null);
-		em.flush();
-		em.clear();
+		companyDelta.deleted = deleteOldCacheEntities(CacheCompany.class, oldCompanies, companies, null);
+		flushAndClear();
 
-		log.info("Updated cache: {} groups, {} companies, {} users, {} memberships, {} project groups, {} updated delegates in {}", groups.size(),
-				companies.size(), users.size(), memberships, subscribedProjects, updatedDelegate,
-				DurationFormatUtils.formatDurationHMS(System.currentTimeMillis() - start));
+		log.info("Updated cache: {} groups ({}), {} companies ({}), {} users ({}), {} memberships, {} project groups, {} updated delegates,"
+				+ " {} peak managed entities in {}", groups.size(), groupDelta, companies.size(), companyDelta, users.size(), userDelta, memberships,
+				subscribedProjects, updatedDelegate, resetPeakEntities, DurationFormatUtils.formatDurationHMS(System.currentTimeMillis() - start));
+		resetDeltas = Map.of(CacheCompany.class, companyDelta, CacheGroup.class, groupDelta, CacheUser.class, userDelta);
 		cacheRefreshTime = System.currentTimeMillis();
 	}
 
-	private <T extends Persistable<String>> void deleteOldCacheEntities(final Class<T> entityClass, final Map<String, T> oldEntities,
+	private <T extends Persistable<String>> int deleteOldCacheEntities(final Class<T> entityClass, final Map<String, ?> oldEntities,
 			final Map<String, ?> newEntities, Consumer<List<String>> onDelete) {
 		final var ids = oldEntities.keySet();
 		ids.removeAll(newEntities.keySet());
@@ -410,33 +630,24 @@ public class IdCacheDaoImpl implements IdCacheDao {
 		}
 		deleteBatch(entityClass, idsAsList,
 				sIds -> em.createQuery("DELETE FROM " + entityClass.getSimpleName() + " WHERE id in (:ids)").setParameter("ids", sIds).executeUpdate());
-	}
-
-	/**
-	 * Transform company to JPA.
-	 */
-	private CacheCompany toCacheCompany(final CompanyOrg company, final CacheCompany entity) {
-		return fillCacheContainer(company, entity);
-	}
-
-	/**
-	 * Transform group to JPA.
-	 */
-	private CacheGroup toCacheGroup(final GroupOrg group, final CacheGroup entity) {
-		return fillCacheContainer(group, entity);
+		return idsAsList.size();
 	}
 
 	/**
 	 * Transform user to JPA.
 	 */
 	private CacheUser toCacheUser(final UserOrg user) {
-		return toCacheUserInternal(user, new CacheUser(), null);
+		return toCacheUserInternal(user, new CacheUser(), c -> {
+			final var company = new CacheCompany();
+			company.setId(c);
+			return company;
+		});
 	}
 
 	/**
 	 * Transform user to JPA.
 	 */
-	private CacheUser toCacheUserInternal(final UserOrg user, final CacheUser entity, final Map<String, CacheCompany> companies) {
+	private CacheUser toCacheUserInternal(final UserOrg user, final CacheUser entity, final Function<String, CacheCompany> toCompany) {
 		entity.setId(user.getId());
 		entity.setFirstName(user.getFirstName());
 		entity.setLastName(user.getLastName());
@@ -445,18 +656,12 @@ public class IdCacheDaoImpl implements IdCacheDao {
 		}
 
 		// Set the company if defined
-		entity.setCompany(Optional.ofNullable(user.getCompany()).map(c -> {
-			if (companies == null) {
-				final var company = new CacheCompany();
-				company.setId(c);
-				return company;
-			}
-			return companies.get(c);
-		}).orElse(null));
+		entity.setCompany(Optional.ofNullable(user.getCompany()).map(toCompany).orElse(null));
 		return entity;
 	}
 
 	@Override
+	@CacheRemoveAll(cacheName = ContainerVisibilityCache.CACHE)
 	public void update(final UserOrg user) {
 		final var entity = toCacheUser(user);
 		em.merge(entity);
@@ -464,7 +669,7 @@ public class IdCacheDaoImpl implements IdCacheDao {
 		em.clear();
 	}
 
-	private long updateDelegateDn(final Map<String, ? extends CacheContainer> containers, final Object type, final String typePath,
+	private long updateDelegateDn(final Map<String, ? extends ContainerOrg> containers, final Object type, final String typePath,
 			final Function<DelegateOrg, String> id, Function<DelegateOrg, String> getDn, BiConsumer<DelegateOrg, String> setDn) {
 		final var updated = new AtomicInteger();
 		// Get all delegates of he related receiver type
@@ -472,7 +677,7 @@ public class IdCacheDaoImpl implements IdCacheDao {
 			final var delegateDn = getDn.apply(d);
 			// Consider only the existing ones
 			final var container = containers.get(id.apply(d));
-			final var dn = Optional.ofNullable(container).map(CacheContainer::getDescription).orElse(null);
+			final var dn = Optional.ofNullable(container).map(ContainerOrg::getDescription).orElse(null);
 			if (dn == null) {
 				// Not resolved DN for this entity's id, can be deleted
 				return true;
@@ -497,7 +702,7 @@ public class IdCacheDaoImpl implements IdCacheDao {
 	 * @param resourceType The delegate resource type to update. And also the same type as the given containers.
 	 * @return The amount of updated DN references.
 	 */
-	private long updateDelegateDn(final Map<String, ? extends CacheContainer> containers, final ReceiverType receiverType, final DelegateType resourceType) {
+	private long updateDelegateDn(final Map<String, ? extends ContainerOrg> containers, final ReceiverType receiverType, final DelegateType resourceType) {
 		var count = updateDelegateDn(containers, receiverType, "receiverType", DelegateOrg::getReceiver, DelegateOrg::getReceiverDn,
 				DelegateOrg::setReceiverDn);
 		count += updateDelegateDn(containers, resourceType, "type", DelegateOrg::getName, DelegateOrg::getDn, DelegateOrg::setDn);
@@ -507,7 +712,7 @@ public class IdCacheDaoImpl implements IdCacheDao {
 	/**
 	 * Update the receiver DN of delegates where the receiver is a container.
 	 */
-	private long updateDelegateDn(final Map<String, CacheGroup> groups, final Map<String, CacheCompany> companies) {
+	private long updateDelegateDn(final Map<String, GroupOrg> groups, final Map<String, CompanyOrg> companies) {
 		return updateDelegateDn(groups, ReceiverType.GROUP, DelegateType.GROUP) + updateDelegateDn(companies, ReceiverType.COMPANY, DelegateType.COMPANY);
 	}
 
@@ -0,0 +1,119 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.id.dao;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Immutable map made of an immutable base and of the changes made since this base. Applying changes copies only the
+ * previous changes, not the base: the base is merged again once the changes outgrow the square root of its size, so a
+ * change costs <code>O(sqrt(n))</code> amortized instead of a full copy.
+ *
+ * @param <V> The value type. Values are never <code>null</code>.
+ */
+final class LayeredMap<V> extends AbstractMap<String, V> {
+
+	/**
+	 * Minimal amount of changes before merging them into the base.
+	 */
+	private static final int MIN_CHANGES = 64;
+
+	private final Map<String, V> base;
+
+	/**
+	 * Changes since the base. A <code>null</code> value is a removal.
+	 */
+	private final Map<String, V> changes;
+
+	private final int size;
+
+	private LayeredMap(final Map<String, V> base, final Map<String, V> changes, final int size) {
+		this.base = base;
+		this.changes = changes;
+		this.size = size;
+	}
+
+	/**
+	 * Return a map of the given entries.
+	 *
+	 * @param entries The entries to copy.
+	 * @param <V>     The value type.
+	 * @return A new immutable map.
+	 */
+	static <V> LayeredMap<V> of(final Map<String, ? extends V> entries) {
+		final var base = Collections.unmodifiableMap(new HashMap<String, V>(entries));
+		return new LayeredMap<>(base, Collections.emptyMap(), base.size());
+	}
+
+	/**
+	 * Return a new map with the given changes. This map is not updated.
+	 *
+	 * @param updates The changes by key. A <code>null</code> value is a removal.
+	 * @return A new map, or this map when there is no change.
+	 */
+	LayeredMap<V> with(final Map<String, ? extends V> updates) {
+		if (updates.isEmpty()) {
+			return this;
+		}
+		var newSize = size;
+		for (final var update : updates.entrySet()) {
+			newSize += (update.getValue() == null ? 0 : 1) - (containsKey(update.getKey()) ? 1 : 0);
+		}
+		final var merged = new HashMap<String, V>(changes);
+		merged.putAll(updates);
+		if (merged.size() <= Math.max(MIN_CHANGES, (int) Math.sqrt(base.size()))) {
+			return new LayeredMap<>(base, Collections.unmodifiableMap(merged), newSize);
+		}
+
+		// Merge the changes into a new base
+		final var newBase = new HashMap<>(base);
+		merged.forEach((k, v) -> {
+			if (v == null) {
+				newBase.remove(k);
+			} else {
+				newBase.put(k, v);
+			}
+		});
+		return new LayeredMap<>(Collections.unmodifiableMap(newBase), Collections.emptyMap(), newSize);
+	}
+
+	@Override
+	public V get(final Object key) {
+		return changes.containsKey(key) ? changes.get(key) : base.get(key);
+	}
+
+	@Override
+	public boolean containsKey(final Object key) {
+		return get(key) != null;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Set<Entry<String, V>> entrySet() {
+		return new AbstractSet<>() {
+			@Override
+			public Iterator<Entry<String, V>> iterator() {
+				return Stream.concat(base.entrySet().stream().filter(e -> !changes.containsKey(e.getKey())),
+								changes.entrySet().stream().filter(e -> e.getValue() != null))
+						.<Entry<String, V>>map(SimpleImmutableEntry::new).iterator();
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+}
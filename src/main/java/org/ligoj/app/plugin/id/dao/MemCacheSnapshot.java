@@ -0,0 +1,349 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.id.dao;
+
+import lombok.Getter;
+import org.ligoj.app.iam.CompanyOrg;
+import org.ligoj.app.iam.ContainerOrg;
+import org.ligoj.app.iam.GroupOrg;
+import org.ligoj.app.iam.ResourceOrg;
+import org.ligoj.app.iam.UserOrg;
+import org.ligoj.app.plugin.id.dao.AbstractMemCacheRepository.CacheDataType;
+import org.ligoj.app.plugin.id.model.AbstractNameComparator;
+import org.ligoj.app.plugin.id.model.CompanyComparator;
+import org.ligoj.app.plugin.id.model.FirstNameComparator;
+import org.ligoj.app.plugin.id.model.LastNameComparator;
+import org.ligoj.app.plugin.id.model.LoginComparator;
+import org.ligoj.app.plugin.id.model.MailComparator;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+/**
+ * Immutable and versioned view of the in-memory identity data. A reader should get it once per request to work on a
+ * consistent state. The users, groups and companies are copied, so an update is published as a new copy. The
+ * membership collections of the copies are frozen: a view of a {@link MembershipIndex} is replaced by its current
+ * memberships, another collection is never updated in place by the repository.
+ */
+public class MemCacheSnapshot {
+
+	/**
+	 * The default sort property: the user identifier.
+	 */
+	private static final String USER_KEY = "id";
+
+	/**
+	 * Comparators of the users by sortable property.
+	 */
+	private static final Map<String, Comparator<UserOrg>> COMPARATORS = Map.of(USER_KEY, new LoginComparator(),
+			"firstName", new FirstNameComparator(), "lastName", new LastNameComparator(), "mail", new MailComparator(),
+			"company", new CompanyComparator());
+
+	/**
+	 * The version of this snapshot. Incremented by each published change.
+	 */
+	@Getter
+	private final long version;
+
+	private final LayeredMap<CompanyOrg> companies;
+
+	private final LayeredMap<GroupOrg> groups;
+
+	private final LayeredMap<UserOrg> users;
+
+	/**
+	 * Sorted users by comparator type, computed on demand.
+	 */
+	private final Map<Class<?>, List<UserOrg>> sortedUsers;
+
+	/**
+	 * Container trees by type, computed on demand.
+	 */
+	private final Map<CacheDataType, ContainerTree<?>> trees;
+
+	/**
+	 * The data this snapshot is built from.
+	 */
+	private final Map<CacheDataType, Map<String, ? extends ResourceOrg>> source;
+
+	/**
+	 * The user search index of the data this snapshot is built from. May be <code>null</code>.
+	 */
+	private final UserSearchIndex search;
+
+	/**
+	 * The version of {@link #search} matching the users of this snapshot.
+	 */
+	private final long searchVersion;
+
+	/**
+	 * Build a snapshot from the given data.
+	 *
+	 * @param version The version of this snapshot.
+	 * @param data    The current data. May be <code>null</code>.
+	 * @param search  The user search index of the current data. May be <code>null</code>.
+	 */
+	@SuppressWarnings("unchecked")
+	MemCacheSnapshot(final long version, final Map<CacheDataType, Map<String, ? extends ResourceOrg>> data,
+			final UserSearchIndex search) {
+		this.version = version;
+		this.source = data == null ? Map.of() : data;
+		this.search = search;
+		this.searchVersion = search == null ? 0 : search.getVersion();
+		this.companies = LayeredMap.of(copies((Map<String, CompanyOrg>) source.getOrDefault(CacheDataType.COMPANY, Map.of()),
+				MemCacheSnapshot::copy));
+		this.groups = LayeredMap.of(copies((Map<String, GroupOrg>) source.getOrDefault(CacheDataType.GROUP, Map.of()),
+				MemCacheSnapshot::copy));
+		this.users = LayeredMap.of(copies((Map<String, UserOrg>) source.getOrDefault(CacheDataType.USER, Map.of()),
+				MemCacheSnapshot::copy));
+		this.sortedUsers = new ConcurrentHashMap<>();
+		this.trees = new ConcurrentHashMap<>();
+	}
+
+	private MemCacheSnapshot(final long version, final MemCacheSnapshot previous,
+			final Map<CacheDataType, Map<String, ResourceOrg>> changes, final UserSearchIndex search) {
+		this.version = version;
+		this.source = previous.source;
+		this.search = search;
+		this.searchVersion = search == null ? 0 : search.getVersion();
+		this.companies = previous.companies.with(copies(this.<CompanyOrg>changes(changes, CacheDataType.COMPANY), MemCacheSnapshot::copy));
+		this.groups = previous.groups.with(copies(this.<GroupOrg>changes(changes, CacheDataType.GROUP), MemCacheSnapshot::copy));
+		final var copies = copies(this.<UserOrg>changes(changes, CacheDataType.USER), MemCacheSnapshot::copy);
+		this.users = previous.users.with(copies);
+
+		// Keep the computed data of the unchanged types
+		this.sortedUsers = copies.isEmpty() ? previous.sortedUsers : new ConcurrentHashMap<>();
+		this.trees = new ConcurrentHashMap<>(previous.trees);
+		changes.keySet().forEach(trees::remove);
+	}
+
+	/**
+	 * Return a new snapshot with the given changes. This snapshot is not updated.
+	 *
+	 * @param version The version of the new snapshot.
+	 * @param changes The changed resources by type and identifier. A <code>null</code> resource is a removal.
+	 * @param search  The user search index including the given changes. May be <code>null</code>.
+	 * @return The new snapshot.
+	 */
+	MemCacheSnapshot with(final long version, final Map<CacheDataType, Map<String, ResourceOrg>> changes,
+			final UserSearchIndex search) {
+		return new MemCacheSnapshot(version, this, changes, search);
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T extends ResourceOrg> Map<String, T> changes(final Map<CacheDataType, Map<String, ResourceOrg>> changes,
+			final CacheDataType type) {
+		return (Map<String, T>) changes.getOrDefault(type, Map.of());
+	}
+
+	/**
+	 * Return the copies of the given resources. A <code>null</code> resource, a removal, is kept as is.
+	 */
+	private static <T extends ResourceOrg> Map<String, T> copies(final Map<String, T> resources, final UnaryOperator<T> copier) {
+		final var result = new HashMap<String, T>(resources.size() * 2);
+		resources.forEach((id, r) -> result.put(id, r == null ? null : copier.apply(r)));
+		return result;
+	}
+
+	/**
+	 * Return a copy of the given company, so the later updates of the given company are not visible in this snapshot.
+	 */
+	private static CompanyOrg copy(final CompanyOrg company) {
+		final var result = new CompanyOrg(company.getDn(), company.getName());
+		result.setId(company.getId());
+		result.setLocked(company.isLocked());
+		result.setParent(company.getParent());
+		result.setCompanyTree(company.getCompanyTree());
+		return result;
+	}
+
+	/**
+	 * Return a copy of the given group, so the later updates of the given group are not visible in this snapshot.
+	 */
+	private static GroupOrg copy(final GroupOrg group) {
+		final var result = new GroupOrg(group.getDn(), group.getName(), freeze(group.getMembers()));
+		result.setId(group.getId());
+		result.setLocked(group.isLocked());
+		result.setParent(group.getParent());
+		result.setSubGroups(freeze(group.getSubGroups()));
+		return result;
+	}
+
+	/**
+	 * Return the immutable memberships of the given set.
+	 */
+	private static Set<String> freeze(final Set<String> memberships) {
+		return memberships == null ? null : (Set<String>) MembershipIndex.freeze(memberships);
+	}
+
+	/**
+	 * Return a copy of the given user, so the later updates of the given user are not visible in this snapshot.
+	 */
+	private static UserOrg copy(final UserOrg user) {
+		final var result = new UserOrg();
+		user.copy(result);
+		result.setDn(user.getDn());
+		result.setMails(user.getMails());
+		result.setLocked(user.getLocked());
+		result.setLockedBy(user.getLockedBy());
+		result.setIsolated(user.getIsolated());
+		result.setGroups(MembershipIndex.freeze(user.getGroups()));
+		result.setCustomAttributes(user.getCustomAttributes());
+		return result;
+	}
+
+	/**
+	 * Return the companies by identifier.
+	 *
+	 * @return The immutable companies by identifier.
+	 */
+	public Map<String, CompanyOrg> getCompanies() {
+		return companies;
+	}
+
+	/**
+	 * Return the groups by identifier.
+	 *
+	 * @return The immutable groups by identifier.
+	 */
+	public Map<String, GroupOrg> getGroups() {
+		return groups;
+	}
+
+	/**
+	 * Return the users by identifier.
+	 *
+	 * @return The immutable users by identifier.
+	 */
+	public Map<String, UserOrg> getUsers() {
+		return users;
+	}
+
+	/**
+	 * Return the users matching the given filters, ordered and paginated as the user repository does with its own
+	 * data.
+	 *
+	 * @param requiredGroups The groups the users must be member of, at least one of them. <code>null</code> when not
+	 *                       filtered.
+	 * @param companies      The companies the users must belong to.
+	 * @param criteria       The optional criteria to match. See {@link UserSearchIndex#matches(UserOrg, String)}.
+	 * @param pageable       The ordering and the pagination. The users are ordered by the first sorted property, then
+	 *                       by identifier. May be <code>null</code>.
+	 * @return The requested page of the matching users.
+	 */
+	public Page<UserOrg> findAll(final Collection<GroupOrg> requiredGroups, final Set<String> companies,
+			final String criteria, final Pageable pageable) {
+		final var page = pageable == null ? Pageable.unpaged() : pageable;
+		final var found = find(criteria);
+		final var order = page.getSort().stream().findFirst().orElse(Sort.Order.asc(USER_KEY));
+		final var comparator = COMPARATORS.getOrDefault(order.getProperty(), COMPARATORS.get(USER_KEY));
+		final Predicate<UserOrg> filter = u -> companies.contains(u.getCompany())
+				&& (criteria == null || UserSearchIndex.matches(u, criteria));
+		final Stream<UserOrg> candidates;
+		if (found != null) {
+			// Only the indexed candidates are checked
+			final var required = requiredGroups == null ? null
+					: requiredGroups.stream().map(g -> groups.get(g.getId())).filter(Objects::nonNull).toList();
+			candidates = found.stream().map(users::get).filter(Objects::nonNull)
+					.filter(u -> required == null || required.stream().anyMatch(g -> g.getMembers().contains(u.getId())));
+		} else if (requiredGroups == null) {
+			// Filter all users in the order computed once for this snapshot
+			candidates = null;
+		} else {
+			candidates = requiredGroups.stream().map(g -> groups.get(g.getId())).filter(Objects::nonNull)
+					.flatMap(g -> g.getMembers().stream()).distinct().map(users::get).filter(Objects::nonNull);
+		}
+
+		// Order by the first sorted property
+		final var sorted = candidates == null ? getSortedUsers(comparator).stream().filter(filter).toList()
+				: sort(candidates.filter(filter).toList(), comparator);
+		final var result = order.isDescending() ? sorted.reversed() : sorted;
+		if (page.isUnpaged()) {
+			return new PageImpl<>(result, page, result.size());
+		}
+		final var from = (int) Math.min(page.getOffset(), result.size());
+		return new PageImpl<>(result.subList(from, Math.min(from + page.getPageSize(), result.size())), page,
+				result.size());
+	}
+
+	/**
+	 * Return the identifiers of the users that may match the given criteria from the user search index.
+	 *
+	 * @param criteria The criteria to match. May be <code>null</code>.
+	 * @return The candidate user identifiers. <code>null</code> when the users have to be scanned: no criteria, a
+	 *         criteria too short for the index, or an index updated since this snapshot.
+	 */
+	private List<String> find(final String criteria) {
+		if (criteria == null || search == null || search.getVersion() != searchVersion) {
+			return null;
+		}
+		final var result = search.find(criteria);
+
+		// Updates increment the version before any change of the index
+		return search.getVersion() == searchVersion ? result : null;
+	}
+
+	/**
+	 * Return the users in the order of the given comparator. The order is computed once per comparator type for this
+	 * snapshot, so a sorted page does not require a new sort until the next published change.
+	 *
+	 * @param comparator The comparator ordering the users.
+	 * @return The sorted users.
+	 */
+	public List<UserOrg> getSortedUsers(final Comparator<UserOrg> comparator) {
+		return sortedUsers.computeIfAbsent(comparator.getClass(), k -> sort(users.values(), comparator));
+	}
+
+	/**
+	 * Return the given users in the order of the given comparator, with the precomputed keys of a
+	 * {@link AbstractNameComparator}.
+	 */
+	private static List<UserOrg> sort(final Collection<UserOrg> users, final Comparator<UserOrg> comparator) {
+		return comparator instanceof AbstractNameComparator named ? named.sort(users)
+				: users.stream().sorted(comparator).toList();
+	}
+
+	/**
+	 * Return the tree of the groups. Computed once for this snapshot.
+	 *
+	 * @return The tree of the groups.
+	 */
+	@SuppressWarnings("unchecked")
+	public ContainerTree<GroupOrg> getGroupTree() {
+		return (ContainerTree<GroupOrg>) trees.computeIfAbsent(CacheDataType.GROUP, k -> ContainerTree.of(groups));
+	}
+
+	/**
+	 * Return the tree of the companies. Computed once for this snapshot.
+	 *
+	 * @return The tree of the companies.
+	 */
+	@SuppressWarnings("unchecked")
+	public ContainerTree<CompanyOrg> getCompanyTree() {
+		return (ContainerTree<CompanyOrg>) trees.computeIfAbsent(CacheDataType.COMPANY, k -> ContainerTree.of(companies));
+	}
+
+	/**
+	 * Indicates this snapshot is built from the given containers.
+	 *
+	 * @param containers The containers to check, as returned by a repository.
+	 * @return <code>true</code> when the given containers are the ones copied by this snapshot.
+	 */
+	public boolean isSnapshotOf(final Map<String, ? extends ContainerOrg> containers) {
+		return source.get(CacheDataType.GROUP) == containers || source.get(CacheDataType.COMPANY) == containers;
+	}
+}
@@ -0,0 +1,354 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.id.dao;
+
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.ligoj.app.iam.CompanyOrg;
+import org.ligoj.app.iam.GroupOrg;
+import org.ligoj.app.iam.ResourceOrg;
+import org.ligoj.app.iam.UserOrg;
+import org.ligoj.app.plugin.id.dao.AbstractMemCacheRepository.CacheDataType;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * Binary on-disk snapshot of the in-memory identity data: companies, groups, users and their memberships. Written after
+ * each successful refresh, and memory-mapped back on boot. Disabled while the snapshot file is not configured.
+ */
+@Component
+@Slf4j
+public class MemCacheSnapshotStore {
+
+	/**
+	 * Configuration name of the snapshot file path. When not defined, the snapshot is disabled.
+	 */
+	public static final String CONF_SNAPSHOT_FILE = "service:id:cache-snapshot-file";
+
+	/**
+	 * Configuration name of the maximal age (minutes) of a restored snapshot. An older snapshot is ignored.
+	 */
+	public static final String CONF_SNAPSHOT_MAX_AGE = "service:id:cache-snapshot-max-age";
+
+	/**
+	 * Default maximal age (minutes) of a restored snapshot.
+	 */
+	public static final int DEFAULT_SNAPSHOT_MAX_AGE = 24 * 60;
+
+	/**
+	 * File header marker.
+	 */
+	private static final int MAGIC = 0x4C494443;
+
+	/**
+	 * Format version, to increment on each format change.
+	 */
+	private static final int FORMAT_VERSION = 3;
+
+	/**
+	 * Marker of a <code>null</code> string.
+	 */
+	private static final int NULL_LENGTH = -1;
+
+	@Autowired(required = false)
+	@Setter
+	private ConfigurationResource configuration;
+
+	/**
+	 * Return the configured snapshot file.
+	 *
+	 * @return The configured snapshot file. <code>null</code> when the snapshot is disabled.
+	 */
+	private Path getFile() {
+		if (configuration == null) {
+			return null;
+		}
+		final var file = StringUtils.trimToNull(configuration.get(CONF_SNAPSHOT_FILE));
+		return file == null ? null : Path.of(file);
+	}
+
+	/**
+	 * Write the given data to the snapshot file. The previous snapshot is atomically replaced. A failure is logged and
+	 * does not stop the refresh.
+	 *
+	 * @param data        The data to write.
+	 * @param refreshTime The UTC time (milli) of these data.
+	 */
+	@SuppressWarnings("unchecked")
+	public void write(final Map<CacheDataType, Map<String, ? extends ResourceOrg>> data, final long refreshTime) {
+		final var file = getFile();
+		if (file == null) {
+			return;
+		}
+		final var start = System.currentTimeMillis();
+		Path tmp = null;
+		try {
+			tmp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+			try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				out.writeLong(refreshTime);
+				writeCompanies(out, ((Map<String, CompanyOrg>) data.get(CacheDataType.COMPANY)).values());
+				writeGroups(out, ((Map<String, GroupOrg>) data.get(CacheDataType.GROUP)).values());
+				writeUsers(out, ((Map<String, UserOrg>) data.get(CacheDataType.USER)).values());
+			}
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			log.info("Identity snapshot written to {} in {}ms", file, System.currentTimeMillis() - start);
+		} catch (final IOException | RuntimeException e) {
+			log.warn("Unable to write the identity snapshot {}", file, e);
+			deleteQuietly(tmp);
+		}
+	}
+
+	/**
+	 * Delete the given incomplete file.
+	 */
+	private void deleteQuietly(final Path tmp) {
+		if (tmp != null) {
+			try {
+				Files.deleteIfExists(tmp);
+			} catch (final IOException e) {
+				log.warn("Unable to delete the incomplete identity snapshot {}", tmp, e);
+			}
+		}
+	}
+
+	/**
+	 * Read the snapshot file when it is valid. A snapshot older than the configured maximal age is ignored, see
+	 * {@link #CONF_SNAPSHOT_MAX_AGE}.
+	 *
+	 * @param minRefreshTime The minimal UTC time (milli) of an acceptable snapshot. An older snapshot is ignored.
+	 * @return The snapshot data. <code>null</code> when the snapshot is disabled, missing, older than the given time or
+	 *         the maximal age, or invalid.
+	 */
+	public Map<CacheDataType, Map<String, ? extends ResourceOrg>> read(final long minRefreshTime) {
+		final var file = getFile();
+		if (file == null || !Files.isRegularFile(file)) {
+			return null;
+		}
+		try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			final var in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (in.getInt() != MAGIC || in.getInt() != FORMAT_VERSION) {
+				log.warn("Ignored identity snapshot {} with unsupported format", file);
+				return null;
+			}
+			final var refreshTime = in.getLong();
+			if (refreshTime < minRefreshTime) {
+				log.info("Ignored identity snapshot {} older than the last cache refresh", file);
+				return null;
+			}
+			final var maxAge = Duration.ofMinutes(configuration.get(CONF_SNAPSHOT_MAX_AGE, DEFAULT_SNAPSHOT_MAX_AGE));
+			if (refreshTime < System.currentTimeMillis() - maxAge.toMillis()) {
+				log.info("Ignored identity snapshot {} older than {}", file, maxAge);
+				return null;
+			}
+			final Map<CacheDataType, Map<String, ? extends ResourceOrg>> result = new EnumMap<>(CacheDataType.class);
+			result.put(CacheDataType.COMPANY, readCompanies(in));
+			result.put(CacheDataType.GROUP, readGroups(in));
+			result.put(CacheDataType.USER, readUsers(in));
+			return result;
+		} catch (final IOException | RuntimeException e) {
+			log.warn("Unable to read the identity snapshot {}", file, e);
+			return null;
+		}
+	}
+
+	private void writeCompanies(final DataOutputStream out, final Collection<CompanyOrg> companies) throws IOException {
+		out.writeInt(companies.size());
+		for (final var company : companies) {
+			writeString(out, company.getDn());
+			writeString(out, company.getName());
+			out.writeBoolean(company.isLocked());
+			writeString(out, company.getParent());
+		}
+	}
+
+	private Map<String, CompanyOrg> readCompanies(final ByteBuffer in) {
+		final var size = in.getInt();
+		final var result = new HashMap<String, CompanyOrg>(size * 2);
+		for (var i = 0; i < size; i++) {
+			final var company = new CompanyOrg(readString(in), readString(in));
+			company.setLocked(in.get() != 0);
+			company.setParent(readString(in));
+			result.put(company.getId(), company);
+		}
+
+		// Rebuild the company trees: the ancestors from the root, then the company itself
+		final var tree = ContainerTree.of(result);
+		result.values().forEach(c -> {
+			final var companyTree = new ArrayList<CompanyOrg>();
+			tree.getAncestors(c.getId()).reversed().stream().map(result::get).forEach(companyTree::add);
+			companyTree.add(c);
+			c.setCompanyTree(companyTree);
+		});
+		return result;
+	}
+
+	private void writeGroups(final DataOutputStream out, final Collection<GroupOrg> groups) throws IOException {
+		out.writeInt(groups.size());
+		for (final var group : groups) {
+			writeString(out, group.getDn());
+			writeString(out, group.getName());
+			out.writeBoolean(group.isLocked());
+			writeString(out, group.getParent());
+			writeStrings(out, group.getMembers());
+			writeStrings(out, group.getSubGroups());
+		}
+	}
+
+	private Map<String, GroupOrg> readGroups(final ByteBuffer in) {
+		final var size = in.getInt();
+		final var result = new HashMap<String, GroupOrg>(size * 2);
+		for (var i = 0; i < size; i++) {
+			final var dn = readString(in);
+			final var name = readString(in);
+			final var locked = in.get() != 0;
+			final var parent = readString(in);
+			final var group = new GroupOrg(dn, name, readStrings(in, new HashSet<>()));
+			group.setLocked(locked);
+			group.setParent(parent);
+			group.setSubGroups(readStrings(in, new HashSet<>()));
+			result.put(group.getId(), group);
+		}
+		return result;
+	}
+
+	private void writeUsers(final DataOutputStream out, final Collection<UserOrg> users) throws IOException {
+		out.writeInt(users.size());
+		for (final var user : users) {
+			writeString(out, user.getId());
+			writeString(out, user.getDn());
+			writeString(out, user.getFirstName());
+			writeString(out, user.getLastName());
+			writeString(out, user.getCompany());
+			writeString(out, user.getDepartment());
+			writeString(out, user.getLocalId());
+			writeStrings(out, user.getMails());
+			writeStrings(out, user.getGroups());
+			writeInstant(out, user.getLocked());
+			writeString(out, user.getLockedBy());
+			writeString(out, user.getIsolated());
+			writeStringMap(out, user.getCustomAttributes());
+		}
+	}
+
+	private Map<String, UserOrg> readUsers(final ByteBuffer in) {
+		final var size = in.getInt();
+		final var result = new HashMap<String, UserOrg>(size * 2);
+		for (var i = 0; i < size; i++) {
+			final var user = new UserOrg();
+			user.setId(readString(in));
+			user.setDn(readString(in));
+			user.setFirstName(readString(in));
+			user.setLastName(readString(in));
+			user.setCompany(readString(in));
+			user.setDepartment(readString(in));
+			user.setLocalId(readString(in));
+			user.setMails(readStrings(in, new ArrayList<>()));
+			user.setGroups(readStrings(in, new ArrayList<>()));
+			user.setLocked(readInstant(in));
+			user.setLockedBy(readString(in));
+			user.setIsolated(readString(in));
+			user.setCustomAttributes(readStringMap(in));
+			result.put(user.getId(), user);
+		}
+		return result;
+	}
+
+	private void writeStrings(final DataOutputStream out, final Collection<String> values) throws IOException {
+		if (values == null) {
+			out.writeInt(0);
+			return;
+		}
+		out.writeInt(values.size());
+		for (final var value : values) {
+			writeString(out, value);
+		}
+	}
+
+	private <C extends Collection<String>> C readStrings(final ByteBuffer in, final C result) {
+		final var size = in.getInt();
+		for (var i = 0; i < size; i++) {
+			result.add(readString(in));
+		}
+		return result;
+	}
+
+	private void writeStringMap(final DataOutputStream out, final Map<String, String> values) throws IOException {
+		if (values == null) {
+			out.writeInt(NULL_LENGTH);
+			return;
+		}
+		out.writeInt(values.size());
+		for (final var entry : values.entrySet()) {
+			writeString(out, entry.getKey());
+			writeString(out, entry.getValue());
+		}
+	}
+
+	private Map<String, String> readStringMap(final ByteBuffer in) {
+		final var size = in.getInt();
+		if (size == NULL_LENGTH) {
+			return null;
+		}
+		final var result = new HashMap<String, String>(size * 2);
+		for (var i = 0; i < size; i++) {
+			result.put(readString(in), readString(in));
+		}
+		return result;
+	}
+
+	private void writeInstant(final DataOutputStream out, final Instant value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeLong(value.getEpochSecond());
+			out.writeInt(value.getNano());
+		}
+	}
+
+	private Instant readInstant(final ByteBuffer in) {
+		return in.get() == 0 ? null : Instant.ofEpochSecond(in.getLong(), in.getInt());
+	}
+
+	private void writeString(final DataOutputStream out, final String value) throws IOException {
+		if (value == null) {
+			out.writeInt(NULL_LENGTH);
+			return;
+		}
+		final var bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private String readString(final ByteBuffer in) {
+		final var length = in.getInt();
+		if (length == NULL_LENGTH) {
+			return null;
+		}
+		final var bytes = new byte[length];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,228 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.id.dao;
+
+import org.ligoj.app.iam.GroupOrg;
+import org.ligoj.app.iam.UserOrg;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Member counters of the in-memory identity data: the amount of users of each company, and the amount of members of
+ * each group by company of these members. The visible members of a group are then counted with a sum over the visible
+ * companies, without resolving each member.
+ * <p>
+ * The counters of a group are never updated in place: an update replaces them, so a reader works on a consistent
+ * state. Updates must be serialized by the caller.
+ */
+public class MemberCountIndex {
+
+	/**
+	 * The indexed users.
+	 */
+	private final Map<String, UserOrg> users;
+
+	/**
+	 * The indexed company of each user having a company.
+	 */
+	private final Map<String, String> companyOfUser = new ConcurrentHashMap<>();
+
+	/**
+	 * The amount of members by company, for each group having a member with a company.
+	 */
+	private final Map<String, Map<String, Integer>> groupCounts = new ConcurrentHashMap<>();
+
+	/**
+	 * The amount of users, for each company having a user.
+	 */
+	private final Map<String, Integer> companyCounts = new ConcurrentHashMap<>();
+
+	private MemberCountIndex(final Map<String, UserOrg> users) {
+		this.users = users;
+	}
+
+	/**
+	 * Build an index from the given users and groups.
+	 *
+	 * @param users  All users.
+	 * @param groups All groups.
+	 * @return The new index.
+	 */
+	public static MemberCountIndex of(final Map<String, UserOrg> users, final Map<String, GroupOrg> groups) {
+		final var index = new MemberCountIndex(users);
+		users.values().forEach(index::create);
+		groups.values().stream().filter(g -> g.getMembers() != null).forEach(g -> {
+			final var counts = new HashMap<String, Integer>();
+			g.getMembers().stream().map(index.companyOfUser::get).filter(Objects::nonNull)
+					.forEach(c -> counts.merge(c, 1, Integer::sum));
+			if (!counts.isEmpty()) {
+				index.groupCounts.put(g.getId(), Map.copyOf(counts));
+			}
+		});
+		return index;
+	}
+
+	/**
+	 * Indicates this index has been built from the given users.
+	 *
+	 * @param users The users to check.
+	 * @return <code>true</code> when this index counts the members from the given users.
+	 */
+	public boolean isIndexing(final Map<String, UserOrg> users) {
+		return this.users == users;
+	}
+
+	/**
+	 * Register a new user.
+	 *
+	 * @param user The new user.
+	 */
+	public void create(final UserOrg user) {
+		if (user.getCompany() != null) {
+			companyOfUser.put(user.getId(), user.getCompany());
+			increment(user.getCompany(), 1);
+		}
+	}
+
+	/**
+	 * Unregister a user. The user is assumed to have no more membership.
+	 *
+	 * @param user The deleted user.
+	 */
+	public void delete(final UserOrg user) {
+		increment(companyOfUser.remove(user.getId()), -1);
+	}
+
+	/**
+	 * Update the counters of the groups of the given user when its company has changed.
+	 *
+	 * @param user The updated user.
+	 */
+	public void update(final UserOrg user) {
+		final var previous = companyOfUser.get(user.getId());
+		final var company = user.getCompany();
+		if (Objects.equals(previous, company)) {
+			return;
+		}
+		groupsOf(user).forEach(g -> {
+			increment(g, previous, -1);
+			increment(g, company, 1);
+		});
+		increment(previous, -1);
+		increment(company, 1);
+		if (company == null) {
+			companyOfUser.remove(user.getId());
+		} else {
+			companyOfUser.put(user.getId(), company);
+		}
+	}
+
+	private Collection<String> groupsOf(final UserOrg user) {
+		return user.getGroups() == null ? List.of() : user.getGroups();
+	}
+
+	/**
+	 * Count a new membership. The membership is assumed to be new.
+	 *
+	 * @param user  The user added to the group.
+	 * @param group The updated group.
+	 */
+	public void add(final UserOrg user, final GroupOrg group) {
+		increment(group.getId(), companyOfUser.get(user.getId()), 1);
+	}
+
+	/**
+	 * Uncount a removed membership. The membership is assumed to be existing.
+	 *
+	 * @param user  The user removed from the group.
+	 * @param group The updated group.
+	 */
+	public void remove(final UserOrg user, final GroupOrg group) {
+		increment(group.getId(), companyOfUser.get(user.getId()), -1);
+	}
+
+	/**
+	 * Reset the counters of a deleted or emptied group.
+	 *
+	 * @param group The deleted or emptied group.
+	 */
+	public void empty(final GroupOrg group) {
+		groupCounts.remove(group.getId());
+	}
+
+	private void increment(final String group, final String company, final int delta) {
+		if (company == null) {
+			return;
+		}
+		groupCounts.compute(group, (g, counts) -> {
+			final var copy = counts == null ? new HashMap<String, Integer>() : new HashMap<>(counts);
+			if (copy.merge(company, delta, Integer::sum) <= 0) {
+				copy.remove(company);
+			}
+			return copy.isEmpty() ? null : Map.copyOf(copy);
+		});
+	}
+
+	private void increment(final String company, final int delta) {
+		if (company != null) {
+			companyCounts.merge(company, delta, (count, d) -> count + d > 0 ? count + d : null);
+		}
+	}
+
+	/**
+	 * Return the amount of users of a company.
+	 *
+	 * @param company The company identifier.
+	 * @return The amount of users of the company. Users of the sub-companies are not included.
+	 */
+	public int getCount(final String company) {
+		return companyCounts.getOrDefault(company, 0);
+	}
+
+	/**
+	 * Return the amount of users of the given companies.
+	 *
+	 * @param companies The company identifiers.
+	 * @return The amount of users of the given companies.
+	 */
+	public int getCount(final Collection<String> companies) {
+		var result = 0;
+		for (final var company : companies) {
+			result += getCount(company);
+		}
+		return result;
+	}
+
+	/**
+	 * Return the amount of members of a group by company.
+	 *
+	 * @param group The group identifier.
+	 * @return The amount of members by company. Companies without member are not included.
+	 */
+	public Map<String, Integer> getCounts(final String group) {
+		return groupCounts.getOrDefault(group, Map.of());
+	}
+
+	/**
+	 * Return the amount of members of a group belonging to the given companies.
+	 *
+	 * @param group     The group identifier.
+	 * @param companies The company identifiers to include.
+	 * @return The amount of members of the group belonging to the given companies.
+	 */
+	public int count(final String group, final Collection<String> companies) {
+		var result = 0;
+		for (final var entry : getCounts(group).entrySet()) {
+			if (companies.contains(entry.getKey())) {
+				result += entry.getValue();
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,394 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.id.dao;
+
+import org.ligoj.app.iam.GroupOrg;
+import org.ligoj.app.iam.UserOrg;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToIntFunction;
+
+/**
+ * Compact user/group membership store. Users and groups get a dense integer identifier, and each membership side is a
+ * sorted <code>int</code> array. The identifiers are stored once, and exposed through {@link java.util.Set} views
+ * replacing {@link UserOrg#getGroups()} and {@link GroupOrg#getMembers()}. Adding or removing an item of a view
+ * updates both sides of the membership.
+ * <p>
+ * Updates are serialized by this index. Arrays are never updated in place: an update publishes a new array, so a
+ * reader works on a consistent state without lock.
+ */
+public class MembershipIndex {
+
+	private static final int[] EMPTY = new int[0];
+
+	/**
+	 * Estimated heap size of a view, used by the footprint estimation: the object header, the owner, the side flag and
+	 * the references to the array and to this index.
+	 */
+	private static final int VIEW_SIZE = 32;
+
+	/**
+	 * Estimated heap size of an empty <code>int</code> array, used by the footprint estimation.
+	 */
+	private static final int ARRAY_SIZE = 16;
+
+	private final Names users = new Names();
+	private final Names groups = new Names();
+
+	/**
+	 * Views by user identifier. Guarded by this index.
+	 */
+	private final List<View> groupsOfUser = new ArrayList<>();
+
+	/**
+	 * Views by group identifier. Guarded by this index.
+	 */
+	private final List<View> membersOfGroup = new ArrayList<>();
+
+	/**
+	 * Build an index from the given users and groups, and replace their membership collections by the views of this
+	 * index.
+	 *
+	 * @param users  All users.
+	 * @param groups All groups.
+	 * @return The new index.
+	 */
+	public static MembershipIndex compact(final Map<String, UserOrg> users, final Map<String, GroupOrg> groups) {
+		final var index = new MembershipIndex();
+		synchronized (index) {
+			groups.values().forEach(g -> index.toGroupId(g.getId()));
+			users.values().forEach(u -> {
+				final var userId = index.toUserId(u.getId());
+				if (u.getGroups() != null) {
+					index.groupsOfUser.get(userId).ids = index.toSortedIds(u.getGroups(), index::toGroupId);
+				}
+			});
+			groups.values().forEach(g -> {
+				if (g.getMembers() != null) {
+					index.membersOfGroup.get(index.toGroupId(g.getId())).ids = index.toSortedIds(g.getMembers(), index::toUserId);
+				}
+			});
+			users.values().forEach(index::install);
+			groups.values().forEach(index::install);
+		}
+		return index;
+	}
+
+	/**
+	 * Return an immutable copy of the given memberships. A view of an index is copied without copying its items.
+	 *
+	 * @param memberships The memberships to copy, such as {@link UserOrg#getGroups()}.
+	 * @return The immutable memberships. The given collection when it is not a view.
+	 */
+	public static Collection<String> freeze(final Collection<String> memberships) {
+		return memberships instanceof View view ? view.current() : memberships;
+	}
+
+	private int[] toSortedIds(final Iterable<String> ids, final ToIntFunction<String> toId) {
+		var result = new int[8];
+		var size = 0;
+		for (final var id : ids) {
+			if (size == result.length) {
+				result = Arrays.copyOf(result, size * 2);
+			}
+			result[size++] = toId.applyAsInt(id);
+		}
+		return Arrays.stream(result, 0, size).sorted().distinct().toArray();
+	}
+
+	private int toUserId(final String user) {
+		return toId(users, user, groupsOfUser, true);
+	}
+
+	private int toGroupId(final String group) {
+		return toId(groups, group, membersOfGroup, false);
+	}
+
+	private int toId(final Names names, final String name, final List<View> views, final boolean ofUser) {
+		final var id = names.ids.get(name);
+		if (id != null) {
+			return id;
+		}
+		views.add(new View(ofUser, views.size()));
+		return names.add(name);
+	}
+
+	/**
+	 * Replace the groups of the given user by the view of this index. The groups not yet indexed are imported.
+	 *
+	 * @param user The user to install.
+	 */
+	public synchronized void install(final UserOrg user) {
+		final var userId = toUserId(user.getId());
+		final var view = groupsOfUser.get(userId);
+		if (user.getGroups() != view) {
+			if (user.getGroups() != null) {
+				user.getGroups().forEach(g -> link(userId, toGroupId(g)));
+			}
+			user.setGroups(view);
+		}
+	}
+
+	/**
+	 * Replace the members of the given group by the view of this index. The members not yet indexed are imported.
+	 *
+	 * @param group The group to install.
+	 */
+	public synchronized void install(final GroupOrg group) {
+		final var groupId = toGroupId(group.getId());
+		final var view = membersOfGroup.get(groupId);
+		if (group.getMembers() != view) {
+			if (group.getMembers() != null) {
+				group.getMembers().forEach(u -> link(toUserId(u), groupId));
+			}
+			group.setMembers(view);
+		}
+	}
+
+	/**
+	 * Add a membership.
+	 *
+	 * @param user  The user to add to the group.
+	 * @param group The group to update.
+	 */
+	public synchronized void add(final UserOrg user, final GroupOrg group) {
+		install(user);
+		install(group);
+		link(toUserId(user.getId()), toGroupId(group.getId()));
+	}
+
+	/**
+	 * Remove a membership.
+	 *
+	 * @param user  The user to remove from the group.
+	 * @param group The group to update.
+	 */
+	public synchronized void remove(final UserOrg user, final GroupOrg group) {
+		install(user);
+		install(group);
+		unlink(toUserId(user.getId()), toGroupId(group.getId()));
+	}
+
+	private synchronized boolean link(final int userId, final int groupId) {
+		final var user = groupsOfUser.get(userId);
+		final var group = membersOfGroup.get(groupId);
+		final var previous = user.ids;
+		user.ids = add(previous, groupId);
+		group.ids = add(group.ids, userId);
+		return previous != user.ids;
+	}
+
+	private synchronized boolean unlink(final int userId, final int groupId) {
+		final var user = groupsOfUser.get(userId);
+		final var group = membersOfGroup.get(groupId);
+		final var previous = user.ids;
+		user.ids = remove(previous, groupId);
+		group.ids = remove(group.ids, userId);
+		return previous != user.ids;
+	}
+
+	/**
+	 * Return the estimated heap size of the memberships in this index, identifiers excluded: the views and their
+	 * arrays.
+	 *
+	 * @return The estimated heap size in bytes.
+	 */
+	public synchronized long estimateFootprint() {
+		long result = 0;
+		for (final var view : groupsOfUser) {
+			result += VIEW_SIZE + ARRAY_SIZE + 4L * view.ids.length;
+		}
+		for (final var view : membersOfGroup) {
+			result += VIEW_SIZE + ARRAY_SIZE + 4L * view.ids.length;
+		}
+		return result;
+	}
+
+	private static int[] add(final int[] ids, final int id) {
+		final var position = Arrays.binarySearch(ids, id);
+		if (position >= 0) {
+			return ids;
+		}
+		final var insert = -position - 1;
+		final var result = new int[ids.length + 1];
+		System.arraycopy(ids, 0, result, 0, insert);
+		result[insert] = id;
+		System.arraycopy(ids, insert, result, insert + 1, ids.length - insert);
+		return result;
+	}
+
+	private static int[] remove(final int[] ids, final int id) {
+		final var position = Arrays.binarySearch(ids, id);
+		if (position < 0) {
+			return ids;
+		}
+		final var result = new int[ids.length - 1];
+		System.arraycopy(ids, 0, result, 0, position);
+		System.arraycopy(ids, position + 1, result, position, result.length - position);
+		return result;
+	}
+
+	/**
+	 * Dense identifiers of names. Written under the lock of the index, read without lock: a name is stored before the
+	 * publication of an array referencing its identifier.
+	 */
+	private static final class Names {
+		private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+		private volatile String[] values = new String[16];
+		private int size;
+
+		private int add(final String name) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size] = name;
+			ids.put(name, size);
+			return size++;
+		}
+
+		private String get(final int id) {
+			return values[id];
+		}
+	}
+
+	/**
+	 * Immutable set of memberships.
+	 */
+	private static final class Memberships extends AbstractSet<String> {
+		private final int[] ids;
+		private final Names names;
+
+		private Memberships(final int[] ids, final Names names) {
+			this.ids = ids;
+			this.names = names;
+		}
+
+		@Override
+		public boolean contains(final Object o) {
+			final var id = o == null ? null : names.ids.get(o);
+			return id != null && Arrays.binarySearch(ids, id) >= 0;
+		}
+
+		@Override
+		public Iterator<String> iterator() {
+			return new Iterator<>() {
+				private int cursor;
+
+				@Override
+				public boolean hasNext() {
+					return cursor < ids.length;
+				}
+
+				@Override
+				public String next() {
+					if (!hasNext()) {
+						throw new NoSuchElementException();
+					}
+					return names.get(ids[cursor++]);
+				}
+			};
+		}
+
+		@Override
+		public int size() {
+			return ids.length;
+		}
+	}
+
+	/**
+	 * Set view of one side of a membership: the groups of a user, or the members of a group. An iteration works on the
+	 * memberships at its start, and removing through the iterator updates both sides of the membership.
+	 */
+	private final class View extends AbstractSet<String> {
+		private final boolean ofUser;
+		private final int owner;
+		private volatile int[] ids = EMPTY;
+
+		private View(final boolean ofUser, final int owner) {
+			this.ofUser = ofUser;
+			this.owner = owner;
+		}
+
+		/**
+		 * Return the current immutable memberships of this view.
+		 */
+		private Memberships current() {
+			return new Memberships(ids, ofUser ? groups : users);
+		}
+
+		@Override
+		public boolean contains(final Object o) {
+			return current().contains(o);
+		}
+
+		@Override
+		public Iterator<String> iterator() {
+			final var iterator = current().iterator();
+			return new Iterator<>() {
+				private String last;
+
+				@Override
+				public boolean hasNext() {
+					return iterator.hasNext();
+				}
+
+				@Override
+				public String next() {
+					last = iterator.next();
+					return last;
+				}
+
+				@Override
+				public void remove() {
+					if (last == null) {
+						throw new IllegalStateException();
+					}
+					View.this.remove(last);
+					last = null;
+				}
+			};
+		}
+
+		@Override
+		public int size() {
+			return ids.length;
+		}
+
+		@Override
+		public void clear() {
+			synchronized (MembershipIndex.this) {
+				for (final var other : ids) {
+					if (ofUser) {
+						unlink(owner, other);
+					} else {
+						unlink(other, owner);
+					}
+				}
+			}
+		}
+
+		@Override
+		public boolean add(final String name) {
+			synchronized (MembershipIndex.this) {
+				return ofUser ? link(owner, toGroupId(name)) : link(toUserId(name), owner);
+			}
+		}
+
+		@Override
+		public boolean remove(final Object o) {
+			synchronized (MembershipIndex.this) {
+				final var other = o == null ? null : (ofUser ? groups : users).ids.get(o);
+				return other != null && (ofUser ? unlink(owner, other) : unlink(other, owner));
+			}
+		}
+	}
+}
@@ -0,0 +1,245 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.id.dao;
+
+import lombok.Getter;
+import org.apache.commons.collections4.CollectionUtils;
+import org.ligoj.app.iam.UserOrg;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Trigram index of the user identifier, first name, last name and mails. A criteria is resolved by intersecting the
+ * users of each of its trigrams: the candidates are a superset of the users matching the criteria, to be checked with
+ * {@link #matches(UserOrg, String)}, so the result is the same as a scan of all users. The values and the criteria are
+ * folded with {@link #fold(String)} by both the trigrams and the check.
+ * <p>
+ * Users get a dense integer identifier, and the users of a trigram are a sorted <code>int</code> array. Arrays are
+ * never updated in place: an update replaces the array, so a reader works on a consistent state. Updates must be
+ * serialized by the caller, and increment {@link #getVersion()} before any change, so a reader can detect a
+ * concurrent update.
+ */
+public class UserSearchIndex {
+
+	/**
+	 * Length of the indexed grams. Shorter criteria are not resolved by this index.
+	 */
+	public static final int GRAM = 3;
+
+	private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+	private final List<Set<String>> gramsOfUser = new ArrayList<>();
+	private final Map<String, int[]> usersOfGram = new ConcurrentHashMap<>();
+
+	/**
+	 * User identifiers by dense identifier. A deleted user is <code>null</code>.
+	 */
+	private volatile String[] names = new String[16];
+
+	/**
+	 * Amount of updates of this index.
+	 */
+	@Getter
+	private volatile long version;
+
+	/**
+	 * Build an index of the given users.
+	 *
+	 * @param users All users.
+	 * @return The new index.
+	 */
+	public static UserSearchIndex of(final Collection<UserOrg> users) {
+		final var index = new UserSearchIndex();
+		final var builder = new HashMap<String, List<Integer>>();
+		users.forEach(u -> {
+			final var id = index.register(u);
+			index.gramsOfUser.get(id).forEach(g -> builder.computeIfAbsent(g, k -> new ArrayList<>()).add(id));
+		});
+		// Identifiers are registered in ascending order, so the arrays are sorted
+		builder.forEach((g, userIds) -> index.usersOfGram.put(g, userIds.stream().mapToInt(Integer::intValue).toArray()));
+		return index;
+	}
+
+	/**
+	 * Return the trigrams of the searchable values of the given user.
+	 */
+	private static Set<String> toGrams(final UserOrg user) {
+		final var result = new HashSet<String>();
+		Stream.concat(Stream.of(user.getId(), user.getFirstName(), user.getLastName()),
+				CollectionUtils.emptyIfNull(user.getMails()).stream()).forEach(v -> addGrams(v, result));
+		return result;
+	}
+
+	private static void addGrams(final String value, final Set<String> grams) {
+		if (value != null) {
+			final var folded = fold(value);
+			for (var i = 0; i + GRAM <= folded.length(); i++) {
+				grams.add(folded.substring(i, i + GRAM));
+			}
+		}
+	}
+
+	/**
+	 * Return the case-folded value compared by this index.
+	 *
+	 * @param value The value to fold.
+	 * @return The folded value.
+	 */
+	static String fold(final String value) {
+		return value.toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Register the user and compute its grams, without indexing them.
+	 */
+	private int register(final UserOrg user) {
+		final var id = gramsOfUser.size();
+		if (id == names.length) {
+			names = Arrays.copyOf(names, id * 2);
+		}
+		names[id] = user.getId();
+		gramsOfUser.add(toGrams(user));
+		ids.put(user.getId(), id);
+		return id;
+	}
+
+	/**
+	 * Index a new user, or the new values of an indexed user.
+	 *
+	 * @param user The created or updated user.
+	 */
+	public void update(final UserOrg user) {
+		version++;
+		final var existing = ids.get(user.getId());
+		if (existing == null) {
+			final var id = register(user);
+			gramsOfUser.get(id).forEach(g -> usersOfGram.compute(g, (k, a) -> add(a, id)));
+			return;
+		}
+		final var previous = gramsOfUser.get(existing);
+		final var grams = toGrams(user);
+		previous.stream().filter(g -> !grams.contains(g)).forEach(g -> usersOfGram.computeIfPresent(g, (k, a) -> remove(a, existing)));
+		grams.stream().filter(g -> !previous.contains(g)).forEach(g -> usersOfGram.compute(g, (k, a) -> add(a, existing)));
+		gramsOfUser.set(existing, grams);
+	}
+
+	/**
+	 * Remove a user from this index.
+	 *
+	 * @param user The deleted user.
+	 */
+	public void delete(final UserOrg user) {
+		version++;
+		final var existing = ids.remove(user.getId());
+		if (existing != null) {
+			gramsOfUser.get(existing).forEach(g -> usersOfGram.computeIfPresent(g, (k, a) -> remove(a, existing)));
+			gramsOfUser.set(existing, Set.of());
+			final var current = names;
+			current[existing] = null;
+			names = current;
+		}
+	}
+
+	private static int[] add(final int[] ids, final int id) {
+		if (ids == null) {
+			return new int[] { id };
+		}
+		final var position = Arrays.binarySearch(ids, id);
+		if (position >= 0) {
+			return ids;
+		}
+		final var insert = -position - 1;
+		final var result = new int[ids.length + 1];
+		System.arraycopy(ids, 0, result, 0, insert);
+		result[insert] = id;
+		System.arraycopy(ids, insert, result, insert + 1, ids.length - insert);
+		return result;
+	}
+
+	private static int[] remove(final int[] ids, final int id) {
+		final var position = Arrays.binarySearch(ids, id);
+		if (position < 0) {
+			return ids;
+		}
+		if (ids.length == 1) {
+			// No more user for this gram
+			return null;
+		}
+		final var result = new int[ids.length - 1];
+		System.arraycopy(ids, 0, result, 0, position);
+		System.arraycopy(ids, position + 1, result, position, result.length - position);
+		return result;
+	}
+
+	/**
+	 * Indicates the given user matches the criteria: the folded criteria is contained in the folded identifier, first
+	 * name, last name or one of the mails.
+	 *
+	 * @param user     The user to check.
+	 * @param criteria The criteria to match.
+	 * @return <code>true</code> when the user matches the criteria.
+	 */
+	public static boolean matches(final UserOrg user, final String criteria) {
+		final var folded = fold(criteria);
+		return Stream.concat(Stream.of(user.getId(), user.getFirstName(), user.getLastName()),
+				CollectionUtils.emptyIfNull(user.getMails()).stream()).anyMatch(v -> v != null && fold(v).contains(folded));
+	}
+
+	/**
+	 * Return the identifiers of the users having all the trigrams of the given criteria. The candidates still have to
+	 * be checked with {@link #matches(UserOrg, String)}.
+	 *
+	 * @param criteria The criteria to match. See {@link #matches(UserOrg, String)}.
+	 * @return The candidate user identifiers in the indexing order. <code>null</code> when the folded criteria is
+	 *         shorter than {@link #GRAM}: the users have to be scanned.
+	 */
+	public List<String> find(final String criteria) {
+		final var grams = new HashSet<String>();
+		if (criteria != null) {
+			addGrams(criteria, grams);
+		}
+		if (grams.isEmpty()) {
+			return null;
+		}
+		final var postings = new ArrayList<int[]>(grams.size());
+		for (final var gram : grams) {
+			final var posting = usersOfGram.get(gram);
+			if (posting == null) {
+				// No user has this gram
+				return List.of();
+			}
+			postings.add(posting);
+		}
+
+		// Intersect from the smallest array
+		postings.sort(Comparator.comparingInt(a -> a.length));
+		final var current = names;
+		final var result = new ArrayList<String>();
+		for (final var id : postings.getFirst()) {
+			if (containsAll(postings, id) && current[id] != null) {
+				result.add(current[id]);
+			}
+		}
+		return result;
+	}
+
+	private static boolean containsAll(final List<int[]> postings, final int id) {
+		for (var i = 1; i < postings.size(); i++) {
+			if (Arrays.binarySearch(postings.get(i), id) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -3,6 +3,9 @@
  */
 package org.ligoj.app.plugin.id.model;
 
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
 import java.util.function.Function;
 
 import org.apache.commons.lang3.ObjectUtils;
@@ -13,6 +16,41 @@ import org.ligoj.app.iam.UserOrg;
  */
 public abstract class AbstractNameComparator extends LoginComparator {
 
+	/**
+	 * A user with its sort key.
+	 */
+	private record SortKey(String key, UserOrg user) {
+	}
+
+	/**
+	 * The data provider to order the users. <code>null</code> when the subclass overrides
+	 * {@link #compare(UserOrg, UserOrg)}.
+	 */
+	private final Function<UserOrg, String> nameProvider;
+
+	/**
+	 * Comparator of a subclass overriding {@link #compare(UserOrg, UserOrg)}. Without overriding, the users are
+	 * ordered by identifier.
+	 */
+	protected AbstractNameComparator() {
+		this(null);
+	}
+
+	/**
+	 * Comparator based on the given data.
+	 * 
+	 * @param nameProvider
+	 *            The data provider to order the users.
+	 */
+	protected AbstractNameComparator(final Function<UserOrg, String> nameProvider) {
+		this.nameProvider = nameProvider;
+	}
+
+	@Override
+	public int compare(final UserOrg o1, final UserOrg o2) {
+		return nameProvider == null ? super.compare(o1, o2) : compare(o1, o2, nameProvider);
+	}
+
 	/**
 	 * Compare two users, first with a specific data, then with their identifier.
 	 * 
@@ -36,4 +74,30 @@ public abstract class AbstractNameComparator extends LoginComparator {
 		return compareTo;
 	}
 
+	/**
+	 * Return the given users in the order of this comparator. The case of each data is folded once per user, instead
+	 * of once per comparison. Without data provider, the users are sorted with {@link #compare(UserOrg, UserOrg)}.
+	 * 
+	 * @param users
+	 *            The users to sort.
+	 * @return The sorted users in a new list.
+	 */
+	public List<UserOrg> sort(final Collection<UserOrg> users) {
+		if (nameProvider == null) {
+			return users.stream().sorted(this).toList();
+		}
+		return users.stream().map(u -> new SortKey(toKey(ObjectUtils.getIfNull(nameProvider.apply(u), "")), u))
+				.sorted(Comparator.comparing(SortKey::key).thenComparing(SortKey::user, super::compare))
+				.map(SortKey::user).toList();
+	}
+
+	/**
+	 * Return the case folded key of the given data, ordered as {@link String#compareToIgnoreCase(String)}.
+	 */
+	private static String toKey(final String name) {
+		final var result = new StringBuilder(name.length());
+		name.codePoints().forEach(c -> result.appendCodePoint(Character.toLowerCase(Character.toUpperCase(c))));
+		return result.toString();
+	}
+
 }
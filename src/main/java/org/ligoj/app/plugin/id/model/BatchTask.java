@@ -0,0 +1,109 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.id.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import lombok.Getter;
+import lombok.Setter;
+import org.ligoj.bootstrap.core.model.AbstractPersistable;
+
+import java.time.Instant;
+import java.util.Date;
+
+/**
+ * Persisted header of a batch task. The entries are stored as {@link BatchTaskEntry}.
+ */
+@Getter
+@Setter
+@Entity
+@Table(name = "LIGOJ_BATCH_TASK", uniqueConstraints = @UniqueConstraint(columnNames = { "principal", "taskId" }))
+public class BatchTask extends AbstractPersistable<Integer> {
+
+	/**
+	 * The public identifier of the task, unique for a principal.
+	 */
+	private long taskId;
+
+	/**
+	 * User principal requesting the import.
+	 */
+	@NotBlank
+	private String principal;
+
+	/**
+	 * The class name of the task processing the entries.
+	 */
+	@NotBlank
+	private String taskType;
+
+	/**
+	 * The class name of the entries.
+	 */
+	@NotBlank
+	private String entryType;
+
+	/**
+	 * Flag to turn off the possible notification such as mail.
+	 */
+	private boolean quiet;
+
+	/**
+	 * Maximal amount of partitions processed concurrently.
+	 */
+	private int parallelism;
+
+	/**
+	 * Transaction start.
+	 */
+	private Date startDate;
+
+	/**
+	 * Transaction end. <code>null</code> when not finished.
+	 */
+	private Date endDate;
+
+	/**
+	 * Total amount of known entries.
+	 */
+	private int entries;
+
+	/**
+	 * Amount of proceeded entries.
+	 */
+	private int done;
+
+	/**
+	 * Import status. <code>null</code> when not finished.
+	 */
+	private Boolean status;
+
+	/**
+	 * Import status text, explaining a failure of the task. <code>null</code> otherwise.
+	 */
+	@Column(length = BatchTaskEntry.MAX_STATUS_TEXT)
+	private String statusText;
+
+	/**
+	 * Indicates all the entries of the input are persisted. The input of a task not fully read is not available to
+	 * another node resuming it.
+	 */
+	private boolean fullyRead;
+
+	/**
+	 * The node running this task.
+	 */
+	@NotBlank
+	private String node;
+
+	/**
+	 * The last time the running node has written the progress of this task.
+	 */
+	@NotNull
+	private Instant heartbeat;
+}
@@ -0,0 +1,62 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.id.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.Lob;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+import jakarta.validation.constraints.NotNull;
+import lombok.Getter;
+import lombok.Setter;
+import org.ligoj.bootstrap.core.model.AbstractPersistable;
+
+/**
+ * Persisted entry of a batch task, with its status.
+ */
+@Getter
+@Setter
+@Entity
+@Table(name = "LIGOJ_BATCH_TASK_ENTRY", uniqueConstraints = @UniqueConstraint(columnNames = { "task", "line" }))
+public class BatchTaskEntry extends AbstractPersistable<Integer> {
+
+	/**
+	 * Maximal length of the status text.
+	 */
+	public static final int MAX_STATUS_TEXT = 1024;
+
+	/**
+	 * The owning task.
+	 */
+	@NotNull
+	@ManyToOne
+	@JoinColumn(name = "task")
+	private BatchTask task;
+
+	/**
+	 * The 0-based position of this entry in the task.
+	 */
+	private int line;
+
+	/**
+	 * The JSON entry. Stored as a LOB, the length of an entry is not bounded.
+	 */
+	@NotNull
+	@Lob
+	private String content;
+
+	/**
+	 * Batch status for this entry. <code>null</code> when not proceeded.
+	 */
+	private Boolean status;
+
+	/**
+	 * Import status text. <code>null</code> when not proceeded.
+	 */
+	@Column(length = MAX_STATUS_TEXT)
+	private String statusText;
+}
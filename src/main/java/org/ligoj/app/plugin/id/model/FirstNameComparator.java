@@ -10,9 +10,11 @@ import org.ligoj.app.iam.UserOrg;
  */
 public class FirstNameComparator extends AbstractNameComparator {
 
-	@Override
-	public int compare(final UserOrg o1, final UserOrg o2) {
-		return compare(o1, o2, UserOrg::getFirstName);
+	/**
+	 * Default constructor.
+	 */
+	public FirstNameComparator() {
+		super(UserOrg::getFirstName);
 	}
 
 }
@@ -10,9 +10,11 @@ import org.ligoj.app.iam.UserOrg;
  */
 public class LastNameComparator extends AbstractNameComparator {
 
-	@Override
-	public int compare(final UserOrg o1, final UserOrg o2) {
-		return compare(o1, o2, UserOrg::getLastName);
+	/**
+	 * Default constructor.
+	 */
+	public LastNameComparator() {
+		super(UserOrg::getLastName);
 	}
 
 }
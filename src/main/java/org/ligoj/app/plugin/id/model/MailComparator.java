@@ -10,15 +10,17 @@ import org.ligoj.app.iam.UserOrg;
  */
 public class MailComparator extends AbstractNameComparator {
 
-	@Override
-	public int compare(final UserOrg o1, final UserOrg o2) {
-		return compare(o1, o2, this::toSafeString);
+	/**
+	 * Default constructor.
+	 */
+	public MailComparator() {
+		super(MailComparator::toSafeString);
 	}
 
 	/**
 	 * Return a safe string representation of the mail of a user.
 	 */
-	private String toSafeString(final UserOrg o1) {
+	private static String toSafeString(final UserOrg o1) {
 		return o1.getMails().isEmpty() ? "" : o1.getMails().getFirst();
 	}
 
@@ -6,7 +6,6 @@ package org.ligoj.app.plugin.id.resource;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.UriInfo;
-import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.ligoj.app.api.Normalizer;
 import org.ligoj.app.iam.ContainerOrg;
@@ -15,7 +14,10 @@ import org.ligoj.app.iam.dao.CacheContainerRepository;
 import org.ligoj.app.iam.dao.DelegateOrgRepository;
 import org.ligoj.app.iam.model.CacheContainer;
 import org.ligoj.app.model.ContainerType;
-import org.ligoj.app.plugin.id.DnUtils;
+import org.ligoj.app.plugin.id.DnIndex;
+import org.ligoj.app.plugin.id.dao.ContainerTree;
+import org.ligoj.app.plugin.id.dao.ContainerVisibilityCache;
+import org.ligoj.app.plugin.id.dao.ContainerVisibilityCache.Access;
 import org.ligoj.app.plugin.id.model.ContainerScope;
 import org.ligoj.bootstrap.core.NamedBean;
 import org.ligoj.bootstrap.core.json.PaginationJson;
@@ -30,8 +32,8 @@ import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
 
 import java.util.*;
-import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Basic container operations.
@@ -64,29 +66,119 @@ public abstract class AbstractContainerResource<T extends ContainerOrg, V extend
 	@Autowired
 	protected DelegateOrgRepository delegateRepository;
 
+	@Autowired
+	protected ContainerVisibilityCache visibilityCache;
+
 	/**
 	 * The container type manager by this instance.
 	 */
 	protected final ContainerType type;
 
+	/**
+	 * The last indexed scopes.
+	 */
+	private volatile ScopeResolver scopeResolver;
+
+	/**
+	 * Resolve the closest scope of the containers from a scope list. When enabled, the resolved scope of each container
+	 * DN is kept for the life of this resolver.
+	 */
+	private static class ScopeResolver {
+
+		/**
+		 * The indexed scopes.
+		 */
+		private final List<ContainerScope> scopes;
+
+		/**
+		 * The DN of the indexed scopes, in order.
+		 */
+		private final List<String> dns;
+
+		/**
+		 * The DN index of the scope positions, shared by the resolvers of scopes having the same content.
+		 */
+		private final DnIndex<Integer> index;
+
+		/**
+		 * The resolved scope of each container DN. <code>null</code> when the resolved scopes are not kept.
+		 */
+		private final Map<String, Optional<ContainerScope>> resolved;
+
+		private ScopeResolver(final List<ContainerScope> scopes, final boolean memoize) {
+			this(scopes, toDns(scopes), memoize);
+		}
+
+		private ScopeResolver(final List<ContainerScope> scopes, final List<String> dns, final boolean memoize) {
+			this(scopes, dns, DnIndex.of(IntStream.range(0, dns.size()).boxed().toList(), dns::get), memoize);
+		}
+
+		private ScopeResolver(final List<ContainerScope> scopes, final List<String> dns, final DnIndex<Integer> index,
+				final boolean memoize) {
+			this.scopes = scopes;
+			this.dns = dns;
+			this.index = index;
+			this.resolved = memoize ? new HashMap<>() : null;
+		}
+
+		private static List<String> toDns(final List<ContainerScope> scopes) {
+			return scopes.stream().map(ContainerScope::getDn).toList();
+		}
+
+		/**
+		 * Return a non memoizing resolver of the given scopes: this resolver when they are the indexed ones, a resolver
+		 * sharing this index when they have the same DN in the same order, otherwise a new resolver.
+		 */
+		private ScopeResolver of(final List<ContainerScope> newScopes) {
+			if (newScopes == scopes) {
+				return this;
+			}
+			final var newDns = toDns(newScopes);
+			return newDns.equals(dns) ? new ScopeResolver(newScopes, dns, index, false)
+					: new ScopeResolver(newScopes, newDns, false);
+		}
+
+		private ContainerScope resolve(final String dn) {
+			if (dn == null) {
+				return null;
+			}
+			if (resolved == null) {
+				return toScope(index.findFirstParent(dn));
+			}
+			return resolved.computeIfAbsent(dn, d -> Optional.ofNullable(toScope(index.findFirstParent(d)))).orElse(null);
+		}
+
+		private ContainerScope toScope(final Integer position) {
+			return position == null ? null : scopes.get(position);
+		}
+	}
+
 	/**
 	 * Order {@link ContainerScope} by container type.
 	 */
-	@AllArgsConstructor
 	public class TypeComparator implements Comparator<T> {
 
 		/**
-		 * Container types
+		 * The scope resolver of the container types, keeping the resolved scopes of the sorted containers.
 		 */
-		private List<ContainerScope> types;
+		private final ScopeResolver resolver;
+
+		/**
+		 * Constructor with the container types.
+		 *
+		 * @param types The available scopes, the first matching one is the type of a container.
+		 */
+		public TypeComparator(final List<ContainerScope> types) {
+			this.resolver = new ScopeResolver(types, true);
+		}
 
 		@Override
 		public int compare(final T container1, final T container2) {
 			final int result;
 
-			// First compare the type
-			final var type1 = toScope(types, container1);
-			final var type2 = toScope(types, container2);
+			// First compare the type, resolved once per container
+			final var type1 = resolver.resolve(container1.getDn());
+			final var type2 = resolver.resolve(container2.getDn());
 			if (Objects.equals(type1, type2)) {
 				result = 0;
 			} else if (type1 == null) {
@@ -266,7 +358,7 @@ public abstract class AbstractContainerResource<T extends ContainerOrg, V extend
 	 * @return ordered containers the current user can see.
 	 */
 	public Set<T> getContainers() {
-		return toInternal(getCacheRepository().findAll(securityHelper.getLogin()));
+		return toInternalIds(getVisibleIds(Access.READ));
 	}
 
 	/**
@@ -301,7 +393,7 @@ public abstract class AbstractContainerResource<T extends ContainerOrg, V extend
 	 * @return ordered companies the given user can manage with administration access.
 	 */
 	protected Set<T> getContainersForAdmin() {
-		return toInternal(getCacheRepository().findAllAdmin(securityHelper.getLogin()));
+		return toInternalIds(getVisibleIds(Access.ADMIN));
 	}
 
 	/**
@@ -310,7 +402,7 @@ public abstract class AbstractContainerResource<T extends ContainerOrg, V extend
 	 * @return ordered containers the given user can manage with write access.
 	 */
 	public Set<String> getContainersIdForAdmin() {
-		return getContainersIdForX(getCacheRepository()::findAllAdmin);
+		return getContainersIdForX(Access.ADMIN);
 	}
 
 	/**
@@ -318,10 +410,23 @@ public abstract class AbstractContainerResource<T extends ContainerOrg, V extend
 	 *
 	 * @return ordered containers the given user can manage with write access.
 	 */
-	private Set<String> getContainersIdForX(Function<String, List<C>> dataProvider) {
+	private Set<String> getContainersIdForX(final Access access) {
 		final var all = getRepository().findAll();
-		return dataProvider.apply(securityHelper.getLogin()).stream().map(CacheContainer::getId).filter(all::containsKey)
-				.collect(Collectors.toSet());
+		return getVisibleIds(access).stream().filter(all::containsKey).collect(Collectors.toSet());
+	}
+
+	/**
+	 * Return the identifiers of the containers the current user can access. Only the visible containers are cached:
+	 * a revoked write or administration delegate must be effective immediately.
+	 *
+	 * @param access The required access level.
+	 * @return The ordered identifiers of the containers the current user can access.
+	 */
+	private List<String> getVisibleIds(final Access access) {
+		if (access == Access.READ) {
+			return visibilityCache.findAll(type, securityHelper.getLogin(), access);
+		}
+		return visibilityCache.findAllNoCache(type, securityHelper.getLogin(), access);
 	}
 
 	/**
@@ -344,7 +449,7 @@ public abstract class AbstractContainerResource<T extends ContainerOrg, V extend
 	 * @return ordered containers the given user can manage with write access.
 	 */
 	public Set<T> getContainersForWrite() {
-		return toInternal(getCacheRepository().findAllWrite(securityHelper.getLogin()));
+		return toInternalIds(getVisibleIds(Access.WRITE));
 	}
 
 	/**
@@ -353,7 +458,7 @@ public abstract class AbstractContainerResource<T extends ContainerOrg, V extend
 	 * @return ordered containers the given user can manage with write access.
 	 */
 	public Set<String> getContainersIdForWrite() {
-		return getContainersIdForX(getCacheRepository()::findAllWrite);
+		return getContainersIdForX(Access.WRITE);
 	}
 
 	/**
@@ -389,10 +494,27 @@ public abstract class AbstractContainerResource<T extends ContainerOrg, V extend
 	 * @param canAdmin         The containers the principal user can administer.
 	 * @param types            The defined type with locking information.
 	 * @param securedContainer The container count object to fill.
+	 * @param all              All containers.
 	 */
 	protected void fillContainerCountVo(final T rawContainer, final Set<String> canWrite,
 			final Set<String> canAdmin, final List<ContainerScope> types, final ContainerCountVo securedContainer,
 			final Map<String, T> all) {
+		fillContainerCountVo(rawContainer, canWrite, canAdmin, types, securedContainer, getTree(all));
+	}
+
+	/**
+	 * Build a new secured container managing the effective visibility and rights.
+	 *
+	 * @param rawContainer     the raw container contained sensitive data.
+	 * @param canWrite         The containers the principal user can write.
+	 * @param canAdmin         The containers the principal user can administer.
+	 * @param types            The defined type with locking information.
+	 * @param securedContainer The container count object to fill.
+	 * @param tree             The tree of all containers, see {@link #getTree(Map)}.
+	 */
+	protected void fillContainerCountVo(final T rawContainer, final Set<String> canWrite,
+			final Set<String> canAdmin, final List<ContainerScope> types, final ContainerCountVo securedContainer,
+			final ContainerTree<T> tree) {
 		NamedBean.copy(rawContainer, securedContainer);
 		securedContainer.setCanWrite(canWrite.contains(rawContainer.getId()));
 		securedContainer.setCanAdmin(canAdmin.contains(rawContainer.getId()));
@@ -405,18 +527,27 @@ public abstract class AbstractContainerResource<T extends ContainerOrg, V extend
 			securedContainer.setLocked(scope.isLocked());
 		}
 		securedContainer.setLocked(securedContainer.isLocked() || rawContainer.isLocked());
-		final var parent = rawContainer.getParent();
-		if (parent != null) {
-			securedContainer.setParents(new ArrayList<>());
-			fillParents(securedContainer.getParents(), rawContainer, all);
+		if (rawContainer.getParent() != null) {
+			securedContainer.setParents(new ArrayList<>(tree.getAncestors(rawContainer.getId())));
 		}
 	}
 
-	private void fillParents(final List<String> target, final T currentGroup, final Map<String, T> all) {
-		if (currentGroup.getParent() != null) {
-			target.add(currentGroup.getParent());
-			fillParents(target, all.get(currentGroup.getParent()), all);
+	/**
+	 * Return the tree of the given containers. The tree of the in-memory cache snapshot is shared when this snapshot
+	 * is already built from the given containers, otherwise a new tree is built from the given containers.
+	 *
+	 * @param all All containers, as returned by the repository.
+	 * @return The tree of the given containers.
+	 */
+	@SuppressWarnings("unchecked")
+	protected ContainerTree<T> getTree(final Map<String, T> all) {
+		if (memCache != null) {
+			final var snapshot = memCache.getBuiltSnapshot();
+			if (snapshot != null && snapshot.isSnapshotOf(all)) {
+				return (ContainerTree<T>) (type == ContainerType.GROUP ? snapshot.getGroupTree() : snapshot.getCompanyTree());
+			}
 		}
+		return ContainerTree.of(all);
 	}
 
 	/**
@@ -435,9 +566,18 @@ public abstract class AbstractContainerResource<T extends ContainerOrg, V extend
 	 * @return The internal representation of container set. Ordered is kept.
 	 */
 	protected Set<T> toInternal(final Collection<C> cacheItems) {
+		return toInternalIds(cacheItems.stream().map(CacheContainer::getId).toList());
+	}
+
+	/**
+	 * Return the internal representation of the container identifiers. Not existing items are removed.
+	 *
+	 * @param ids The container identifiers to convert.
+	 * @return The internal representation of container set. Ordered is kept.
+	 */
+	private Set<T> toInternalIds(final List<String> ids) {
 		final var all = getRepository().findAll();
-		return cacheItems.stream().map(CacheContainer::getId).map(all::get)
-				.filter(Objects::nonNull).collect(Collectors.toCollection(LinkedHashSet::new));
+		return ids.stream().map(all::get).filter(Objects::nonNull).collect(Collectors.toCollection(LinkedHashSet::new));
 	}
 
 	/**
@@ -460,8 +600,21 @@ public abstract class AbstractContainerResource<T extends ContainerOrg, V extend
 	 * @return The closest {@link ContainerScope} or <code>null</code> if not found.
 	 */
 	public ContainerScope toScope(final List<ContainerScope> scopes, final ContainerOrg container) {
-		return scopes.stream().filter(s -> DnUtils.equalsOrParentOf(s.getDn(), container.getDn())).findFirst()
-				.orElse(null);
+		return getScopeResolver(scopes).resolve(container.getDn());
+	}
+
+	/**
+	 * Return the scope resolver of the given scopes. The index is reused while the scopes have the same DN in the same
+	 * order: the scope cache stores by value, so each request gets its own copy of the same scopes. The resolved scopes
+	 * are always taken from the given list, and the resolver keeps only the index of the scopes.
+	 */
+	private ScopeResolver getScopeResolver(final List<ContainerScope> scopes) {
+		final var current = scopeResolver;
+		final var result = current == null ? new ScopeResolver(scopes, false) : current.of(scopes);
+		if (result != current) {
+			scopeResolver = result;
+		}
+		return result;
 	}
 
 	/**
@@ -7,11 +7,17 @@ import org.ligoj.app.iam.ICompanyRepository;
 import org.ligoj.app.iam.IGroupRepository;
 import org.ligoj.app.iam.IUserRepository;
 import org.ligoj.app.iam.IamProvider;
+import org.ligoj.app.iam.UserOrg;
+import org.ligoj.app.plugin.id.dao.AbstractMemCacheRepository;
+import org.ligoj.app.plugin.id.dao.MemCacheSnapshot;
+import org.ligoj.app.plugin.id.dao.MemberCountIndex;
 import org.ligoj.bootstrap.core.security.SecurityHelper;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import lombok.Setter;
 
+import java.util.Map;
+
 /**
  * Base class for organizational resource management.
  */
@@ -30,6 +36,13 @@ public abstract class AbstractOrgResource {
 	@Autowired
 	protected SecurityHelper securityHelper;
 
+	/**
+	 * Optional in-memory identity cache.
+	 */
+	@Autowired(required = false)
+	@Setter
+	protected AbstractMemCacheRepository memCache;
+
 	/**
 	 * User repository provider.
 	 *
@@ -56,4 +69,30 @@ public abstract class AbstractOrgResource {
 	public IGroupRepository getGroupRepository() {
 		return iamProvider[0].getConfiguration().getGroupRepository();
 	}
+
+	/**
+	 * Return the current snapshot of the in-memory identity cache.
+	 *
+	 * @param users The users as returned by the user repository.
+	 * @return The current snapshot. <code>null</code> when there is no in-memory cache, or when it does not serve the
+	 *         given users.
+	 */
+	protected MemCacheSnapshot getSnapshot(final Map<String, UserOrg> users) {
+		return memCache == null ? null : memCache.getSnapshot(users);
+	}
+
+	/**
+	 * Return the member counters of the in-memory identity cache.
+	 *
+	 * @param users The users as returned by the user repository.
+	 * @return The member counters. <code>null</code> when there is no in-memory cache, or when its counters are not
+	 *         built from the given users.
+	 */
+	protected MemberCountIndex getMemberCounts(final Map<String, UserOrg> users) {
+		if (memCache == null) {
+			return null;
+		}
+		final var counts = memCache.getMemberCounts();
+		return counts != null && counts.isIndexing(users) ? counts : null;
+	}
 }
@@ -19,7 +19,7 @@ import org.ligoj.app.iam.UserOrg;
 import org.ligoj.app.iam.dao.CacheCompanyRepository;
 import org.ligoj.app.iam.model.CacheCompany;
 import org.ligoj.app.model.ContainerType;
-import org.ligoj.app.plugin.id.DnUtils;
+import org.ligoj.app.plugin.id.DnIndex;
 import org.ligoj.app.plugin.id.model.ContainerScope;
 import org.ligoj.bootstrap.core.json.TableItem;
 import org.ligoj.bootstrap.core.json.datatable.DataTableAttributes;
@@ -113,7 +113,8 @@ public class CompanyResource extends AbstractContainerResource<CompanyOrg, Conta
 		final var writeCompanies = getContainersIdForWrite();
 		final var adminCompanies = getContainersIdForAdmin();
 		final var users = getUserRepository().findAll();
-		final var companies = getCompanyRepository().findAll();
+		final var tree = getTree(getCompanyRepository().findAll());
+		final var counts = getMemberCounts(users);
 
 		// Search the companies
 		final var findAll = getRepository().findAll(visibleCompanies,
@@ -124,16 +125,18 @@ public class CompanyResource extends AbstractContainerResource<CompanyOrg, Conta
 		return paginationJson.applyPagination(uriInfo, findAll, rawCompany -> {
 			// Build the secured company with counter
 			final var securedCompany = new ContainerCountVo();
-			fillContainerCountVo(rawCompany, writeCompanies, adminCompanies, types, securedCompany, companies);
+			fillContainerCountVo(rawCompany, writeCompanies, adminCompanies, types, securedCompany, tree);
 
 			// Computed the total members, unrestricted visibility
-			securedCompany.setCount(
-					(int) users.values().stream().filter(user -> rawCompany.getId().equals(user.getCompany())).count());
+			if (counts == null) {
+				securedCompany.setCount(
+						(int) users.values().stream().filter(user -> rawCompany.getId().equals(user.getCompany())).count());
+			} else {
+				securedCompany.setCount(counts.getCount(rawCompany.getId()));
+			}
 
 			// Computed the visible members : same company and visible company
-			securedCompany.setCountVisible(
-					(int) users.values().stream().filter(user -> rawCompany.getId().equals(user.getCompany()))
-							.filter(user -> visibleCompaniesAsString.contains(user.getCompany())).count());
+			securedCompany.setCountVisible(visibleCompaniesAsString.contains(rawCompany.getId()) ? securedCompany.getCount() : 0);
 			return securedCompany;
 		});
 	}
@@ -162,9 +165,17 @@ public class CompanyResource extends AbstractContainerResource<CompanyOrg, Conta
 
 		// Company deletion is only possible where there is no user inside this company, or inside any sub-company
 		final var users = getUserRepository().findAll();
-		if (getRepository().findAll().values().stream()
-				.filter(c -> DnUtils.equalsOrParentOf(container.getDn(), c.getDn()))
-				.anyMatch(c -> users.values().stream().map(UserOrg::getCompany).anyMatch(c.getId()::equals))) {
+		final var subCompanies = DnIndex.of(getRepository().findAll().values(), CompanyOrg::getDn)
+				.findAllUnder(container.getDn()).stream().map(CompanyOrg::getId).toList();
+		final var counts = getMemberCounts(users);
+		final boolean empty;
+		if (counts == null) {
+			final var userCompanies = users.values().stream().map(UserOrg::getCompany).collect(Collectors.toSet());
+			empty = subCompanies.stream().noneMatch(userCompanies::contains);
+		} else {
+			empty = counts.getCount(subCompanies) == 0;
+		}
+		if (!empty) {
 			// Locked container is inside the container to delete
 			throw new ValidationJsonException(getTypeName(), "not-empty-company", "0", getTypeName(), "1",
 					container.getId());
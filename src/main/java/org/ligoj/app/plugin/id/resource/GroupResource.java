@@ -29,6 +29,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * Group resource.
@@ -82,7 +83,13 @@ public class GroupResource extends AbstractContainerResource<GroupOrg, GroupEdit
 		final var writeGroups = getContainersIdForWrite();
 		final var adminGroups = getContainersIdForAdmin();
 		final var users = getUserRepository().findAll();
-		final var groups = getGroupRepository().findAll();
+		final var tree = getTree(getGroupRepository().findAll());
+
+		// Companies whose members are visible, when the member counters are available
+		final var counts = getMemberCounts(users);
+		final var memberCompanies = counts == null ? null
+				: companies.values().stream().filter(c -> CollectionUtils.containsAny(visibleCompanies, c.getCompanyTree()))
+						.map(CompanyOrg::getId).collect(Collectors.toSet());
 
 		// Search the groups
 		final var page = getContainers(DataTableAttributes.getSearch(uriInfo),
@@ -91,12 +98,16 @@ public class GroupResource extends AbstractContainerResource<GroupOrg, GroupEdit
 		// Apply pagination and secure the users data
 		return paginationJson.applyPagination(uriInfo, page, rawGroup -> {
 			final var securedGroup = new ContainerCountVo();
-			fillContainerCountVo(rawGroup, writeGroups, adminGroups, types, securedGroup, groups);
+			fillContainerCountVo(rawGroup, writeGroups, adminGroups, types, securedGroup, tree);
 			securedGroup.setCount(rawGroup.getMembers().size());
 			// Computed the visible members
-			securedGroup.setCountVisible((int) rawGroup.getMembers().stream().map(users::get).map(UserOrg::getCompany)
-					.map(companies::get).map(CompanyOrg::getCompanyTree)
-					.filter(c -> CollectionUtils.containsAny(visibleCompanies, c)).count());
+			if (counts == null) {
+				securedGroup.setCountVisible((int) rawGroup.getMembers().stream().map(users::get).map(UserOrg::getCompany)
+						.map(companies::get).map(CompanyOrg::getCompanyTree)
+						.filter(c -> CollectionUtils.containsAny(visibleCompanies, c)).count());
+			} else {
+				securedGroup.setCountVisible(counts.count(rawGroup.getId(), memberCompanies));
+			}
 			return securedGroup;
 		});
 	}
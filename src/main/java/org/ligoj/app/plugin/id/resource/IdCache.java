@@ -4,6 +4,7 @@
 package org.ligoj.app.plugin.id.resource;
 
 import com.hazelcast.cache.HazelcastCacheManager;
+import org.ligoj.app.plugin.id.dao.ContainerVisibilityCache;
 import org.ligoj.bootstrap.resource.system.cache.CacheConfigurer;
 import org.ligoj.bootstrap.resource.system.cache.CacheManagerAware;
 import org.springframework.stereotype.Component;
@@ -22,6 +23,8 @@ public class IdCache implements CacheManagerAware {
 		final var isAdmin = configurer.newCacheConfig("user-is-admin",Duration.ONE_MINUTE);
 		cacheManager.createCache("user-is-admin", isAdmin);
 		cacheManager.createCache("id-configuration", configurer.newCacheConfig("id-configuration"));
+		cacheManager.createCache(ContainerVisibilityCache.CACHE,
+				configurer.newCacheConfig(ContainerVisibilityCache.CACHE, Duration.ONE_MINUTE));
 	}
 
 }
@@ -7,6 +7,8 @@ import jakarta.transaction.Transactional;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
 import jakarta.ws.rs.core.UriInfo;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
@@ -14,17 +16,17 @@ import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Strings;
 import org.apache.commons.text.WordUtils;
-import org.apache.cxf.jaxrs.impl.UriInfoImpl;
-import org.apache.cxf.message.Message;
-import org.apache.cxf.message.MessageImpl;
 import org.ligoj.app.api.Normalizer;
 import org.ligoj.app.iam.*;
 import org.ligoj.app.iam.dao.DelegateOrgRepository;
 import org.ligoj.app.iam.model.DelegateOrg;
 import org.ligoj.app.iam.model.DelegateType;
+import org.ligoj.app.plugin.id.DnIndex;
 import org.ligoj.app.plugin.id.DnUtils;
+import org.ligoj.app.plugin.id.dao.MemCacheSnapshot;
 import org.ligoj.app.plugin.id.dao.PasswordResetAuditRepository;
 import org.ligoj.app.plugin.id.model.PasswordResetAudit;
+import org.ligoj.bootstrap.core.json.ObjectMapperTrim;
 import org.ligoj.bootstrap.core.json.PaginationJson;
 import org.ligoj.bootstrap.core.json.TableItem;
 import org.ligoj.bootstrap.core.json.datatable.DataTableAttributes;
@@ -36,15 +38,23 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cache.CacheManager;
 import org.springframework.context.ApplicationContext;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.stereotype.Service;
 import org.springframework.web.bind.annotation.ResponseBody;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.function.BiPredicate;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * User resource.
@@ -71,6 +81,31 @@ public class UserOrgResource extends AbstractOrgResource implements ISessionSett
 	 */
 	public static final String USER_KEY = "id";
 
+	/**
+	 * JSON lines media type.
+	 */
+	public static final String MEDIA_TYPE_JSON_LINES = "application/x-ndjson";
+
+	/**
+	 * CSV media type.
+	 */
+	public static final String MEDIA_TYPE_CSV = "text/csv";
+
+	/**
+	 * Maximal amount of exported users, as the original export.
+	 */
+	private static final int EXPORT_MAX_USERS = 10000000;
+
+	/**
+	 * Leading characters of an exported CSV value a spreadsheet could evaluate as a formula.
+	 */
+	private static final String[] CSV_FORMULA_PREFIXES = { "=", "+", "-", "@", "\t", "\r" };
+
+	/**
+	 * Exported CSV columns.
+	 */
+	private static final String[] EXPORT_CSV_HEADERS = { USER_KEY, "firstName", "lastName", SimpleUser.COMPANY_ALIAS, "mails", "groups" };
+
 	@Autowired
 	private DelegateOrgRepository delegateRepository;
 	@Autowired
@@ -94,6 +129,9 @@ public class UserOrgResource extends AbstractOrgResource implements ISessionSett
 	@Autowired
 	protected CacheManager cacheManager;
 
+	@Autowired
+	private ObjectMapperTrim objectMapper;
+
 	/**
 	 * Ordered columns.
 	 */
@@ -116,12 +154,18 @@ public class UserOrgResource extends AbstractOrgResource implements ISessionSett
 	 * @return All matched unsorted users.
 	 */
 	public List<UserOrg> findAllNotSecure(final String company, final String group) {
-		final var visibleGroups = groupResource.getContainers();
+		return streamAllNotSecure(toFilter(groupResource.getContainers(), company, group)).toList();
+	}
 
-		// Search the users
-		final var message = new MessageImpl();
-		message.put(Message.QUERY_STRING, DataTableAttributes.PAGE_LENGTH + "=10000000");
-		return findAllNotSecure(visibleGroups, company, group, null, new UriInfoImpl(message)).getContent();
+	/**
+	 * Return a stream of the users matching the given filter. The users are filtered and sorted once, the stream only
+	 * references them: the secured copies are built while consumed. The result is not secured : it contains DN.
+	 *
+	 * @param filter The visible companies and groups to match.
+	 * @return The matched users ordered by identifier.
+	 */
+	private Stream<UserOrg> streamAllNotSecure(final UserFilter filter) {
+		return findAllNotSecure(filter, null, PageRequest.of(0, EXPORT_MAX_USERS, Sort.by(USER_KEY))).stream();
 	}
 
 	/**
@@ -138,17 +182,49 @@ public class UserOrgResource extends AbstractOrgResource implements ISessionSett
 	 */
 	private Page<UserOrg> findAllNotSecure(final Set<GroupOrg> visibleGroups, final String company, final String group, final String criteria, @Context final UriInfo uriInfo) {
 		final var pageRequest = paginationJson.getPageRequest(uriInfo, ORDERED_COLUMNS);
+		return findAllNotSecure(toFilter(visibleGroups, company, group), criteria, pageRequest);
+	}
+
+	/**
+	 * Return a page of the users matching the given filter. The result is not secured, it contains DN.
+	 */
+	private Page<UserOrg> findAllNotSecure(final UserFilter filter, final String criteria, final Pageable pageRequest) {
+		if (filter.snapshot() != null) {
+			// Lock free search within the snapshot
+			return filter.snapshot().findAll(filter.groups(), filter.companies(), StringUtils.trimToNull(criteria), pageRequest);
+		}
+		return getUserRepository().findAll(filter.groups(), filter.companies(), StringUtils.trimToNull(criteria), pageRequest);
+	}
+
+	/**
+	 * Return the visible companies and groups to match.
+	 *
+	 * @param visibleGroups The visible groups by the principal user.
+	 * @param company       the optional company name to match. Will be normalized.
+	 * @param group         the optional group name to match. May be <code>null</code>.
+	 * @return The visible companies and groups to match.
+	 */
+	private UserFilter toFilter(final Set<GroupOrg> visibleGroups, final String company, final String group) {
 		final var visibleCompanies = companyResource.getContainers().stream().map(CompanyOrg::getId).collect(Collectors.toSet());
-		final var allGroups = getGroupRepository().findAll();
+		final var snapshot = getSnapshot(getUserRepository().findAll());
+		final var allGroups = snapshot == null ? getGroupRepository().findAll() : snapshot.getGroups();
 
 		// The companies to use
 		final var filteredCompanies = computeFilteredCompanies(Normalizer.normalize(company), visibleCompanies);
 
 		// The groups to use
 		final var filteredGroups = group == null ? null : computeFilteredGroups(group, visibleGroups, allGroups);
+		return new UserFilter(filteredGroups, filteredCompanies, snapshot);
+	}
 
-		// Search the users
-		return getUserRepository().findAll(filteredGroups, filteredCompanies, StringUtils.trimToNull(criteria), pageRequest);
+	/**
+	 * The visible companies and groups to match.
+	 *
+	 * @param groups    The groups to match, <code>null</code> when not filtered.
+	 * @param companies The companies to match.
+	 * @param snapshot  The snapshot of the in-memory cache to search, <code>null</code> when not available.
+	 */
+	private record UserFilter(List<GroupOrg> groups, Set<String> companies, MemCacheSnapshot snapshot) {
 	}
 
 	/**
@@ -164,35 +240,144 @@ public class UserOrgResource extends AbstractOrgResource implements ISessionSett
 	@GET
 	public TableItem<UserOrgVo> findAll(@QueryParam(SimpleUser.COMPANY_ALIAS) final String company, @QueryParam(GROUP) final String group, @QueryParam(DataTableAttributes.SEARCH) final String criteria, @Context final UriInfo uriInfo) {
 		final var visibleGroups = groupResource.getContainers();
-		final var writableGroups = groupResource.getContainersForWrite();
-		final var writableCompanies = companyResource.getContainersForWrite();
-		final var writableCompaniesIds = writableCompanies.stream().map(CompanyOrg::getId).collect(Collectors.toSet());
+		final var toSecured = newSecuredMapper(visibleGroups);
 
 		// Search the users
 		final var findAll = findAllNotSecure(visibleGroups, company, group, criteria, uriInfo);
 
 		// Apply pagination and secure the users data
-		final var result = paginationJson.applyPagination(uriInfo, findAll, rawUserOrg -> {
+		final var result = paginationJson.applyPagination(uriInfo, findAll, toSecured);
+
+		// Forward custom attributes definition
+		result.setExtensions(Map.of("customAttributes", getUserRepository().getCustomAttributes()));
 
+		return result;
+	}
+
+	/**
+	 * Export the users matching the given criteria as JSON lines, one secured user per line. The visible groups, trees
+	 * and companies are checked as for {@link #findAll(String, String, String, UriInfo)}. The users are fetched and
+	 * written page by page.
+	 *
+	 * @param company the optional company name to match.
+	 * @param group   the optional group name to match.
+	 * @return The streamed users.
+	 */
+	@GET
+	@Path("export/json")
+	@Produces(MEDIA_TYPE_JSON_LINES)
+	public Response exportJson(@QueryParam(SimpleUser.COMPANY_ALIAS) final String company, @QueryParam(GROUP) final String group) {
+		return export(company, group, "users.jsonl", null, objectMapper::writeValueAsString);
+	}
+
+	/**
+	 * Export the users matching the given criteria as CSV, one secured user per line. The visible groups, trees and
+	 * companies are checked as for {@link #findAll(String, String, String, UriInfo)}. The users are fetched and
+	 * written page by page.
+	 *
+	 * @param company the optional company name to match.
+	 * @param group   the optional group name to match.
+	 * @return The streamed users.
+	 */
+	@GET
+	@Path("export/csv")
+	@Produces(MEDIA_TYPE_CSV)
+	public Response exportCsv(@QueryParam(SimpleUser.COMPANY_ALIAS) final String company, @QueryParam(GROUP) final String group) {
+		return export(company, group, "users.csv", String.join(";", EXPORT_CSV_HEADERS), u -> Stream
+				.of(u.getId(), u.getFirstName(), u.getLastName(), u.getCompany(),
+						String.join(",", CollectionUtils.emptyIfNull(u.getMails())),
+						u.getGroups().stream().map(GroupVo::getName).collect(Collectors.joining(",")))
+				.map(UserOrgResource::toCsv).collect(Collectors.joining(";")));
+	}
+
+	/**
+	 * Stream the secured users matching the given criteria. The visibility is computed immediately, the users are
+	 * fetched while writing the response.
+	 */
+	private Response export(final String company, final String group, final String file, final String header,
+			final ExportFormatter formatter) {
+		final var visibleGroups = groupResource.getContainers();
+		final var toSecured = newSecuredMapper(visibleGroups);
+		final var filter = toFilter(visibleGroups, company, group);
+		final StreamingOutput output = o -> {
+			final var writer = new BufferedWriter(new OutputStreamWriter(o, StandardCharsets.UTF_8));
+			if (header != null) {
+				writer.write(header);
+				writer.write('\n');
+			}
+			for (final var users = streamAllNotSecure(filter).iterator(); users.hasNext(); ) {
+				writer.write(formatter.format(toSecured.apply(users.next())));
+				writer.write('\n');
+			}
+			writer.flush();
+		};
+		return Response.ok(output).header("Content-Disposition", "attachment; filename=" + file).build();
+	}
+
+	/**
+	 * Secured user line formatter.
+	 */
+	@FunctionalInterface
+	private interface ExportFormatter {
+		String format(UserOrgVo user) throws IOException;
+	}
+
+	/**
+	 * Return the CSV value: prefixed by a quote when it could be read as a formula by a spreadsheet, and quoted when
+	 * containing a separator, a quote or a line break.
+	 */
+	private static String toCsv(final String value) {
+		if (value == null) {
+			return "";
+		}
+		final var safe = StringUtils.startsWithAny(value, CSV_FORMULA_PREFIXES) ? "'" + value : value;
+		if (StringUtils.containsAny(safe, ';', ',', '"', '\n', '\r')) {
+			return '"' + safe.replace("\"", "\"\"") + '"';
+		}
+		return safe;
+	}
+
+	/**
+	 * Return the function securing the user data: the returned groups are the ones visible by the principal user,
+	 * with their write access.
+	 *
+	 * @param visibleGroups The visible groups by the principal user.
+	 * @return The function securing the user data.
+	 */
+	private Function<UserOrg, UserOrgVo> newSecuredMapper(final Set<GroupOrg> visibleGroups) {
+		final var writableGroups = groupResource.getContainersForWrite();
+		final var writableCompanies = companyResource.getContainersForWrite();
+		final var writableCompaniesIds = writableCompanies.stream().map(CompanyOrg::getId).collect(Collectors.toSet());
+		final var writableGroupsIds = writableGroups.stream().map(GroupOrg::getId).collect(Collectors.toSet());
+
+		// Index the visible groups by identifier, keeping their order
+		final var visibleGroupsList = new ArrayList<>(visibleGroups);
+		final var visibleGroupsIndex = new HashMap<String, Integer>();
+		for (var i = 0; i < visibleGroupsList.size(); i++) {
+			visibleGroupsIndex.put(visibleGroupsList.get(i).getId(), i);
+		}
+
+		return rawUserOrg -> {
 			final var securedUserOrg = new UserOrgVo();
 			rawUserOrg.copy(securedUserOrg);
 			securedUserOrg.setCanWrite(writableCompaniesIds.contains(rawUserOrg.getCompany()));
 			securedUserOrg.setCanWriteGroups(!writableGroups.isEmpty());
 
-			// Show only the groups that are also visible to current user
-			securedUserOrg.setGroups(visibleGroups.stream().filter(mGroup -> rawUserOrg.getGroups().contains(mGroup.getId())).map(mGroup -> {
-				final var vo = new GroupVo();
-				vo.setCanWrite(writableGroups.contains(mGroup));
-				vo.setName(mGroup.getName());
-				return vo;
-			}).toList());
+			// Show only the groups that are also visible to current user, in the visible groups order
+			securedUserOrg.setGroups(rawUserOrg.getGroups().stream().map(visibleGroupsIndex::get).filter(Objects::nonNull)
+					.distinct().sorted().map(visibleGroupsList::get).map(mGroup -> toGroupVo(mGroup, writableGroupsIds)).toList());
 			return securedUserOrg;
-		});
-
-		// Forward custom attributes definition
-		result.setExtensions(Map.of("customAttributes", getUserRepository().getCustomAttributes()));
+		};
+	}
 
-		return result;
+	/**
+	 * Return the group visible by the principal user with its write access.
+	 */
+	private GroupVo toGroupVo(final GroupOrg group, final Set<String> writableGroupsIds) {
+		final var vo = new GroupVo();
+		vo.setCanWrite(writableGroupsIds.contains(group.getId()));
+		vo.setName(group.getName());
+		return vo;
 	}
 
 	/**
@@ -219,10 +404,9 @@ public class UserOrgResource extends AbstractOrgResource implements ISessionSett
 	 * Computed visible groups.
 	 */
 	private List<GroupOrg> computeFilteredGroups(final String group, final Set<GroupOrg> visibleGroups, final Map<String, GroupOrg> allGroups) {
-		// Restrict access to delegated groups
-		return Optional.ofNullable(allGroups.get(Normalizer.normalize(group))).map(fg -> allGroups.values().stream().filter(visibleGroups::contains)
-				// Filter the group, including the children
-				.filter(g -> DnUtils.equalsOrParentOf(fg.getDn(), g.getDn())).toList()).orElse(Collections.emptyList());
+		// Restrict access to delegated groups, and filter the group, including the children
+		return Optional.ofNullable(allGroups.get(Normalizer.normalize(group)))
+				.map(fg -> DnIndex.of(visibleGroups, GroupOrg::getDn).findAllUnder(fg.getDn())).orElse(Collections.emptyList());
 	}
 
 	/**
@@ -284,7 +468,7 @@ public class UserOrgResource extends AbstractOrgResource implements ISessionSett
 	private void updateGroupUser(final String user, final String group, final BiPredicate<Collection<String>, String> updater) {
 
 		// Get all delegates of current user
-		final var delegates = delegateRepository.findAllByUser(securityHelper.getLogin());
+		final var delegates = DnIndex.of(delegateRepository.findAllByUser(securityHelper.getLogin()), DelegateOrg::getDn);
 
 		// Get the implied user
 		final var userOrg = getUserRepository().findByIdExpected(user);
@@ -385,7 +569,7 @@ public class UserOrgResource extends AbstractOrgResource implements ISessionSett
 		normalize(importEntry);
 
 		// Get all delegates of current user
-		final var delegates = delegateRepository.findAllByUser(principal);
+		final var delegates = DnIndex.of(delegateRepository.findAllByUser(principal), DelegateOrg::getDn);
 
 		// Get the stored data of the implied user
 		final var userOrg = getUserRepository().findById(importEntry.getId());
@@ -427,7 +611,7 @@ public class UserOrgResource extends AbstractOrgResource implements ISessionSett
 	 * @param importEntry The user raw values to update.
 	 * @param delegates   The delegates (read/write) of the principal user.
 	 */
-	private void validateAndGroupsCN(final UserOrg userOrg, final UserOrgEditionVo importEntry, final List<DelegateOrg> delegates) {
+	private void validateAndGroupsCN(final UserOrg userOrg, final UserOrgEditionVo importEntry, final DnIndex<DelegateOrg> delegates) {
 
 		// First complete the groups with the implicit ones from department
 		final var previous = Optional.ofNullable(userOrg).map(UserOrg::getDepartment).orElse(null);
@@ -447,7 +631,7 @@ public class UserOrgResource extends AbstractOrgResource implements ISessionSett
 	 *                       read-only groups previously assigned to this user. Only the changes are checked.
 	 * @param delegates      The delegates (read/write) of the principal user.
 	 */
-	private void validateAndGroupsCN(final Collection<String> previousGroups, final Collection<String> desiredGroups, final List<DelegateOrg> delegates) {
+	private void validateAndGroupsCN(final Collection<String> previousGroups, final Collection<String> desiredGroups, final DnIndex<DelegateOrg> delegates) {
 		// Check visibility of the desired groups
 		final var repository = getGroupRepository();
 		desiredGroups.forEach(g -> repository.findByIdExpected(securityHelper.getLogin(), g));
@@ -463,7 +647,7 @@ public class UserOrgResource extends AbstractOrgResource implements ISessionSett
 	 *                     have been previously checked.
 	 * @param delegates    The delegates (read/write) of the principal user.
 	 */
-	private void validateWriteGroup(final String updatedGroup, final List<DelegateOrg> delegates) {
+	private void validateWriteGroup(final String updatedGroup, final DnIndex<DelegateOrg> delegates) {
 
 		// Check the visible updated groups can be edited by the principal
 		Optional.ofNullable(getGroupRepository().findById(securityHelper.getLogin(), updatedGroup)).filter(g -> !canWrite(delegates, g.getDn(), DelegateType.GROUP)).ifPresent(g -> {
@@ -489,7 +673,7 @@ public class UserOrgResource extends AbstractOrgResource implements ISessionSett
 	 *                  groups by the current principal user.
 	 * @return the merged group identifiers to be set internally.
 	 */
-	private Collection<String> mergeGroups(final List<DelegateOrg> delegates, final UserOrg userOrg, final Collection<String> groups) {
+	private Collection<String> mergeGroups(final DnIndex<DelegateOrg> delegates, final UserOrg userOrg, final Collection<String> groups) {
 		// Compute the groups merged groups
 		final Collection<String> newGroups = new HashSet<>(userOrg.getGroups());
 		newGroups.addAll(groups);
@@ -520,8 +704,8 @@ public class UserOrgResource extends AbstractOrgResource implements ISessionSett
 		importEntry.setFirstName(WordUtils.capitalizeFully(StringUtils.trimToNull(importEntry.getFirstName())));
 	}
 
-	private boolean canWrite(final List<DelegateOrg> delegates, final String dn, final DelegateType type) {
-		return securityHelper.isAdmin() || delegates.stream().anyMatch(delegate -> canWrite(delegate, dn, type));
+	private boolean canWrite(final DnIndex<DelegateOrg> delegates, final String dn, final DelegateType type) {
+		return securityHelper.isAdmin() || delegates.findParents(dn).stream().anyMatch(delegate -> canWrite(delegate, dn, type));
 	}
 
 	protected boolean canWrite(final DelegateOrg delegate, final String dn, final DelegateType type) {
@@ -3,17 +3,20 @@
  */
 package org.ligoj.app.plugin.id.resource.batch;
 
-import java.io.ByteArrayInputStream;
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.SequenceInputStream;
 import java.nio.charset.StandardCharsets;
-import java.util.Map;
-import java.util.Objects;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
+import jakarta.validation.ConstraintViolationException;
 import jakarta.ws.rs.GET;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.PathParam;
@@ -22,23 +25,46 @@ import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.BooleanUtils;
 import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.time.DateUtils;
 import org.ligoj.bootstrap.core.SpringUtils;
 import org.ligoj.bootstrap.core.csv.CsvForBean;
 import org.ligoj.bootstrap.core.resource.OnNullReturn404;
 import org.ligoj.bootstrap.core.resource.TechnicalException;
 import org.ligoj.bootstrap.core.validation.ValidationJsonException;
 import org.ligoj.bootstrap.core.validation.ValidatorBean;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.task.TaskExecutor;
 import org.springframework.security.core.context.SecurityContextHolder;
 
+import lombok.extern.slf4j.Slf4j;
+
 /**
  * Base batch resource class.
  * @param <B> A batch 
  */
+@Slf4j
 public abstract class AbstractBatchResource<B extends BatchElement> {
 
+	/**
+	 * Configuration name of the maximal amount of entry partitions processed concurrently by a batch task.
+	 */
+	public static final String CONF_PARALLELISM = "service:id:batch-parallelism";
+
+	/**
+	 * Default maximal amount of entry partitions processed concurrently: the entries are processed sequentially.
+	 */
+	public static final int DEFAULT_PARALLELISM = 1;
+
+	/**
+	 * Amount of entries read and validated at once.
+	 */
+	private static final int CHUNK_SIZE = 1000;
+
+	/**
+	 * Maximal amount of chunks read ahead of the task.
+	 */
+	private static final int QUEUE_SIZE = 4;
+
 	@Autowired
 	protected TaskExecutor executor;
 
@@ -46,14 +72,17 @@ public abstract class AbstractBatchResource<B extends BatchElement> {
 	private CsvForBean csvForBean;
 
 	/**
-	 * Hold pending and previous imports. Key is an identifier built from the username requesting the import, and a
-	 * random String. This table is clean before each import.
+	 * Hold pending and previous imports, from any node.
 	 */
-	private final Map<String, BatchTaskVo<B>> imports = new ConcurrentHashMap<>();
+	@Autowired
+	private BatchTaskRegistry registry;
 
 	@Autowired
 	private ValidatorBean validator;
 
+	@Autowired
+	private ConfigurationResource configuration;
+
 	/**
 	 * Return the import task from its identifier. The internal identifier is build from the current user and the formal
 	 * identifier parameter.
@@ -65,8 +94,9 @@ public abstract class AbstractBatchResource<B extends BatchElement> {
 	@GET
 	@Path("{id:\\d+}")
 	@OnNullReturn404
+	@SuppressWarnings("unchecked")
 	public BatchTaskVo<B> getImportTask(@PathParam("id") final long id) {
-		return imports.get(SecurityContextHolder.getContext().getAuthentication().getName() + "-" + id);
+		return (BatchTaskVo<B>) registry.find(SecurityContextHolder.getContext().getAuthentication().getName(), id);
 	}
 
 	/**
@@ -84,27 +114,14 @@ public abstract class AbstractBatchResource<B extends BatchElement> {
 	}
 
 	/**
-	 * Cleanup the previous tasks.
-	 */
-	private void cleanup() {
-		for (final var entry : imports.entrySet()) {
-			if (isFinished(entry.getValue())) {
-				// This task is finished since yesterday
-				imports.remove(entry.getKey());
-			}
-		}
-	}
-
-	/**
-	 * Is the current task is finished.
-	 */
-	private boolean isFinished(final BatchTaskVo<?> task) {
-		return task.getStatus().getEnd() != null
-				&& task.getStatus().getEnd().getTime() + DateUtils.MILLIS_PER_DAY < System.currentTimeMillis();
-	}
-
-	/**
-	 * Execute a batch operation from the given input.
+	 * Execute a batch operation from the given input. The input is spooled, and only its first chunk is parsed and
+	 * validated before the import is accepted: an invalid entry of this chunk rejects the whole upload. The next chunks
+	 * are parsed and validated while the task is running, and their invalid entries get a failed status. The task
+	 * keeps every entry for its status, so the memory grows with the amount of entries.
+	 * <p>
+	 * The entries are persisted only as they are read, a few chunks ahead of the task, and the spooled input is local
+	 * to this node. So when this node stops before the end of the input, the entries not yet read are lost: the node
+	 * resuming the task processes the persisted entries only, then fails the task.
 	 * 
 	 * @param uploadedFile
 	 *            The CSV input without header
@@ -152,36 +169,165 @@ public abstract class AbstractBatchResource<B extends BatchElement> {
 		final var csvHeaders = StringUtils.chop(ArrayUtils.toString(sanitizeColumns)).substring(1).replace(',', ';')
 				+ "\n";
 
-		// Build entries with prepended CSV header
+		// Spool the upload, so the entries can be read while the task is running
 		final var encSafe = ObjectUtils.getIfNull(encoding, StandardCharsets.UTF_8.name());
-		final var input = new ByteArrayInputStream(csvHeaders.getBytes(encSafe));
-		final var entries = csvForBean.toBean(batchType,
-				new InputStreamReader(new SequenceInputStream(input, uploadedFile), encSafe));
-		entries.removeIf(Objects::isNull);
+		final var file = Files.createTempFile("batch-", ".csv");
+		CsvBatchReader<B> reader = null;
+		final List<B> entries;
+		try {
+			Files.copy(uploadedFile, file, StandardCopyOption.REPLACE_EXISTING);
 
-		// Validate them
-		validator.validateCheck(entries);
+			// Read and validate the first entries before accepting the import, the next ones are read while the task
+			// is running
+			reader = newReader(batchType, csvHeaders, file, encSafe);
+			entries = reader.next();
+			validator.validateCheck(entries);
+		} catch (final IOException | RuntimeException e) {
+			close(reader, file);
+			throw e;
+		}
 
 		// Clone the context for the asynchronous import
 		final var importTask = new BatchTaskVo<B>();
-		importTask.setEntries(entries);
+		importTask.setEntries(new ArrayList<>(entries));
 		importTask.setPrincipal(SecurityContextHolder.getContext().getAuthentication().getName());
 		importTask.setId(id);
 		importTask.setQuiet(BooleanUtils.isTrue(quiet));
+		importTask.setParallelism(Math.max(1, configuration.get(CONF_PARALLELISM, DEFAULT_PARALLELISM)));
+
+		// Expose and persist the task, so any node can serve it
+		final var journal = registry.register(importTask, taskType, batchType);
 
 		// Schedule the import
-		final var task = SpringUtils.getBean(taskType);
-		task.configure(importTask);
+		schedule(SpringUtils.getBean(taskType), importTask, reader, file, journal);
+
+		// Return private task identifier
+		return id;
+	}
+
+	/**
+	 * Return a chunked reader of the spooled input.
+	 */
+	private CsvBatchReader<B> newReader(final Class<B> batchType, final String csvHeaders,
+			final java.nio.file.Path file, final String encoding) throws IOException {
+		return new CsvBatchReader<>(csvForBean, batchType, csvHeaders,
+				new BufferedReader(new InputStreamReader(Files.newInputStream(file), encoding)), CHUNK_SIZE);
+	}
+
+	/**
+	 * Schedule the task. The remaining entries are read by a dedicated thread, ahead of the task.
+	 */
+	private void schedule(final AbstractBatchTask<B> task, final BatchTaskVo<B> importTask,
+			final CsvBatchReader<B> reader, final java.nio.file.Path file, final BatchTaskJournal journal) {
+		task.setJournal(journal);
+		if (reader.hasNext()) {
+			final var pending = new ArrayBlockingQueue<List<B>>(QUEUE_SIZE);
+			task.configure(importTask, pending);
+			Thread.ofVirtual().name("batch-reader-" + importTask.getId())
+					.start(() -> read(reader, file, importTask, pending, journal));
+		} else {
+			close(reader, file);
+			if (journal != null) {
+				journal.fullyRead();
+			}
+			task.configure(importTask);
+		}
 		executor.execute(task);
+	}
+
+	/**
+	 * Read the next entries and queue them for the task. The invalid entries are not queued, their status is
+	 * immediately reported. The entries are persisted before being queued. The input is closed and deleted at the end.
+	 */
+	private void read(final CsvBatchReader<B> reader, final java.nio.file.Path file, final BatchTaskVo<B> importTask,
+			final BlockingQueue<List<B>> pending, final BatchTaskJournal journal) {
+		if (journal != null) {
+			// Stop reading once the task is owned by another node
+			journal.onLost(Thread.currentThread()::interrupt);
+		}
+		try {
+			while (reader.hasNext() && (journal == null || !journal.isLost())) {
+				final var chunk = reader.next();
+				final var valid = new ArrayList<B>(chunk.size());
+				chunk.forEach(entry -> {
+					if (isValid(entry)) {
+						valid.add(entry);
+					}
+				});
+				importTask.addEntries(chunk, chunk.size() - valid.size());
+				if (journal != null) {
+					journal.register(chunk);
+				}
+				if (!valid.isEmpty()) {
+					pending.put(valid);
+				}
+			}
+			if (journal != null && !journal.isLost()) {
+				journal.fullyRead();
+			}
+		} catch (final InterruptedException ie) {
+			if (journal == null || !journal.isLost()) {
+				log.warn("Reading of import {} interrupted", importTask);
+				importTask.getStatus().setStatus(Boolean.FALSE);
+			}
+			Thread.currentThread().interrupt();
+		} catch (final IOException | RuntimeException e) {
+			// The entries read so far are still processed
+			log.error("Reading of import {} failed", importTask, e);
+			importTask.getStatus().setStatus(Boolean.FALSE);
+		} finally {
+			close(reader, file);
+			end(pending, journal);
+		}
+	}
 
-		// Also cleanup the previous tasks
-		cleanup();
+	/**
+	 * Queue the end of the input. The task always gets it, even when the reader has been interrupted. The chunks not
+	 * yet taken are dropped when the task is owned by another node, since its runner no longer takes them.
+	 */
+	private void end(final BlockingQueue<List<B>> pending, final BatchTaskJournal journal) {
+		if (journal != null && journal.isLost()) {
+			pending.clear();
+		}
+		final var interrupted = Thread.interrupted();
+		try {
+			pending.put(List.of());
+		} catch (final InterruptedException ie) {
+			log.warn("End of import not queued");
+			Thread.currentThread().interrupt();
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
 
-		// Expose the task with internal identifier, based on current user PLUS the public identifier
-		imports.put(importTask.getPrincipal() + "-" + importTask.getId(), importTask);
+	/**
+	 * Validate an entry, and report the violations as its status.
+	 */
+	private boolean isValid(final B entry) {
+		try {
+			validator.validateCheck(entry);
+			return true;
+		} catch (final ConstraintViolationException cve) {
+			entry.setStatus(Boolean.FALSE);
+			entry.setStatusText(cve.getMessage());
+			return false;
+		}
+	}
 
-		// Return private task identifier
-		return id;
+	/**
+	 * Close the reader and delete the spooled input.
+	 */
+	private void close(final CsvBatchReader<B> reader, final java.nio.file.Path file) {
+		try {
+			if (reader != null) {
+				reader.close();
+			}
+			Files.deleteIfExists(file);
+		} catch (final IOException e) {
+			log.warn("Unable to delete the import file {}", file, e);
+		}
 	}
 
 	/**
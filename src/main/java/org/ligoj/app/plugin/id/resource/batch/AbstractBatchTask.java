@@ -3,9 +3,21 @@
  */
 package org.ligoj.app.plugin.id.resource.batch;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.cxf.jaxrs.provider.ServerProviderFactory;
@@ -14,7 +26,9 @@ import org.apache.cxf.phase.PhaseInterceptorChain;
 import org.ligoj.app.api.Normalizer;
 import org.ligoj.bootstrap.core.security.SecurityHelper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.core.context.SecurityContextHolder;
 
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -25,6 +39,12 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public abstract class AbstractBatchTask<B extends BatchElement> implements Runnable { // NOPMD
 
+	/**
+	 * The maximal count of dispatched chunks not yet completed when the task is parallel. Bounds the entries read
+	 * ahead of the processing.
+	 */
+	private static final int MAX_RUNNING_CHUNKS = 4;
+
 	@Autowired
 	protected SecurityHelper securityHelper;
 
@@ -35,18 +55,122 @@ public abstract class AbstractBatchTask<B extends BatchElement> implements Runna
 	 */
 	protected BatchTaskVo<B> task;
 
+	/**
+	 * The entries known at the configuration time.
+	 */
+	private List<B> entries;
+
+	/**
+	 * The next chunks of entries, read while the previous ones are processed. An empty chunk ends the input.
+	 * <code>null</code> when all entries are known at the configuration time.
+	 */
+	private BlockingQueue<List<B>> pending;
+
+	/**
+	 * The journal persisting the progress. <code>null</code> when the task is not persisted.
+	 */
+	@Setter
+	private BatchTaskJournal journal;
+
+	/**
+	 * The executor of the partitions, shared by all chunks of a run. <code>null</code> when the task is sequential.
+	 */
+	private ExecutorService executor;
+
+	/**
+	 * The completion of the last dispatched entries of each partition.
+	 */
+	private final Map<String, CompletableFuture<Void>> tails = new HashMap<>();
+
+	/**
+	 * The completion of the dispatched chunks, in the input order.
+	 */
+	private final Deque<CompletableFuture<Void>> running = new ArrayDeque<>();
+
 	@Override
 	public void run() {
 		log.info("Executing {}", task.toString());
 
 		// Expose the current user
 		securityHelper.setUserName(task.getPrincipal());
+		if (journal != null) {
+			// Stop this runner once the task is owned by another node
+			journal.onLost(Thread.currentThread()::interrupt);
+		}
 
-		doBatch();
+		if (task.getParallelism() <= 1) {
+			doBatchAll();
+		} else {
+			log.info("Executing {} with a parallelism of {}", task, task.getParallelism());
 
-		// The import is completed
-		this.task.getStatus().setStatus(Boolean.TRUE);
-		this.task.getStatus().setEnd(new Date());
+			try (var runExecutor = Executors.newFixedThreadPool(task.getParallelism(), Thread.ofVirtual().factory())) {
+				executor = runExecutor;
+				doBatchAll();
+
+				// Wait for all partitions before completing the task: a partition is submitted to the executor only
+				// once its previous entries are completed, so the executor cannot be closed before
+				running.forEach(CompletableFuture::join);
+			} finally {
+				executor = null;
+				tails.clear();
+				running.clear();
+			}
+		}
+
+		if (isLost()) {
+			log.warn("Import {} stopped, it is now owned by another node", task);
+		} else {
+			// The import is completed, unless the read of the entries has failed
+			if (this.task.getStatus().getStatus() == null) {
+				this.task.getStatus().setStatus(Boolean.TRUE);
+			}
+			this.task.getStatus().setEnd(new Date());
+			if (journal != null) {
+				journal.flush();
+			}
+		}
+		if (journal != null) {
+			journal.stop();
+			if (journal.isLost()) {
+				// Clear the interruption of this runner stopped by the journal
+				Thread.interrupted();
+			}
+		}
+	}
+
+	/**
+	 * Indicates the task is owned by another node, and then the remaining entries are skipped.
+	 */
+	private boolean isLost() {
+		return journal != null && journal.isLost();
+	}
+
+	/**
+	 * Process the entries known at the configuration time, then the pending chunks.
+	 */
+	private void doBatchAll() {
+		doBatch(entries);
+		doBatchPending();
+	}
+
+	/**
+	 * Process the pending chunks until the end of the input.
+	 */
+	private void doBatchPending() {
+		if (pending == null) {
+			return;
+		}
+		try {
+			for (var chunk = pending.take(); !chunk.isEmpty() && !isLost(); chunk = pending.take()) {
+				doBatch(chunk);
+			}
+		} catch (final InterruptedException ie) {
+			if (!isLost()) {
+				log.warn("Import {} interrupted", task);
+				task.getStatus().setStatus(Boolean.FALSE);
+			}
+			Thread.currentThread().interrupt();
+		}
 	}
 
 	/**
@@ -69,40 +193,118 @@ public abstract class AbstractBatchTask<B extends BatchElement> implements Runna
 	}
 
 	/**
-	 * Process the entries
-	 */
-	private void doBatch() {
-		for (final var importEntry : task.getEntries()) {
-			// Override previous status
-			importEntry.setStatus(null);
-			importEntry.setStatusText(null);
-			try {
-				doBatch(importEntry, task.isQuiet());
-
-				// Success
-				importEntry.setStatus(Boolean.TRUE);
-				log.info("Import of {} succeed", importEntry);
-			} catch (final Exception ne) {
-				// The entry creation failed : entity itself of group membership
-				log.info("Import of {} failed : {}", importEntry, ne.getMessage());
-				importEntry.setStatus(Boolean.FALSE);
-				final var mapper = jaxrsFactory.createExceptionMapper(ne.getClass(), null);
-				importEntry
-						.setStatusText(mapper == null ? ne.getMessage() : mapper.toResponse(ne).getEntity().toString());
-			}
+	 * Return the partition key of an entry. Entries sharing the same key are processed in the order of the input, and
+	 * entries of distinct partitions may be processed concurrently when the task is parallel.
+	 *
+	 * @param entry A batch entry.
+	 * @return The partition key. <code>null</code> by default: all entries are in the same partition.
+	 */
+	protected String toPartition(final B entry) {
+		return null;
+	}
+
+	/**
+	 * Process the entries. When the task is sequential, the given entries are completed before returning. Otherwise,
+	 * each partition is dispatched after the previous entries of the same partition, so a slow partition delays only
+	 * its own entries, and this call waits only while too many chunks are running.
+	 */
+	private void doBatch(final List<B> entries) {
+		if (executor == null) {
+			entries.forEach(this::doBatchEntry);
+			return;
+		}
+
+		// Group the entries by partition, keeping the input order within each partition
+		final var partitions = new LinkedHashMap<String, List<B>>();
+		entries.forEach(e -> partitions.computeIfAbsent(toSafePartition(e), k -> new ArrayList<>()).add(e));
+		log.info("Dispatching {} entries of {} in {} partitions", entries.size(), task, partitions.size());
+
+		// Chain each partition to its previous entries
+		tails.values().removeIf(CompletableFuture::isDone);
+		final var chunk = new ArrayList<CompletableFuture<Void>>();
+		partitions.forEach((key, partition) -> chunk.add(tails.compute(key,
+				(k, tail) -> (tail == null ? CompletableFuture.<Void>completedFuture(null) : tail)
+						.handleAsync((r, e) -> doBatchPartition(partition), executor))));
+
+		// Limit the entries read ahead of the processing
+		running.add(CompletableFuture.allOf(chunk.toArray(CompletableFuture[]::new)));
+		while (running.size() > MAX_RUNNING_CHUNKS) {
+			running.poll().join();
+		}
+	}
+
+	/**
+	 * Process the entries of a partition with the principal of the task, then clear it from the current thread.
+	 */
+	private Void doBatchPartition(final List<B> partition) {
+		securityHelper.setUserName(task.getPrincipal());
+		try {
+			partition.forEach(this::doBatchEntry);
+		} finally {
+			SecurityContextHolder.clearContext();
+		}
+		return null;
+	}
+
+	/**
+	 * Return the partition key of an entry, an invalid entry being in the default partition.
+	 */
+	private String toSafePartition(final B entry) {
+		try {
+			return Objects.toString(toPartition(entry), "");
+		} catch (final RuntimeException e) {
+			// The failure will be reported by the processing of this entry
+			return "";
+		}
+	}
+
+	/**
+	 * Process an entry and update its status and the task counter.
+	 */
+	private void doBatchEntry(final B importEntry) {
+		if (isLost()) {
+			// Proceeded by the node owning the task
+			return;
+		}
+
+		// Override previous status
+		importEntry.setStatus(null);
+		importEntry.setStatusText(null);
+		try {
+			doBatch(importEntry, task.isQuiet());
+
+			// Success
+			importEntry.setStatus(Boolean.TRUE);
+			log.info("Import of {} succeed", importEntry);
+		} catch (final Exception ne) {
+			// The entry creation failed : entity itself of group membership
+			log.info("Import of {} failed : {}", importEntry, ne.getMessage());
+			importEntry.setStatus(Boolean.FALSE);
+			final var mapper = jaxrsFactory.createExceptionMapper(ne.getClass(), null);
+			importEntry
+					.setStatusText(mapper == null ? ne.getMessage() : mapper.toResponse(ne).getEntity().toString());
+		}
+		synchronized (task.getStatus()) {
 			task.getStatus().setDone(task.getStatus().getDone() + 1);
 		}
+		if (journal != null) {
+			journal.done(importEntry);
+		}
 	}
 
 	/**
-	 * Configure the task.
+	 * Configure the task. Only the entries without status are proceeded, so a resumed task skips the entries already
+	 * proceeded.
 	 *
 	 * @param task The batch task.
 	 */
 	public void configure(final BatchTaskVo<B> task) {
 		this.task = task;
+		this.entries = task.getEntries().stream().filter(e -> e.getStatus() == null)
+				.collect(Collectors.toCollection(ArrayList::new));
 		this.task.getStatus().setStart(new Date());
 		this.task.getStatus().setEntries(task.getEntries().size());
+		this.task.getStatus().setDone(task.getEntries().size() - entries.size());
 
 		// Save the CXF factory for JSON serialization
 		this.jaxrsFactory = getMessage() == null ? ServerProviderFactory.getInstance()
@@ -110,6 +312,17 @@ public abstract class AbstractBatchTask<B extends BatchElement> implements Runna
 				.get("org.apache.cxf.jaxrs.provider.ServerProviderFactory");
 	}
 
+	/**
+	 * Configure the task with entries read while the task is running.
+	 *
+	 * @param task    The batch task with the first entries. The next entries are added by the reader.
+	 * @param pending The next chunks of entries. An empty chunk ends the input.
+	 */
+	public void configure(final BatchTaskVo<B> task, final BlockingQueue<List<B>> pending) {
+		configure(task);
+		this.pending = pending;
+	}
+
 	protected Message getMessage() {
 		return PhaseInterceptorChain.getCurrentMessage();
 	}
@@ -0,0 +1,250 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.id.resource.batch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.time.DateUtils;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Write the progress of a running batch task to the {@link BatchTaskStore}. The entry statuses are written by
+ * batches, and a failed write does not stop the task: its entry statuses are written again by the next write. A heartbeat is written periodically, whatever the progress, and
+ * the task is stopped once it is owned by another node.
+ */
+@Slf4j
+public class BatchTaskJournal {
+
+	/**
+	 * Timer writing the heartbeats of the running tasks.
+	 */
+	private static final ScheduledExecutorService HEARTBEATS = Executors
+			.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("batch-heartbeat").daemon().factory());
+
+	/**
+	 * Maximal amount of proceeded entries before a write.
+	 */
+	private static final int FLUSH_SIZE = 100;
+
+	/**
+	 * Maximal delay between two writes while entries are proceeded.
+	 */
+	private static final long FLUSH_DELAY = 10 * DateUtils.MILLIS_PER_SECOND;
+
+	private final BatchTaskStore store;
+
+	/**
+	 * The internal identifier of the persisted task.
+	 */
+	private final int task;
+
+	private final ImportStatus status;
+
+	/**
+	 * The line of each known entry.
+	 */
+	private final Map<BatchElement, Integer> lines = new IdentityHashMap<>();
+
+	/**
+	 * The proceeded entries not yet written, by line.
+	 */
+	private final Map<Integer, BatchElement> updates = new HashMap<>();
+
+	/**
+	 * The amount of recorded entries kept from a failed write.
+	 */
+	private int retained;
+
+	private long flushed = System.currentTimeMillis();
+
+	/**
+	 * Indicates some entries could not be persisted.
+	 */
+	private boolean partial;
+
+	/**
+	 * Indicates the task is owned by another node.
+	 */
+	@Getter
+	private volatile boolean lost;
+
+	/**
+	 * The callbacks stopping the task once owned by another node.
+	 */
+	private final List<Runnable> onLost = new ArrayList<>();
+
+	/**
+	 * The scheduled heartbeat, <code>null</code> when not started.
+	 */
+	private ScheduledFuture<?> heartbeat;
+
+	/**
+	 * Journal of a persisted task.
+	 *
+	 * @param store  The task store.
+	 * @param task   The internal identifier of the persisted task.
+	 * @param status The status of the running task.
+	 */
+	public BatchTaskJournal(final BatchTaskStore store, final int task, final ImportStatus status) {
+		this.store = store;
+		this.task = task;
+		this.status = status;
+	}
+
+	/**
+	 * Add new entries to the task and persist them.
+	 *
+	 * @param entries The new entries, with their current status.
+	 */
+	public synchronized void register(final List<? extends BatchElement> entries) {
+		final var from = lines.size();
+		attach(entries);
+		try {
+			store.append(task, from, entries);
+		} catch (final RuntimeException e) {
+			log.warn("Unable to persist {} entries of task {}", entries.size(), task, e);
+			partial = true;
+		}
+	}
+
+	/**
+	 * Record the end of the input: all entries are registered. The task is marked as fully read only when all its
+	 * entries are persisted.
+	 */
+	public synchronized void fullyRead() {
+		if (partial) {
+			log.warn("Some entries of task {} are not persisted, it cannot be fully resumed by another node", task);
+			return;
+		}
+		try {
+			if (!store.fullyRead(task)) {
+				lost();
+			}
+		} catch (final RuntimeException e) {
+			log.warn("Unable to mark the task {} as fully read", task, e);
+		}
+	}
+
+	/**
+	 * Add entries already persisted, in the order of their lines.
+	 *
+	 * @param entries The persisted entries.
+	 */
+	public synchronized void attach(final List<? extends BatchElement> entries) {
+		entries.forEach(e -> lines.put(e, lines.size()));
+	}
+
+	/**
+	 * Record a proceeded entry. The statuses are written once enough entries are recorded, or after a delay.
+	 *
+	 * @param entry The proceeded entry.
+	 */
+	public synchronized void done(final BatchElement entry) {
+		final var line = lines.get(entry);
+		if (line != null) {
+			updates.put(line, entry);
+		}
+		if (updates.size() - retained >= FLUSH_SIZE || System.currentTimeMillis() - flushed >= FLUSH_DELAY) {
+			flush();
+		}
+	}
+
+	/**
+	 * Write the task status and the recorded entries. The recorded entries are kept for the next write when this one
+	 * fails, so they are not proceeded again by a resumed task.
+	 */
+	public synchronized void flush() {
+		final var snapshot = new ImportStatus();
+		synchronized (status) {
+			snapshot.setStart(status.getStart());
+			snapshot.setEnd(status.getEnd());
+			snapshot.setEntries(status.getEntries());
+			snapshot.setDone(status.getDone());
+			snapshot.setStatus(status.getStatus());
+			snapshot.setStatusText(status.getStatusText());
+		}
+		try {
+			if (!store.update(task, snapshot, Map.copyOf(updates))) {
+				lost();
+			}
+			updates.clear();
+		} catch (final RuntimeException e) {
+			log.warn("Unable to write the progress of task {}, {} entries are kept for the next write", task,
+					updates.size(), e);
+		}
+		retained = updates.size();
+		flushed = System.currentTimeMillis();
+	}
+
+	/**
+	 * Start writing the heartbeat of the task, until {@link #stop()}.
+	 */
+	public synchronized void start() {
+		if (heartbeat == null && !lost) {
+			final var period = BatchTaskStore.HEARTBEAT.toMillis();
+			heartbeat = HEARTBEATS.scheduleAtFixedRate(this::beat, period, period, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Stop writing the heartbeat of the task, and forget the callbacks registered by {@link #onLost(Runnable)}.
+	 */
+	public synchronized void stop() {
+		if (heartbeat != null) {
+			heartbeat.cancel(false);
+			heartbeat = null;
+		}
+		onLost.clear();
+	}
+
+	/**
+	 * Register a callback stopping the task once owned by another node. Run immediately when the task is already
+	 * owned by another node.
+	 *
+	 * @param callback The callback to run once.
+	 */
+	public synchronized void onLost(final Runnable callback) {
+		if (lost) {
+			callback.run();
+		} else {
+			onLost.add(callback);
+		}
+	}
+
+	/**
+	 * Write the heartbeat of the task.
+	 */
+	void beat() {
+		try {
+			if (!store.heartbeat(task)) {
+				lost();
+			}
+		} catch (final RuntimeException e) {
+			log.warn("Unable to write the heartbeat of task {}", task, e);
+		}
+	}
+
+	/**
+	 * Stop the task owned by another node.
+	 */
+	private synchronized void lost() {
+		if (!lost) {
+			log.warn("Task {} is now owned by another node, it is stopped", task);
+			lost = true;
+			final var callbacks = List.copyOf(onLost);
+			stop();
+			callbacks.forEach(Runnable::run);
+		}
+	}
+}
@@ -0,0 +1,187 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.id.resource.batch;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.lang3.time.DateUtils;
+import org.ligoj.app.plugin.id.model.BatchTask;
+import org.ligoj.bootstrap.core.SpringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Registry of the batch tasks. The tasks running on this node are served from memory, the other ones from the
+ * {@link BatchTaskStore}. The unfinished tasks of a dead node are resumed by the node claiming them, at startup or when
+ * they are requested.
+ */
+@Slf4j
+@Component
+public class BatchTaskRegistry {
+
+	/**
+	 * Status text of a resumed task whose input was not fully read by the previous node.
+	 */
+	static final String NOT_FULLY_READ = "Input not fully read by the previous node, the remaining entries are not imported";
+
+	@Autowired
+	private BatchTaskStore store;
+
+	@Autowired
+	private TaskExecutor executor;
+
+	/**
+	 * Hold pending and previous imports of this node. Key is an identifier built from the username requesting the
+	 * import, and the public identifier. This table is clean before each import.
+	 */
+	private final Map<String, BatchTaskVo<?>> imports = new ConcurrentHashMap<>();
+
+	private final AtomicBoolean recovered = new AtomicBoolean();
+
+	private String toKey(final String principal, final long id) {
+		return principal + "-" + id;
+	}
+
+	/**
+	 * Register a new task running on this node and persist it with its first entries.
+	 *
+	 * @param task      The batch task.
+	 * @param taskType  The task class running this batch.
+	 * @param entryType The batch entity type.
+	 * @param <B>       The batch element type.
+	 * @return The journal of this task. <code>null</code> when the task cannot be persisted, and then it is only
+	 *         served by this node.
+	 */
+	public <B extends BatchElement> BatchTaskJournal register(final BatchTaskVo<B> task, final Class<?> taskType,
+			final Class<B> entryType) {
+		// Also cleanup the previous tasks
+		cleanup();
+		imports.put(toKey(task.getPrincipal(), task.getId()), task);
+		try {
+			final var journal = new BatchTaskJournal(store, store.create(task, taskType, entryType), task.getStatus());
+			journal.register(task.getEntries());
+			start(journal, task);
+			return journal;
+		} catch (final RuntimeException e) {
+			log.warn("Unable to persist the task {}, only this node serves it", task, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Return a task of a principal, from any node. An unfinished task of a dead node is resumed by this node.
+	 *
+	 * @param principal The user principal requesting the import.
+	 * @param id        The public task identifier.
+	 * @return <code>null</code> or corresponding task.
+	 */
+	public BatchTaskVo<?> find(final String principal, final long id) {
+		final var local = imports.get(toKey(principal, id));
+		if (local != null) {
+			return local;
+		}
+		try {
+			final var task = store.findBy(principal, id);
+			if (task == null) {
+				return null;
+			}
+			if (store.isRecoverable(task) && store.claim(task)) {
+				return resume(task);
+			}
+			return store.toVo(task);
+		} catch (final ClassNotFoundException | RuntimeException e) {
+			log.warn("Unable to read the task {}-{}", principal, id, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Resume the unfinished tasks of the dead nodes, once the application is started.
+	 */
+	@EventListener(ContextRefreshedEvent.class)
+	public void recover() {
+		if (recovered.getAndSet(true)) {
+			return;
+		}
+		try {
+			store.findAllRecoverable().stream().filter(store::claim).forEach(task -> {
+				try {
+					resume(task);
+				} catch (final ClassNotFoundException | RuntimeException e) {
+					log.error("Unable to resume the task {}", task.getId(), e);
+				}
+			});
+		} catch (final RuntimeException e) {
+			log.error("Unable to recover the batch tasks", e);
+		}
+	}
+
+	/**
+	 * Resume a task claimed by this node: only the entries without status are proceeded.
+	 */
+	@SuppressWarnings("unchecked")
+	private <B extends BatchElement> BatchTaskVo<B> resume(final BatchTask persisted) throws ClassNotFoundException {
+		final BatchTaskVo<B> task = store.toVo(persisted);
+		final var runner = SpringUtils.getBean((Class<AbstractBatchTask<B>>) Class.forName(persisted.getTaskType()));
+		final var journal = new BatchTaskJournal(store, persisted.getId(), task.getStatus());
+		journal.attach(task.getEntries());
+		start(journal, task);
+		runner.setJournal(journal);
+		runner.configure(task);
+		task.getStatus().setStart(persisted.getStartDate());
+		if (!persisted.isFullyRead()) {
+			// The persisted entries are proceeded, but the task cannot succeed
+			task.getStatus().setStatus(Boolean.FALSE);
+			task.getStatus().setStatusText(NOT_FULLY_READ);
+			log.warn("Resuming {} without the entries not read by the previous node", task);
+		}
+		log.info("Resuming {} with {} remaining entries", task,
+				task.getStatus().getEntries() - task.getStatus().getDone());
+		imports.put(toKey(task.getPrincipal(), task.getId()), task);
+		executor.execute(runner);
+		return task;
+	}
+
+	/**
+	 * Start the heartbeat of a task running on this node. Once owned by another node, the task is served from the
+	 * store.
+	 */
+	private void start(final BatchTaskJournal journal, final BatchTaskVo<?> task) {
+		journal.onLost(() -> imports.remove(toKey(task.getPrincipal(), task.getId()), task));
+		journal.start();
+	}
+
+	/**
+	 * Cleanup the previous tasks.
+	 */
+	private void cleanup() {
+		for (final var entry : imports.entrySet()) {
+			if (isFinished(entry.getValue())) {
+				// This task is finished since yesterday
+				imports.remove(entry.getKey());
+			}
+		}
+		try {
+			store.deleteFinished(new Date(System.currentTimeMillis() - DateUtils.MILLIS_PER_DAY));
+		} catch (final RuntimeException e) {
+			log.warn("Unable to delete the previous tasks", e);
+		}
+	}
+
+	/**
+	 * Is the current task is finished.
+	 */
+	private boolean isFinished(final BatchTaskVo<?> task) {
+		return task.getStatus().getEnd() != null
+				&& task.getStatus().getEnd().getTime() + DateUtils.MILLIS_PER_DAY < System.currentTimeMillis();
+	}
+}
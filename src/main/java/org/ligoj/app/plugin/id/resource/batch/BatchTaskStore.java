@@ -0,0 +1,262 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.id.resource.batch;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.PersistenceContextType;
+import jakarta.transaction.Transactional;
+
+import org.apache.commons.collections4.ListUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.ligoj.app.plugin.id.dao.BatchTaskEntryRepository;
+import org.ligoj.app.plugin.id.dao.BatchTaskRepository;
+import org.ligoj.app.plugin.id.model.BatchTask;
+import org.ligoj.app.plugin.id.model.BatchTaskEntry;
+import org.ligoj.bootstrap.core.json.ObjectMapperTrim;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Persistent store of the batch tasks, shared by all nodes. Each write is committed in its own transaction, so the
+ * progress is visible to the other nodes whatever the transaction of the caller.
+ */
+@Component
+public class BatchTaskStore {
+
+	/**
+	 * The current node identifier, unique for each run. The host name is only informative.
+	 */
+	static final String NODE = getHostName() + "/" + UUID.randomUUID();
+
+	/**
+	 * Delay without heartbeat after which the node running a task is considered as dead.
+	 */
+	static final Duration STALE = Duration.ofMinutes(5);
+
+	/**
+	 * Delay between two heartbeats of a running task, whatever its progress.
+	 */
+	static final Duration HEARTBEAT = STALE.dividedBy(5);
+
+	/**
+	 * Amount of entries written between two flush/clear of the persistence context.
+	 */
+	private static final int CHUNK_SIZE = 500;
+
+	@Autowired
+	private BatchTaskRepository repository;
+
+	@Autowired
+	private BatchTaskEntryRepository entryRepository;
+
+	@Autowired
+	private ObjectMapperTrim objectMapper;
+
+	@PersistenceContext(type = PersistenceContextType.TRANSACTION, unitName = "pu")
+	private EntityManager em;
+
+	private static String getHostName() {
+		try {
+			return InetAddress.getLocalHost().getHostName();
+		} catch (final UnknownHostException e) {
+			return "localhost";
+		}
+	}
+
+	/**
+	 * Persist the header of a new task owned by the current node, without entry.
+	 *
+	 * @param vo        The batch task.
+	 * @param taskType  The task class running this batch.
+	 * @param entryType The batch entity type.
+	 * @return The internal identifier of the persisted task.
+	 */
+	@Transactional(Transactional.TxType.REQUIRES_NEW)
+	public int create(final BatchTaskVo<?> vo, final Class<?> taskType, final Class<?> entryType) {
+		final var task = new BatchTask();
+		task.setTaskId(vo.getId());
+		task.setPrincipal(vo.getPrincipal());
+		task.setTaskType(taskType.getName());
+		task.setEntryType(entryType.getName());
+		task.setQuiet(vo.isQuiet());
+		task.setParallelism(vo.getParallelism());
+		task.setEntries(vo.getEntries().size());
+		task.setStartDate(new Date());
+		task.setNode(NODE);
+		task.setHeartbeat(Instant.now());
+		repository.saveAndFlush(task);
+		return task.getId();
+	}
+
+	/**
+	 * Persist new entries of a task.
+	 *
+	 * @param task    The internal identifier of the task.
+	 * @param from    The line of the first given entry.
+	 * @param entries The entries to persist, with their current status.
+	 */
+	@Transactional(Transactional.TxType.REQUIRES_NEW)
+	public void append(final int task, final int from, final List<? extends BatchElement> entries) {
+		var line = from;
+		for (final var entry : entries) {
+			final var persisted = new BatchTaskEntry();
+			persisted.setTask(em.getReference(BatchTask.class, task));
+			persisted.setLine(line++);
+			persisted.setContent(objectMapper.writeValueAsString(entry));
+			setStatus(persisted, entry);
+			em.persist(persisted);
+			if ((line - from) % CHUNK_SIZE == 0) {
+				em.flush();
+				em.clear();
+			}
+		}
+	}
+
+	/**
+	 * Mark all the entries of a task owned by the current node as persisted.
+	 *
+	 * @param task The internal identifier of the task.
+	 * @return <code>false</code> when the task is owned by another node, and then nothing is written.
+	 */
+	@Transactional(Transactional.TxType.REQUIRES_NEW)
+	public boolean fullyRead(final int task) {
+		return repository.fullyRead(task, NODE) == 1;
+	}
+
+	/**
+	 * Write the heartbeat of a task owned by the current node.
+	 *
+	 * @param task The internal identifier of the task.
+	 * @return <code>false</code> when the task is owned by another node, and then nothing is written.
+	 */
+	@Transactional(Transactional.TxType.REQUIRES_NEW)
+	public boolean heartbeat(final int task) {
+		return repository.heartbeat(task, NODE, Instant.now()) == 1;
+	}
+
+	/**
+	 * Write the progress of a task owned by the current node.
+	 *
+	 * @param task    The internal identifier of the task.
+	 * @param status  The task status.
+	 * @param entries The proceeded entries, by line.
+	 * @return <code>false</code> when the task is owned by another node, and then nothing is written.
+	 */
+	@Transactional(Transactional.TxType.REQUIRES_NEW)
+	public boolean update(final int task, final ImportStatus status, final Map<Integer, ? extends BatchElement> entries) {
+		if (repository.progress(task, NODE, Instant.now(), status.getEntries(), status.getDone(), status.getStatus(),
+				StringUtils.abbreviate(status.getStatusText(), BatchTaskEntry.MAX_STATUS_TEXT), status.getEnd()) == 0) {
+			return false;
+		}
+		ListUtils.partition(new ArrayList<>(entries.keySet()), 1000).forEach(
+				lines -> entryRepository.findAllBy(task, lines).forEach(e -> setStatus(e, entries.get(e.getLine()))));
+		return true;
+	}
+
+	private void setStatus(final BatchTaskEntry persisted, final BatchElement entry) {
+		persisted.setStatus(entry.getStatus());
+		persisted.setStatusText(StringUtils.abbreviate(entry.getStatusText(), BatchTaskEntry.MAX_STATUS_TEXT));
+	}
+
+	/**
+	 * Return the task of a principal.
+	 *
+	 * @param principal The user principal requesting the import.
+	 * @param taskId    The public task identifier.
+	 * @return The task or <code>null</code>.
+	 */
+	@Transactional
+	public BatchTask findBy(final String principal, final long taskId) {
+		return repository.findBy(principal, taskId);
+	}
+
+	/**
+	 * Return the unfinished tasks the current node can recover: the ones without heartbeat since {@link #STALE}.
+	 *
+	 * @return The tasks to recover.
+	 */
+	@Transactional
+	public List<BatchTask> findAllRecoverable() {
+		return repository.findAllRecoverable(NODE, Instant.now().minus(STALE));
+	}
+
+	/**
+	 * Indicate the given task can be recovered by the current node.
+	 *
+	 * @param task The persisted task.
+	 * @return <code>true</code> when the task is unfinished and owned by a dead node.
+	 * @see #findAllRecoverable()
+	 */
+	public boolean isRecoverable(final BatchTask task) {
+		return task.getEndDate() == null && !NODE.equals(task.getNode())
+				&& task.getHeartbeat().isBefore(Instant.now().minus(STALE));
+	}
+
+	/**
+	 * Move a task to the current node. Only one node succeeds when several nodes claim the same task.
+	 *
+	 * @param task The persisted task, as read.
+	 * @return <code>true</code> when the task is now owned by the current node.
+	 */
+	@Transactional(Transactional.TxType.REQUIRES_NEW)
+	public boolean claim(final BatchTask task) {
+		return repository.claim(task.getId(), NODE, Instant.now(), task.getNode(), task.getHeartbeat()) == 1;
+	}
+
+	/**
+	 * Build the task bean from the persisted task, with its entries and their status.
+	 *
+	 * @param task The persisted task.
+	 * @param <B>  The batch element type.
+	 * @return The task bean.
+	 * @throws ClassNotFoundException When the entry type is not available.
+	 */
+	@Transactional
+	@SuppressWarnings("unchecked")
+	public <B extends BatchElement> BatchTaskVo<B> toVo(final BatchTask task) throws ClassNotFoundException {
+		final var entryType = (Class<B>) Class.forName(task.getEntryType());
+		final var entries = new ArrayList<B>();
+		entryRepository.findAllBy(task.getId()).forEach(persisted -> {
+			final var entry = objectMapper.readValue(persisted.getContent(), entryType);
+			entry.setStatus(persisted.getStatus());
+			entry.setStatusText(persisted.getStatusText());
+			entries.add(entry);
+		});
+		final var vo = new BatchTaskVo<B>();
+		vo.setId(task.getTaskId());
+		vo.setPrincipal(task.getPrincipal());
+		vo.setQuiet(task.isQuiet());
+		vo.setParallelism(task.getParallelism());
+		vo.setEntries(entries);
+		vo.getStatus().setStart(task.getStartDate());
+		vo.getStatus().setEnd(task.getEndDate());
+		vo.getStatus().setEntries(task.getEntries());
+		vo.getStatus().setDone(task.getDone());
+		vo.getStatus().setStatus(task.getStatus());
+		vo.getStatus().setStatusText(task.getStatusText());
+		return vo;
+	}
+
+	/**
+	 * Delete the tasks finished before the given date, with their entries.
+	 *
+	 * @param before The newest deleted end date.
+	 */
+	@Transactional(Transactional.TxType.REQUIRES_NEW)
+	public void deleteFinished(final Date before) {
+		entryRepository.deleteFinished(before);
+		repository.deleteFinished(before);
+	}
+}
@@ -3,8 +3,10 @@
  */
 package org.ligoj.app.plugin.id.resource.batch;
 
+import java.util.ArrayList;
 import java.util.List;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.ToString;
@@ -24,9 +26,10 @@ public class BatchTaskVo<B extends BatchElement> {
 	private long id;
 
 	/**
-	 * Entries to persist.
+	 * Entries to persist. Guarded by the status while the entries are read.
 	 */
 	@Setter
+	@Getter(AccessLevel.NONE)
 	private List<B> entries;
 
 	/**
@@ -42,4 +45,36 @@ public class BatchTaskVo<B extends BatchElement> {
 
 	@Setter
 	private boolean quiet;
+
+	/**
+	 * Maximal amount of partitions processed concurrently. <code>1</code> processes all entries sequentially.
+	 */
+	@Setter
+	private int parallelism = 1;
+
+	/**
+	 * Return the entries known so far.
+	 *
+	 * @return A copy of the entries, safe to read while the next entries are added.
+	 */
+	public List<B> getEntries() {
+		synchronized (status) {
+			return entries == null ? null : new ArrayList<>(entries);
+		}
+	}
+
+	/**
+	 * Add the entries read while the task is running, and update the amounts of entries and proceeded entries of the
+	 * status. The entries are kept until the end of the task.
+	 *
+	 * @param chunk  The new entries.
+	 * @param failed The amount of new entries already failed, and not proceeded by the task.
+	 */
+	public void addEntries(final List<B> chunk, final int failed) {
+		synchronized (status) {
+			entries.addAll(chunk);
+			status.setEntries(entries.size());
+			status.setDone(status.getDone() + failed);
+		}
+	}
 }
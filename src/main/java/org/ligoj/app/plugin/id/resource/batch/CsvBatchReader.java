@@ -0,0 +1,108 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.id.resource.batch;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import org.apache.commons.lang3.StringUtils;
+import org.ligoj.bootstrap.core.csv.CsvForBean;
+
+/**
+ * Read a CSV input by chunks of beans. The records are split without parsing their values, and each chunk is parsed
+ * with the header, so only a chunk is held in memory. A quoted value may span several lines.
+ *
+ * @param <B> The batch element type.
+ */
+public class CsvBatchReader<B extends BatchElement> implements Closeable {
+
+	private final CsvForBean csvForBean;
+	private final Class<B> batchType;
+	private final String headers;
+	private final BufferedReader reader;
+	private final int chunkSize;
+
+	/**
+	 * The next record, already read. <code>null</code> at the end of the input.
+	 */
+	private String next;
+
+	/**
+	 * Reader of the given CSV input, without header.
+	 *
+	 * @param csvForBean The CSV parser.
+	 * @param batchType  The target batch entity type.
+	 * @param headers    The CSV header line, including the line separator.
+	 * @param reader     The CSV input without header.
+	 * @param chunkSize  The maximal amount of records per chunk.
+	 * @throws IOException When the CSV read failed.
+	 */
+	public CsvBatchReader(final CsvForBean csvForBean, final Class<B> batchType, final String headers,
+			final BufferedReader reader, final int chunkSize) throws IOException {
+		this.csvForBean = csvForBean;
+		this.batchType = batchType;
+		this.headers = headers;
+		this.reader = reader;
+		this.chunkSize = chunkSize;
+		try {
+			this.next = readRecord();
+		} catch (final IOException e) {
+			reader.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Read a record, joining the lines while a quoted value is not closed.
+	 */
+	private String readRecord() throws IOException {
+		var line = reader.readLine();
+		if (line == null) {
+			return null;
+		}
+		final var record = new StringBuilder(line);
+		var quotes = StringUtils.countMatches(line, '"');
+		while (quotes % 2 != 0 && (line = reader.readLine()) != null) {
+			record.append('\n').append(line);
+			quotes += StringUtils.countMatches(line, '"');
+		}
+		return record.toString();
+	}
+
+	/**
+	 * Indicates there are remaining records.
+	 *
+	 * @return <code>true</code> when there are remaining records.
+	 */
+	public boolean hasNext() {
+		return next != null;
+	}
+
+	/**
+	 * Return the beans of the next records.
+	 *
+	 * @return The parsed beans, without the empty records. Empty at the end of the input.
+	 * @throws IOException When the CSV read failed.
+	 */
+	public List<B> next() throws IOException {
+		final var chunk = new StringBuilder(headers);
+		for (var count = 0; count < chunkSize && next != null; count++) {
+			chunk.append(next).append('\n');
+			next = readRecord();
+		}
+		final var result = new ArrayList<>(csvForBean.toBean(batchType, new StringReader(chunk.toString())));
+		result.removeIf(Objects::isNull);
+		return result;
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+}
@@ -39,4 +39,9 @@ public class ImportStatus {
 	 * Import status. <code>null</code> when not proceeded.
 	 */
 	private Boolean status;
+
+	/**
+	 * Import status text, explaining a failure of the whole import. <code>null</code> otherwise.
+	 */
+	private String statusText;
 }
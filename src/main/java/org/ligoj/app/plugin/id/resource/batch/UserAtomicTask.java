@@ -8,6 +8,7 @@ import java.util.Map;
 import java.util.function.BiConsumer;
 
 import org.apache.commons.lang3.StringUtils;
+import org.ligoj.app.api.Normalizer;
 import org.ligoj.app.iam.dao.DelegateOrgRepository;
 import org.ligoj.app.plugin.id.resource.UserOrgEditionVo;
 import org.ligoj.app.plugin.id.resource.UserOrgResource;
@@ -66,6 +67,14 @@ public class UserAtomicTask extends AbstractBatchTask<UserUpdateEntry> {
 		FUNCTIONS.put("delete", (u, e) -> u.resource.delete(e.getUser()));
 	}
 
+	/**
+	 * The entries of the same user are processed in order.
+	 */
+	@Override
+	protected String toPartition(final UserUpdateEntry entry) {
+		return Normalizer.normalize(entry.getUser());
+	}
+
 	@Override
 	protected void doBatch(final UserUpdateEntry entry, final boolean quiet) {
 
@@ -3,6 +3,7 @@
  */
 package org.ligoj.app.plugin.id.resource.batch;
 
+import org.ligoj.app.api.Normalizer;
 import org.ligoj.app.plugin.id.resource.UserOrgEditionVo;
 import org.ligoj.app.plugin.id.resource.UserOrgResource;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -20,6 +21,14 @@ public class UserFullTask extends AbstractBatchTask<UserImportEntry> {
 	@Autowired
 	protected UserOrgResource resource;
 
+	/**
+	 * The entries of the same user are processed in order.
+	 */
+	@Override
+	protected String toPartition(final UserImportEntry entry) {
+		return Normalizer.normalize(entry.getId());
+	}
+
 	@Override
 	protected void doBatch(final UserImportEntry entry, final boolean quiet) {
 
@@ -0,0 +1,93 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.id;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test class of {@link DnIndex}
+ */
+class DnIndexTest {
+
+	private DnIndex<String> newIndex(final String... dns) {
+		return DnIndex.of(Arrays.asList(dns), Function.identity());
+	}
+
+	@Test
+	void findParents() {
+		final var index = newIndex("ou=p3,ou=p2,ou=p1,ou=base", "dummy", "ou=p2,ou=p1,ou=base", "ou=base");
+		Assertions.assertEquals(List.of("ou=p3,ou=p2,ou=p1,ou=base", "ou=p2,ou=p1,ou=base", "ou=base"),
+				index.findParents("ou=p4,ou=p3,ou=p2,ou=p1,ou=base"));
+		Assertions.assertEquals(List.of("ou=p2,ou=p1,ou=base", "ou=base"), index.findParents("ou=p2,ou=p1,ou=base"));
+		Assertions.assertEquals(List.of("ou=base"), index.findParents("ou=px,ou=p1,ou=base"));
+		Assertions.assertEquals(List.of(), index.findParents("ou=other"));
+		Assertions.assertEquals(List.of(), index.findParents(null));
+	}
+
+	@Test
+	void findFirstParent() {
+		final var index = newIndex("ou=p2,ou=p1,ou=base", "ou=base");
+		Assertions.assertEquals("ou=p2,ou=p1,ou=base", index.findFirstParent("ou=p3,ou=p2,ou=p1,ou=base"));
+		Assertions.assertEquals("ou=base", index.findFirstParent("ou=px,ou=p1,ou=base"));
+		Assertions.assertNull(index.findFirstParent("ou=other"));
+		Assertions.assertNull(index.findFirstParent(null));
+	}
+
+	@Test
+	void findFirstParentInsertionOrder() {
+		// The first inserted value wins, even when it is not the closest one
+		final var index = newIndex("ou=base", "ou=p2,ou=p1,ou=base");
+		Assertions.assertEquals("ou=base", index.findFirstParent("ou=p3,ou=p2,ou=p1,ou=base"));
+	}
+
+	@Test
+	void containsParentOf() {
+		final var index = newIndex("dummy", "ou=p2,ou=p1,ou=base");
+		Assertions.assertTrue(index.containsParentOf("ou=p2,ou=p1,ou=base"));
+		Assertions.assertTrue(index.containsParentOf("ou=p3,ou=p2,ou=p1,ou=base"));
+		Assertions.assertFalse(index.containsParentOf("ou=px,ou=p1,ou=base"));
+		Assertions.assertFalse(index.containsParentOf("ou=p1,ou=base"));
+		Assertions.assertFalse(index.containsParentOf(null));
+	}
+
+	@Test
+	void containsParentOfPartialRdn() {
+		// Same as DnUtils, "b,a" does not contain "xb,a"
+		final var index = newIndex("b,a");
+		Assertions.assertFalse(index.containsParentOf("xb,a"));
+		Assertions.assertTrue(index.containsParentOf("x,b,a"));
+	}
+
+	@Test
+	void findAllUnder() {
+		final var index = newIndex("ou=p3,ou=p2,ou=p1,ou=base", "ou=p1,ou=base", "ou=px,ou=base",
+				"ou=p2,ou=p1,ou=base", "ou=p1,ou=other");
+		Assertions.assertEquals(List.of("ou=p3,ou=p2,ou=p1,ou=base", "ou=p1,ou=base", "ou=p2,ou=p1,ou=base"),
+				index.findAllUnder("ou=p1,ou=base"));
+		Assertions.assertEquals(List.of("ou=p3,ou=p2,ou=p1,ou=base"), index.findAllUnder("ou=p3,ou=p2,ou=p1,ou=base"));
+		Assertions.assertEquals(List.of(), index.findAllUnder("ou=p4,ou=p1,ou=base"));
+		Assertions.assertEquals(List.of(), index.findAllUnder("ou=unknown"));
+		Assertions.assertEquals(List.of(), index.findAllUnder(null));
+	}
+
+	@Test
+	void ofNullDn() {
+		final var index = DnIndex.of(Arrays.asList("a", null), Function.identity());
+		Assertions.assertEquals(List.of("a"), index.findAllUnder("a"));
+	}
+
+	@Test
+	void put() {
+		final var index = new DnIndex<String>();
+		index.put("b,a", "first");
+		index.put("b,a", "second");
+		Assertions.assertEquals(List.of("first", "second"), index.findParents("c,b,a"));
+		Assertions.assertEquals("first", index.findFirstParent("b,a"));
+	}
+}
@@ -39,6 +39,13 @@ class DnUtilsTest {
 		Assertions.assertFalse(DnUtils.equalsOrParentOf(strings, "ou=px,ou=p1,ou=base"));
 	}
 
+	@Test
+	void equalsOrParentOfPartialRdn() {
+		Assertions.assertFalse(DnUtils.equalsOrParentOf("b,a", "xb,a"));
+		Assertions.assertFalse(DnUtils.equalsOrParentOf("b,a", "a"));
+		Assertions.assertFalse(DnUtils.equalsOrParentOf("b,a", "c,a"));
+	}
+
 	@Test
 	void equalsOrParentOfNullParent() {
 		Assertions.assertFalse(DnUtils.equalsOrParentOf("a", null));
@@ -55,6 +62,12 @@ class DnUtilsTest {
 		Assertions.assertEquals("b", DnUtils.toRdn("a=b"));
 		Assertions.assertEquals("b", DnUtils.toRdn("a=B"));
 		Assertions.assertEquals("b", DnUtils.toRdn("a=b,c=d"));
+		Assertions.assertEquals("b", DnUtils.toRdn("=a==b,c=d"));
+	}
+
+	@Test
+	void toRdnNoValue() {
+		Assertions.assertThrows(ArrayIndexOutOfBoundsException.class, () -> DnUtils.toRdn("a="));
 	}
 
 	@Test
@@ -62,6 +75,7 @@ class DnUtilsTest {
 		Assertions.assertEquals("d", DnUtils.toParentRdn("a=b,c=d"));
 		Assertions.assertEquals("d", DnUtils.toParentRdn(" a = b , c = D "));
 		Assertions.assertEquals("d", DnUtils.toParentRdn("a=b,c=d,e=f"));
+		Assertions.assertEquals("d", DnUtils.toParentRdn("a=b,,c=d="));
 	}
 
 }
@@ -0,0 +1,81 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.id.dao;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.ligoj.app.iam.GroupOrg;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Test class of {@link ContainerTree}
+ */
+class ContainerTreeTest {
+
+	private final Map<String, GroupOrg> groups = new LinkedHashMap<>();
+
+	private void newGroup(final String name, final String parent) {
+		final var group = new GroupOrg("cn=" + name, name, new HashSet<>());
+		group.setParent(parent);
+		groups.put(group.getId(), group);
+	}
+
+	@Test
+	void getAncestors() {
+		newGroup("g1", null);
+		newGroup("g2", "g1");
+		newGroup("g3", "g2");
+		newGroup("g4", "g2");
+		final var tree = ContainerTree.of(groups);
+
+		Assertions.assertEquals(List.of("g1"), tree.getAncestors("g2"));
+		Assertions.assertEquals(List.of("g2", "g1"), tree.getAncestors("g3"));
+		Assertions.assertSame(tree.getAncestors("g3"), tree.getAncestors("g3"));
+		Assertions.assertEquals(List.of("g2", "g1"), tree.getAncestors("g4"));
+		Assertions.assertEquals(List.of(), tree.getAncestors("g1"));
+		Assertions.assertEquals(List.of(), tree.getAncestors("any"));
+	}
+
+	@Test
+	void getAncestorsUnknownParent() {
+		newGroup("g2", "g1");
+		Assertions.assertEquals(List.of("g1"), ContainerTree.of(groups).getAncestors("g2"));
+	}
+
+	@Test
+	void getAncestorsCycle() {
+		newGroup("g1", "g3");
+		newGroup("g2", "g1");
+		newGroup("g3", "g2");
+		final var tree = ContainerTree.of(groups);
+		Assertions.assertEquals(List.of("g3", "g2"), tree.getAncestors("g1"));
+		Assertions.assertEquals(List.of("g1", "g3"), tree.getAncestors("g2"));
+		Assertions.assertEquals(List.of("g2", "g1"), tree.getAncestors("g3"));
+	}
+
+	@Test
+	void getDescendants() {
+		newGroup("g1", null);
+		newGroup("g2", "g1");
+		newGroup("g3", "g2");
+		newGroup("g4", "g1");
+		final var tree = ContainerTree.of(groups);
+
+		Assertions.assertEquals(List.of("g2", "g4", "g3"), tree.getDescendants("g1"));
+		Assertions.assertEquals(List.of("g3"), tree.getDescendants("g2"));
+		Assertions.assertEquals(List.of(), tree.getDescendants("g3"));
+		Assertions.assertEquals(List.of(), tree.getDescendants("any"));
+	}
+
+	@Test
+	void getDescendantsCycle() {
+		newGroup("g1", "g2");
+		newGroup("g2", "g1");
+		Assertions.assertEquals(List.of("g2"), ContainerTree.of(groups).getDescendants("g1"));
+	}
+}
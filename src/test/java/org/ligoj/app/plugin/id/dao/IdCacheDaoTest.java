@@ -4,6 +4,8 @@
 package org.ligoj.app.plugin.id.dao;
 
 import jakarta.transaction.Transactional;
+import org.hibernate.Session;
+import org.hibernate.SessionEventListener;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -15,6 +17,7 @@ import org.ligoj.app.iam.dao.DelegateOrgRepository;
 import org.ligoj.app.iam.model.*;
 import org.ligoj.app.model.*;
 import org.ligoj.bootstrap.AbstractJpaTest;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.test.annotation.Rollback;
@@ -22,6 +25,7 @@ import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Test class of {@link IdCacheDao}
@@ -38,6 +42,9 @@ class IdCacheDaoTest extends AbstractJpaTest {
 	@Autowired
 	private DelegateOrgRepository delegateOrgRepository;
 
+	@Autowired
+	private ConfigurationResource configuration;
+
 	@Test
 	void addGroupToGroup() {
 		dao.create(new GroupOrg("dng3", "Name-SG-other", null), Collections.emptyMap());
@@ -576,6 +583,150 @@ class IdCacheDaoTest extends AbstractJpaTest {
 		dao.reset(companies, groups, users);
 	}
 
+	@Test
+	void resetBatchSize() {
+		configuration.put(IdCacheDaoImpl.CONF_BATCH_SIZE, "2");
+		final var companies = Map.of("company", new CompanyOrg("dn=company1", "Company"));
+		final var groups = Map.of("group", new GroupOrg("dn=group1", "Group", new HashSet<>()));
+		final var users = new HashMap<String, UserOrg>();
+		users.put("u", newUser());
+		for (var i = 1; i <= 5; i++) {
+			final var user = newUser("u" + i);
+			user.setCompany("company");
+			user.setGroups(Collections.singleton("group"));
+			users.put(user.getId(), user);
+		}
+
+		final var batches = new AtomicInteger();
+		em.unwrap(Session.class).addEventListeners(new SessionEventListener() {
+			@Override
+			public void jdbcExecuteBatchStart() {
+				batches.incrementAndGet();
+			}
+		});
+		dao.reset(companies, groups, users);
+
+		// The 8 written rows of companies, groups and users are grouped in JDBC batches of 2 rows
+		Assertions.assertTrue(batches.get() >= 4, "batches: " + batches.get());
+		Assertions.assertTrue(batches.get() < 8, "batches: " + batches.get());
+
+		// All users and their memberships are persisted whatever the batch size
+		Assertions.assertEquals(6, em.createQuery("FROM CacheUser").getResultList().size());
+		Assertions.assertEquals(6, em.createQuery("FROM CacheMembership WHERE group.id = :id").setParameter("id", "group")
+				.getResultList().size());
+		Assertions.assertEquals(0, em.createQuery("FROM CacheMembership WHERE subGroup IS NOT NULL").getResultList().size());
+		Assertions.assertNull(em.find(CacheUser.class, "u0"));
+		checkUser();
+	}
+
+	@Test
+	void resetChunkSize() {
+		configuration.put(IdCacheDaoImpl.CONF_CHUNK_SIZE, "10");
+		final var companies = Map.of("company", new CompanyOrg("dn=company1", "Company"));
+		final var groups = Map.of("group", new GroupOrg("dn=group1", "Group", new HashSet<>()));
+		final var users = new HashMap<String, UserOrg>();
+		users.put("u", newUser());
+		for (var i = 1; i < 500; i++) {
+			final var user = newUser("u" + i);
+			user.setCompany("company");
+			user.setGroups(Collections.singleton("group"));
+			users.put(user.getId(), user);
+		}
+
+		dao.reset(companies, groups, users);
+
+		// All users and their memberships are persisted, with a managed entity count bounded by the chunk size
+		Assertions.assertEquals(500, em.createQuery("FROM CacheUser").getResultList().size());
+		Assertions.assertEquals(500, em.createQuery("FROM CacheMembership WHERE group.id = :id").setParameter("id", "group")
+				.getResultList().size());
+		Assertions.assertTrue(dao.getResetPeakEntities() > 0);
+		Assertions.assertTrue(dao.getResetPeakEntities() <= 30);
+		checkUser();
+	}
+
+	@Test
+	void resetIncremental() {
+		// Unchanged company, moved group, renamed user
+		final var companies = Map.of("another-company", new CompanyOrg("dna", "Another-Company"));
+		final var groups = Map.of("group", new GroupOrg("dn=moved", "Group", new HashSet<>(Set.of("u0"))));
+		final var user = newUser("u0");
+		user.setFirstName("F");
+		user.setCompany("another-company");
+		user.setGroups(Collections.singleton("group"));
+		final var users = Map.of("u0", user);
+
+		dao.reset(companies, groups, users);
+
+		final var company = em.find(CacheCompany.class, "another-company");
+		Assertions.assertEquals("Another-Company", company.getName());
+		Assertions.assertEquals("dna", company.getDescription());
+		Assertions.assertEquals("dn=moved", em.find(CacheGroup.class, "group").getDescription());
+		final var cacheUser = em.find(CacheUser.class, "u0");
+		Assertions.assertEquals("F", cacheUser.getFirstName());
+		Assertions.assertEquals("another-company", cacheUser.getCompany().getId());
+		Assertions.assertNull(em.find(CacheGroup.class, "another-group"));
+		Assertions.assertEquals(1, em.createQuery("FROM CacheMembership").getResultList().size());
+		assertDelta(CacheCompany.class, 0, 0, 1, 0);
+		assertDelta(CacheGroup.class, 0, 1, 0, 2);
+		assertDelta(CacheUser.class, 0, 1, 0, 0);
+
+		// Second reset without any change keeps the same data, without write
+		dao.reset(companies, groups, users);
+		Assertions.assertEquals("F", em.find(CacheUser.class, "u0").getFirstName());
+		Assertions.assertEquals(1, em.createQuery("FROM CacheMembership").getResultList().size());
+		assertDelta(CacheCompany.class, 0, 0, 1, 0);
+		assertDelta(CacheGroup.class, 0, 0, 1, 0);
+		assertDelta(CacheUser.class, 0, 0, 1, 0);
+	}
+
+	@Test
+	void resetSubGroupIncremental() {
+		final var companies = Map.of("company", new CompanyOrg("dn=company1", "Company"));
+		final var group = new GroupOrg("dn=group1", "Group", new HashSet<>());
+		group.setSubGroups(Set.of("group2"));
+		final var group2 = new GroupOrg("dn=group2", "Group2", new HashSet<>());
+		final var groups = Map.of("group", group, "group2", group2);
+		final var users = Map.of("u", newUser());
+
+		dao.reset(companies, groups, users);
+		final var memberships = em
+				.createQuery("SELECT id FROM CacheMembership WHERE group.id = :id AND subGroup.id = :sid", Integer.class)
+				.setParameter("id", "group").setParameter("sid", "group2").getResultList();
+		Assertions.assertEquals(1, memberships.size());
+
+		// Second reset without any change keeps the same subgroup membership: no delete, no insert
+		dao.reset(companies, groups, users);
+		Assertions.assertEquals(memberships,
+				em.createQuery("SELECT id FROM CacheMembership WHERE subGroup IS NOT NULL", Integer.class).getResultList());
+	}
+
+	@Test
+	void resetUnknownCompany() {
+		final var companies = Map.of("another-company", new CompanyOrg("dna", "Another-Company"));
+		final var groups = Map.of("group", new GroupOrg("dng", "Group", new HashSet<>()));
+		final var user = newUser("u0");
+		user.setCompany("unknown");
+		user.setGroups(Collections.emptySet());
+		final var users = Map.of("u0", user);
+
+		dao.reset(companies, groups, users);
+		Assertions.assertNull(em.find(CacheUser.class, "u0").getCompany());
+		assertDelta(CacheUser.class, 0, 1, 0, 0);
+
+		// The unknown company is stored as null, and is not a change
+		dao.reset(companies, groups, users);
+		assertDelta(CacheUser.class, 0, 0, 1, 0);
+	}
+
+	private void assertDelta(final Class<?> type, final int inserted, final int updated, final int unchanged,
+			final int deleted) {
+		final var delta = dao.getResetDeltas().get(type);
+		Assertions.assertEquals(inserted, delta.getInserted(), "inserted " + type.getSimpleName());
+		Assertions.assertEquals(updated, delta.getUpdated(), "updated " + type.getSimpleName());
+		Assertions.assertEquals(unchanged, delta.getUnchanged(), "unchanged " + type.getSimpleName());
+		Assertions.assertEquals(deleted, delta.getDeleted(), "deleted " + type.getSimpleName());
+	}
+
 	@Test
 	void updateUser() {
 		Assertions.assertEquals(1, em.createQuery("FROM CacheMembership WHERE user.id = :id").setParameter("id", "u0")
@@ -0,0 +1,55 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.id.dao;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Test class of {@link LayeredMap}
+ */
+class LayeredMapTest {
+
+	@Test
+	void with() {
+		final var map = LayeredMap.of(Map.of("a", 1, "b", 2));
+		final var changes = new HashMap<String, Integer>();
+		changes.put("a", null);
+		changes.put("c", 3);
+		changes.put("d", null);
+		final var newMap = map.with(changes);
+
+		// The previous map is left untouched
+		Assertions.assertEquals(Map.of("a", 1, "b", 2), map);
+		Assertions.assertEquals(Map.of("b", 2, "c", 3), newMap);
+		Assertions.assertEquals(2, newMap.size());
+		Assertions.assertNull(newMap.get("a"));
+		Assertions.assertFalse(newMap.containsKey("a"));
+		Assertions.assertTrue(newMap.containsKey("c"));
+		Assertions.assertSame(newMap, newMap.with(Map.of()));
+		Assertions.assertThrows(UnsupportedOperationException.class, () -> newMap.put("e", 5));
+		Assertions.assertThrows(UnsupportedOperationException.class, () -> newMap.remove("b"));
+	}
+
+	@Test
+	void withMerge() {
+		var map = LayeredMap.<Integer>of(Map.of());
+		final var expected = new HashMap<String, Integer>();
+		for (var i = 0; i < 1000; i++) {
+			map = map.with(Map.of("k" + i, i));
+			expected.put("k" + i, i);
+			if (i % 3 == 0) {
+				final var removal = new HashMap<String, Integer>();
+				removal.put("k" + (i / 2), null);
+				map = map.with(removal);
+				expected.remove("k" + (i / 2));
+			}
+		}
+		Assertions.assertEquals(expected, map);
+		Assertions.assertEquals(expected.size(), map.size());
+	}
+}
@@ -0,0 +1,179 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.id.dao;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.ligoj.app.iam.CompanyOrg;
+import org.ligoj.app.iam.GroupOrg;
+import org.ligoj.app.iam.ResourceOrg;
+import org.ligoj.app.iam.UserOrg;
+import org.ligoj.app.plugin.id.dao.AbstractMemCacheRepository.CacheDataType;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Test class of {@link MemCacheSnapshotStore}
+ */
+class MemCacheSnapshotStoreTest {
+
+	private static final Instant LOCKED = Instant.ofEpochSecond(1700000000L, 123456789);
+
+	@TempDir
+	private Path tmp;
+
+	private Path file;
+
+	private MemCacheSnapshotStore store;
+
+	private long now;
+
+	@BeforeEach
+	void init() {
+		file = tmp.resolve("snapshot.bin");
+		now = System.currentTimeMillis();
+		final var configuration = Mockito.mock(ConfigurationResource.class);
+		Mockito.when(configuration.get(MemCacheSnapshotStore.CONF_SNAPSHOT_FILE)).thenReturn(file.toString());
+		Mockito.when(configuration.get(MemCacheSnapshotStore.CONF_SNAPSHOT_MAX_AGE, MemCacheSnapshotStore.DEFAULT_SNAPSHOT_MAX_AGE))
+				.thenReturn(MemCacheSnapshotStore.DEFAULT_SNAPSHOT_MAX_AGE);
+		store = new MemCacheSnapshotStore();
+		store.setConfiguration(configuration);
+	}
+
+	private Map<CacheDataType, Map<String, ? extends ResourceOrg>> newData() {
+		final var company = new CompanyOrg("ou=company", "Company");
+		company.setLocked(true);
+		final var subCompany = new CompanyOrg("ou=sub,ou=company", "Sub");
+		subCompany.setParent("company");
+		final var group = new GroupOrg("cn=group", "Group", new HashSet<>(Set.of("u")));
+		group.setSubGroups(new HashSet<>(Set.of("sub")));
+		group.setParent("parent");
+		final var user = new UserOrg();
+		user.setId("u");
+		user.setFirstName("F");
+		user.setLastName("L");
+		user.setCompany("company");
+		user.setMails(List.of("u@sample.com"));
+		user.setGroups(List.of("group"));
+		user.setDn("uid=u,ou=company");
+		user.setDepartment("D");
+		user.setLocalId("L1");
+		user.setLocked(LOCKED);
+		user.setLockedBy("admin");
+		user.setIsolated("old-company");
+		user.setCustomAttributes(Map.of("foo", "bar"));
+		final Map<CacheDataType, Map<String, ? extends ResourceOrg>> data = new EnumMap<>(CacheDataType.class);
+		data.put(CacheDataType.COMPANY, Map.of("company", company, "sub", subCompany));
+		data.put(CacheDataType.GROUP, Map.of("group", group));
+		data.put(CacheDataType.USER, Map.of("u", user));
+		return data;
+	}
+
+	@Test
+	void writeAndRead() {
+		store.write(newData(), now);
+
+		final var data = store.read(now);
+		final var company = (CompanyOrg) data.get(CacheDataType.COMPANY).get("company");
+		Assertions.assertEquals("ou=company", company.getDn());
+		Assertions.assertEquals("Company", company.getName());
+		Assertions.assertTrue(company.isLocked());
+		Assertions.assertNull(company.getParent());
+		Assertions.assertEquals(List.of(company), company.getCompanyTree());
+
+		// The company tree of a nested company is rebuilt from the parents
+		final var subCompany = (CompanyOrg) data.get(CacheDataType.COMPANY).get("sub");
+		Assertions.assertEquals("company", subCompany.getParent());
+		Assertions.assertFalse(subCompany.isLocked());
+		Assertions.assertEquals(List.of(company, subCompany), subCompany.getCompanyTree());
+		final var group = (GroupOrg) data.get(CacheDataType.GROUP).get("group");
+		Assertions.assertEquals("cn=group", group.getDn());
+		Assertions.assertEquals(Set.of("u"), group.getMembers());
+		Assertions.assertEquals(Set.of("sub"), group.getSubGroups());
+		Assertions.assertEquals("parent", group.getParent());
+		final var user = (UserOrg) data.get(CacheDataType.USER).get("u");
+		Assertions.assertEquals("F", user.getFirstName());
+		Assertions.assertEquals("L", user.getLastName());
+		Assertions.assertEquals("company", user.getCompany());
+		Assertions.assertEquals("uid=u,ou=company", user.getDn());
+		Assertions.assertEquals("D", user.getDepartment());
+		Assertions.assertEquals("L1", user.getLocalId());
+		Assertions.assertEquals(List.of("u@sample.com"), user.getMails());
+		Assertions.assertEquals(List.of("group"), new ArrayList<>(user.getGroups()));
+		Assertions.assertEquals(LOCKED, user.getLocked());
+		Assertions.assertEquals("admin", user.getLockedBy());
+		Assertions.assertEquals("old-company", user.getIsolated());
+		Assertions.assertEquals(Map.of("foo", "bar"), user.getCustomAttributes());
+	}
+
+	@Test
+	void writeAndReadNulls() {
+		final var data = newData();
+		final var user = (UserOrg) data.get(CacheDataType.USER).get("u");
+		user.setLocked(null);
+		user.setLockedBy(null);
+		user.setIsolated(null);
+		user.setCustomAttributes(null);
+		store.write(data, now);
+
+		final var restored = (UserOrg) store.read(now).get(CacheDataType.USER).get("u");
+		Assertions.assertNull(restored.getLocked());
+		Assertions.assertNull(restored.getLockedBy());
+		Assertions.assertNull(restored.getIsolated());
+		Assertions.assertNull(restored.getCustomAttributes());
+	}
+
+	@Test
+	void readOlder() {
+		store.write(newData(), now);
+		Assertions.assertNull(store.read(now + 1));
+	}
+
+	@Test
+	void readTooOld() {
+		store.write(newData(), now - Duration.ofMinutes(MemCacheSnapshotStore.DEFAULT_SNAPSHOT_MAX_AGE + 1L).toMillis());
+		Assertions.assertNull(store.read(0));
+	}
+
+	@Test
+	void writeFailed() throws IOException {
+		final var data = newData();
+		data.put(CacheDataType.USER, null);
+		store.write(data, now);
+
+		// Neither the snapshot nor the incomplete file remain
+		Assertions.assertFalse(Files.exists(file));
+		try (var files = Files.list(tmp)) {
+			Assertions.assertEquals(0, files.count());
+		}
+	}
+
+	@Test
+	void readMissing() {
+		Assertions.assertNull(store.read(0));
+	}
+
+	@Test
+	void readInvalid() throws IOException {
+		Files.writeString(file, "invalid-content");
+		Assertions.assertNull(store.read(0));
+	}
+
+	@Test
+	void disabled() {
+		store.setConfiguration(Mockito.mock(ConfigurationResource.class));
+		store.write(newData(), now);
+		Assertions.assertFalse(Files.exists(file));
+		Assertions.assertNull(store.read(0));
+	}
+}
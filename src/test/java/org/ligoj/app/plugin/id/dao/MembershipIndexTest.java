@@ -0,0 +1,185 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.id.dao;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.ligoj.app.iam.GroupOrg;
+import org.ligoj.app.iam.UserOrg;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+
+/**
+ * Test class of {@link MembershipIndex}
+ */
+class MembershipIndexTest {
+
+	/**
+	 * Minimal heap size of an entry of a {@link HashSet}: the node and its table slot.
+	 */
+	private static final int HASH_SET_ENTRY = 36;
+
+	private final Map<String, UserOrg> users = new HashMap<>();
+
+	private final Map<String, GroupOrg> groups = new HashMap<>();
+
+	private void newDirectory(final int nbUsers, final int nbGroups, final int groupsPerUser) {
+		for (var g = 0; g < nbGroups; g++) {
+			final var group = new GroupOrg("cn=g" + g, "g" + g, new HashSet<>());
+			groups.put(group.getId(), group);
+		}
+		for (var u = 0; u < nbUsers; u++) {
+			final var user = new UserOrg();
+			user.setId("u" + u);
+			user.setGroups(new ArrayList<>());
+			users.put(user.getId(), user);
+			for (var g = 0; g < groupsPerUser; g++) {
+				final var group = groups.get("g" + ((u + g) % nbGroups));
+				user.getGroups().add(group.getId());
+				group.getMembers().add(user.getId());
+			}
+		}
+	}
+
+	@Test
+	void compact() {
+		newDirectory(10, 3, 2);
+		final var expected = new HashSet<>(users.get("u0").getGroups());
+		final var index = MembershipIndex.compact(users, groups);
+
+		Assertions.assertEquals(expected, users.get("u0").getGroups());
+		Assertions.assertEquals(2, users.get("u0").getGroups().size());
+		Assertions.assertTrue(groups.get("g0").getMembers().contains("u0"));
+		Assertions.assertFalse(groups.get("g0").getMembers().contains("any"));
+
+		// Updates
+		final var members = groups.get("g2").getMembers();
+		final var iterator = members.iterator();
+		index.add(users.get("u0"), groups.get("g2"));
+		Assertions.assertTrue(users.get("u0").getGroups().contains("g2"));
+		Assertions.assertTrue(groups.get("g2").getMembers().contains("u0"));
+		index.remove(users.get("u0"), groups.get("g0"));
+		Assertions.assertFalse(users.get("u0").getGroups().contains("g0"));
+		Assertions.assertFalse(groups.get("g0").getMembers().contains("u0"));
+
+		// A running iteration is not impacted
+		var count = 0;
+		while (iterator.hasNext()) {
+			Assertions.assertNotEquals("u0", iterator.next());
+			count++;
+		}
+		Assertions.assertEquals(6, count);
+		Assertions.assertThrows(NoSuchElementException.class, iterator::next);
+
+		// New user and group
+		final var user = new UserOrg();
+		user.setId("new-user");
+		user.setGroups(new ArrayList<>(List.of("g1")));
+		final var group = new GroupOrg("cn=new-group", "new-group", new HashSet<>());
+		index.add(user, group);
+		Assertions.assertEquals(Set.of("g1", "new-group"), user.getGroups());
+		Assertions.assertEquals(Set.of("new-user"), group.getMembers());
+		Assertions.assertTrue(groups.get("g1").getMembers().contains("new-user"));
+	}
+
+	@Test
+	void updateView() {
+		newDirectory(10, 3, 2);
+		MembershipIndex.compact(users, groups);
+		final var members = groups.get("g2").getMembers();
+		final var frozen = MembershipIndex.freeze(members);
+		Assertions.assertFalse(members.contains("u0"));
+
+		// Both sides are updated
+		Assertions.assertTrue(members.add("u0"));
+		Assertions.assertFalse(members.add("u0"));
+		Assertions.assertTrue(users.get("u0").getGroups().contains("g2"));
+		Assertions.assertTrue(users.get("u0").getGroups().remove("g0"));
+		Assertions.assertFalse(users.get("u0").getGroups().remove("g0"));
+		Assertions.assertFalse(users.get("u0").getGroups().remove("any"));
+		Assertions.assertFalse(groups.get("g0").getMembers().contains("u0"));
+
+		// New name from a view
+		Assertions.assertTrue(members.add("new-user"));
+		Assertions.assertTrue(members.contains("new-user"));
+
+		// The frozen memberships are left untouched
+		Assertions.assertFalse(frozen.contains("u0"));
+		Assertions.assertEquals(6, frozen.size());
+		Assertions.assertEquals(8, members.size());
+		final var list = new ArrayList<String>();
+		Assertions.assertSame(list, MembershipIndex.freeze(list));
+	}
+
+	@Test
+	void removeFromView() {
+		newDirectory(10, 3, 2);
+		MembershipIndex.compact(users, groups);
+		final var members = groups.get("g2").getMembers();
+
+		// Remove through the iterator, both sides are updated
+		Assertions.assertTrue(members.removeIf("u1"::equals));
+		Assertions.assertFalse(members.contains("u1"));
+		Assertions.assertFalse(users.get("u1").getGroups().contains("g2"));
+		Assertions.assertThrows(IllegalStateException.class, members.iterator()::remove);
+
+		Assertions.assertTrue(members.retainAll(Set.of("u2", "u4")));
+		Assertions.assertEquals(Set.of("u2", "u4"), members);
+		Assertions.assertFalse(users.get("u5").getGroups().contains("g2"));
+
+		// Collection larger than the view
+		Assertions.assertTrue(members.removeAll(List.of("u2", "any1", "any2", "any3")));
+		Assertions.assertEquals(Set.of("u4"), members);
+		Assertions.assertFalse(users.get("u2").getGroups().contains("g2"));
+
+		users.get("u0").getGroups().clear();
+		Assertions.assertTrue(users.get("u0").getGroups().isEmpty());
+		Assertions.assertFalse(groups.get("g0").getMembers().contains("u0"));
+		Assertions.assertFalse(groups.get("g1").getMembers().contains("u0"));
+
+		members.clear();
+		Assertions.assertTrue(members.isEmpty());
+		Assertions.assertEquals(Set.of("g1"), users.get("u4").getGroups());
+	}
+
+	@Test
+	void footprint() {
+		newDirectory(10000, 200, 20);
+		final var memberships = 10000L * 20;
+		final var index = MembershipIndex.compact(users, groups);
+
+		// Both sides of each membership are stored, compared to the minimal size of the same entries in hash sets
+		final var hashSetFootprint = 2 * memberships * HASH_SET_ENTRY;
+		Assertions.assertTrue(index.estimateFootprint() * 4 < hashSetFootprint,
+				() -> index.estimateFootprint() + " bytes vs " + hashSetFootprint + " bytes");
+		Assertions.assertEquals(20, users.get("u5").getGroups().size());
+		Assertions.assertEquals(1000, groups.get("g5").getMembers().size());
+	}
+
+	@Test
+	void concurrentRead() throws Exception {
+		newDirectory(100, 10, 3);
+		final var index = MembershipIndex.compact(users, groups);
+		final var group = groups.get("g0");
+		try (var executor = Executors.newSingleThreadExecutor()) {
+			final var writer = executor.submit(() -> {
+				for (var u = 0; u < 5000; u++) {
+					final var user = new UserOrg();
+					user.setId("new" + u);
+					user.setGroups(new ArrayList<>());
+					index.add(user, group);
+				}
+			});
+
+			// Each read sees a consistent state
+			while (!writer.isDone()) {
+				final var all = new ArrayList<>(group.getMembers());
+				Assertions.assertTrue(all.stream().allMatch(Objects::nonNull));
+			}
+			writer.get();
+		}
+		Assertions.assertEquals(5030, group.getMembers().size());
+	}
+}
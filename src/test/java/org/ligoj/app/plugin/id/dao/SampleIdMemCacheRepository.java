@@ -2,7 +2,10 @@ package org.ligoj.app.plugin.id.dao;
 
 import java.util.Map;
 
+import org.ligoj.app.iam.CompanyOrg;
+import org.ligoj.app.iam.GroupOrg;
 import org.ligoj.app.iam.ResourceOrg;
+import org.ligoj.app.iam.UserOrg;
 import org.springframework.stereotype.Component;
 
 /**
@@ -16,4 +19,11 @@ public class SampleIdMemCacheRepository extends AbstractMemCacheRepository {
 		return refreshData();
 	}
 
+	@SuppressWarnings("unchecked")
+	@Override
+	protected void onRefresh(final Map<CacheDataType, Map<String, ? extends ResourceOrg>> data) {
+		cache.reset((Map<String, CompanyOrg>) data.get(CacheDataType.COMPANY), (Map<String, GroupOrg>) data.get(CacheDataType.GROUP),
+				(Map<String, UserOrg>) data.get(CacheDataType.USER));
+	}
+
 }
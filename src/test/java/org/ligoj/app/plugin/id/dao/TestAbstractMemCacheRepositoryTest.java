@@ -8,12 +8,18 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.ligoj.app.iam.*;
 import org.ligoj.app.plugin.id.dao.AbstractMemCacheRepository.CacheDataType;
+import org.ligoj.app.plugin.id.model.LastNameComparator;
 import org.ligoj.bootstrap.AbstractDataGeneratorTest;
 import org.ligoj.bootstrap.core.INamableBean;
 import org.ligoj.bootstrap.core.SpringUtils;
 import org.springframework.context.ApplicationContext;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
 
 import static org.mockito.Mockito.*;
 
@@ -110,6 +116,47 @@ class TestAbstractMemCacheRepositoryTest extends AbstractDataGeneratorTest {
 		Assertions.assertEquals("f", user2.getFirstName());
 		Assertions.assertEquals("l", user2.getLastName());
 		Assertions.assertEquals("company", user2.getCompany());
+		verify(repository.cache).reset(companies, groups, users);
+	}
+
+	@Test
+	void getLdapDataNoReset() {
+		final var other = new AbstractMemCacheRepository() {
+			@Override
+			public Map<CacheDataType, Map<String, ? extends ResourceOrg>> getData() {
+				return refreshData();
+			}
+		};
+		other.setIamProvider(repository.iamProvider);
+		other.setCache(mock(IdCacheDao.class));
+
+		// The database cache is only reset by the implementations
+		Assertions.assertSame(user, other.getData().get(CacheDataType.USER).get("u"));
+		verify(other.cache, never()).reset(any(), any(), any());
+	}
+
+	@Test
+	void getLdapDataFailed() {
+		when(repository.getGroup().findAllNoCache()).thenThrow(new IllegalStateException("group-failure"));
+		Assertions.assertEquals("group-failure", Assertions.assertThrows(IllegalStateException.class, repository::getData).getMessage());
+		verify(repository.getUser(), never()).findAllNoCache(any());
+	}
+
+	@Test
+	void getLdapDataConcurrent() {
+		repository.setConcurrentFetch(true);
+		final var ldapData = repository.getData();
+		Assertions.assertSame(companies.get("company"), ldapData.get(CacheDataType.COMPANY).get("company"));
+		Assertions.assertSame(groupLdap, ldapData.get(CacheDataType.GROUP).get("group"));
+		Assertions.assertEquals("f", ((UserOrg) ldapData.get(CacheDataType.USER).get("u2")).getFirstName());
+	}
+
+	@Test
+	void getLdapDataConcurrentFailed() {
+		repository.setConcurrentFetch(true);
+		when(repository.getGroup().findAllNoCache()).thenThrow(new IllegalStateException("group-failure"));
+		Assertions.assertEquals("group-failure", Assertions.assertThrows(IllegalStateException.class, repository::getData).getMessage());
+		verify(repository.getUser(), never()).findAllNoCache(any());
 	}
 
 	@Test
@@ -123,6 +170,305 @@ class TestAbstractMemCacheRepositoryTest extends AbstractDataGeneratorTest {
 		Assertions.assertTrue(groups.get("group2").getMembers().contains("u"));
 	}
 
+	@Test
+	void getLdapDataSingleFlight() throws Exception {
+		final var started = new CountDownLatch(1);
+		final var release = new CountDownLatch(1);
+		when(repository.getGroup().findAllNoCache()).thenAnswer(i -> {
+			started.countDown();
+			release.await();
+			return groups;
+		});
+		try (var executor = Executors.newFixedThreadPool(2)) {
+			final var first = executor.submit(repository::getData);
+			started.await();
+			final var second = executor.submit(repository::getData);
+			while (repository.getCoalescedRefreshes() == 0) {
+				Thread.sleep(10);
+			}
+			release.countDown();
+			Assertions.assertSame(first.get(), second.get());
+		}
+		verify(repository.getGroup(), times(1)).findAllNoCache();
+		Assertions.assertEquals(1, repository.getCoalescedRefreshes());
+
+		// The database cache is reset once for both refreshes
+		verify(repository.cache, times(1)).reset(companies, groups, users);
+	}
+
+	@Test
+	void getDataRestored() {
+		final var restoredUser = new UserOrg();
+		restoredUser.setId("old");
+		restoredUser.setCompany("company");
+		restoredUser.setGroups(new ArrayList<>());
+		final var restoredUsers = new HashMap<String, UserOrg>();
+		restoredUsers.put("old", restoredUser);
+		final Map<CacheDataType, Map<String, ? extends ResourceOrg>> restored = new EnumMap<>(CacheDataType.class);
+		restored.put(CacheDataType.COMPANY, new HashMap<>(companies));
+		restored.put(CacheDataType.GROUP, new HashMap<String, GroupOrg>());
+		restored.put(CacheDataType.USER, restoredUsers);
+		final var store = mock(MemCacheSnapshotStore.class);
+		when(store.read(anyLong())).thenReturn(restored);
+		repository.setSnapshotStore(store);
+		final var release = new CountDownLatch(1);
+		when(repository.getGroup().findAllNoCache()).thenAnswer(i -> {
+			release.await();
+			return groups;
+		});
+
+		// The restored data are served immediately
+		Assertions.assertSame(restored, repository.getData());
+		Assertions.assertEquals(Set.of("old"), repository.getSnapshot().getUsers().keySet());
+
+		// The restored maps are reconciled in background
+		release.countDown();
+		verify(repository.cache, timeout(5000)).reset(any(), any(), any());
+		verify(store, timeout(5000)).write(same(restored), anyLong());
+		Assertions.assertEquals(Set.of("u", "u2"), restoredUsers.keySet());
+		Assertions.assertEquals(Set.of("u", "u2"), repository.getSnapshot(restoredUsers).getUsers().keySet());
+	}
+
+	@Test
+	void compactMemberships() {
+		repository.setCompactMemberships(true);
+		repository.getData();
+		Assertions.assertEquals(Set.of("group"), user.getGroups());
+
+		repository.addUserToGroup(user, groupLdap2);
+		Assertions.assertEquals(Set.of("group", "group2"), user.getGroups());
+		Assertions.assertTrue(groupLdap2.getMembers().contains("u"));
+
+		repository.removeUserFromGroup(user, groupLdap);
+		Assertions.assertEquals(Set.of("group2"), user.getGroups());
+		Assertions.assertTrue(groupLdap.getMembers().isEmpty());
+
+		repository.empty(groupLdap2, users);
+		Assertions.assertTrue(user.getGroups().isEmpty());
+		Assertions.assertTrue(groupLdap2.getMembers().isEmpty());
+	}
+
+	@Test
+	void memberCounts() {
+		Assertions.assertNull(repository.getMemberCounts());
+		repository.getData();
+		final var counts = repository.getMemberCounts();
+		Assertions.assertTrue(counts.isIndexing(users));
+		Assertions.assertEquals(Map.of("company", 1), counts.getCounts("group"));
+		Assertions.assertEquals(Map.of(), counts.getCounts("group2"));
+
+		// Membership updates
+		repository.addUserToGroup(user, groupLdap2);
+		repository.addUserToGroup(users.get("u2"), groupLdap2);
+		Assertions.assertEquals(2, counts.count("group2", Set.of("company")));
+		Assertions.assertEquals(0, counts.count("group2", Set.of("other")));
+		repository.removeUserFromGroup(user, groupLdap2);
+		Assertions.assertEquals(Map.of("company", 1), counts.getCounts("group2"));
+
+		// Company move
+		Assertions.assertEquals(2, counts.getCount("company"));
+		user.setCompany("other");
+		repository.update(user);
+		Assertions.assertEquals(Map.of("other", 1), counts.getCounts("group"));
+		Assertions.assertEquals(1, counts.getCount("company"));
+		Assertions.assertEquals(1, counts.getCount("other"));
+
+		// User creation and deletion
+		final var newUser = new UserOrg();
+		newUser.setId("u3");
+		newUser.setCompany("other");
+		repository.create(newUser);
+		Assertions.assertEquals(2, counts.getCount("other"));
+		repository.delete(newUser);
+		Assertions.assertEquals(1, counts.getCount("other"));
+		Assertions.assertEquals(0, counts.getCount("any"));
+
+		repository.empty(groupLdap2, users);
+		Assertions.assertEquals(Map.of(), counts.getCounts("group2"));
+	}
+
+	@Test
+	void userSearch() {
+		Assertions.assertNull(repository.getUserSearch());
+		repository.getData();
+		final var search = repository.getUserSearch();
+		Assertions.assertEquals(List.of("u"), search.find("MAIL"));
+
+		// User creation, update and deletion
+		final var newUser = new UserOrg();
+		newUser.setId("u3");
+		newUser.setFirstName("Jane");
+		newUser.setLastName("Doe");
+		repository.create(newUser);
+		Assertions.assertEquals(List.of("u3"), search.find("jan"));
+		newUser.setFirstName("John");
+		repository.update(newUser);
+		Assertions.assertEquals(List.of(), search.find("jan"));
+		Assertions.assertEquals(List.of("u3"), search.find("john"));
+		repository.delete(newUser);
+		Assertions.assertEquals(List.of(), search.find("john"));
+	}
+
+	@Test
+	void getSnapshot() {
+		final var snapshot = repository.getSnapshot();
+		Assertions.assertSame(snapshot, repository.getSnapshot());
+		Assertions.assertNotSame(user, snapshot.getUsers().get("u"));
+		Assertions.assertEquals("f", snapshot.getUsers().get("u").getFirstName());
+		Assertions.assertNotSame(groupLdap, snapshot.getGroups().get("group"));
+		Assertions.assertEquals("dn", snapshot.getGroups().get("group").getDn());
+		Assertions.assertNotSame(companies.get("company"), snapshot.getCompanies().get("company"));
+		Assertions.assertEquals("Company", snapshot.getCompanies().get("company").getName());
+		Assertions.assertThrows(UnsupportedOperationException.class, () -> snapshot.getUsers().remove("u"));
+
+		repository.addUserToGroup(user, groupLdap2);
+
+		// The previous snapshot is left untouched
+		Assertions.assertEquals(2, user.getGroups().size());
+		Assertions.assertEquals(1, snapshot.getUsers().get("u").getGroups().size());
+		final var newSnapshot = repository.getSnapshot();
+		Assertions.assertNotSame(snapshot, newSnapshot);
+		Assertions.assertTrue(newSnapshot.getVersion() > snapshot.getVersion());
+		Assertions.assertEquals(2, newSnapshot.getUsers().get("u").getGroups().size());
+
+		// An updated user is published as a new copy
+		user.setFirstName("F");
+		Assertions.assertEquals("f", newSnapshot.getUsers().get("u").getFirstName());
+		repository.update(user);
+		Assertions.assertEquals("F", repository.getSnapshot().getUsers().get("u").getFirstName());
+		Assertions.assertEquals("f", newSnapshot.getUsers().get("u").getFirstName());
+
+		// Removals
+		repository.delete(users.get("u2"));
+		Assertions.assertEquals(Set.of("u"), repository.getSnapshot().getUsers().keySet());
+		Assertions.assertEquals(2, newSnapshot.getUsers().size());
+	}
+
+	@Test
+	void getSnapshotGroups() {
+		final var snapshot = repository.getSnapshot();
+		repository.addUserToGroup(users.get("u2"), groupLdap);
+		repository.addGroupToGroup(groupLdap2, groupLdap);
+
+		// The previous snapshot is left untouched
+		final var group = snapshot.getGroups().get("group");
+		Assertions.assertEquals(Set.of("u"), Set.copyOf(group.getMembers()));
+		Assertions.assertTrue(group.getSubGroups().isEmpty());
+		Assertions.assertNull(snapshot.getGroups().get("group2").getParent());
+		Assertions.assertEquals(List.of(), snapshot.getGroupTree().getDescendants("group"));
+
+		// The new snapshot sees the changes
+		final var newSnapshot = repository.getSnapshot();
+		Assertions.assertEquals(Set.of("u", "u2"), Set.copyOf(newSnapshot.getGroups().get("group").getMembers()));
+		Assertions.assertEquals(Set.of("group2"), Set.copyOf(newSnapshot.getGroups().get("group").getSubGroups()));
+		Assertions.assertEquals("group", newSnapshot.getGroups().get("group2").getParent());
+		Assertions.assertEquals(List.of("group2"), newSnapshot.getGroupTree().getDescendants("group"));
+	}
+
+	@Test
+	void getBuiltSnapshot() {
+		Assertions.assertNull(repository.getBuiltSnapshot());
+		repository.getData();
+		Assertions.assertNull(repository.getBuiltSnapshot());
+		final var snapshot = repository.getSnapshot();
+		Assertions.assertSame(snapshot, repository.getBuiltSnapshot());
+
+		// A published change is not built by this call
+		repository.update(user);
+		Assertions.assertNull(repository.getBuiltSnapshot());
+	}
+
+	@Test
+	void getSnapshotUsers() {
+		Assertions.assertNull(repository.getSnapshot(users));
+		repository.getData();
+		Assertions.assertSame(repository.getSnapshot(), repository.getSnapshot(users));
+		Assertions.assertNull(repository.getSnapshot(new HashMap<>(users)));
+	}
+
+	@Test
+	void findAll() {
+		users.get("u2").setLastName("a");
+		users.get("u2").setMails(List.of("other"));
+		final var snapshot = repository.getSnapshot();
+		final var all = Set.of("company");
+
+		// Ordering
+		Assertions.assertEquals(List.of("u", "u2"), toIds(snapshot.findAll(null, all, null, null)));
+		Assertions.assertEquals(List.of("u2", "u"), toIds(snapshot.findAll(null, all, null, PageRequest.of(0, 10, Sort.by("lastName")))));
+		Assertions.assertEquals(List.of("u2", "u"), toIds(snapshot.findAll(null, all, null, PageRequest.of(0, 10, Sort.by(Sort.Direction.DESC, "id")))));
+		Assertions.assertEquals(List.of("u", "u2"), toIds(snapshot.findAll(null, all, null, PageRequest.of(0, 10, Sort.by(Sort.Direction.DESC, "lastName")))));
+		Assertions.assertEquals(List.of("u", "u2"), toIds(snapshot.findAll(null, all, null, PageRequest.of(0, 10, Sort.by("mail")))));
+		Assertions.assertSame(snapshot.getSortedUsers(new LastNameComparator()), snapshot.getSortedUsers(new LastNameComparator()));
+		Assertions.assertEquals(List.of("u"), toIds(snapshot.findAll(List.of(groupLdap, groupLdap2), all, null, PageRequest.of(0, 10, Sort.by("lastName")))));
+
+		// Filters
+		Assertions.assertEquals(List.of("u"), toIds(snapshot.findAll(List.of(groupLdap), all, null, null)));
+		Assertions.assertEquals(List.of(), toIds(snapshot.findAll(List.of(groupLdap2), all, null, null)));
+		Assertions.assertEquals(List.of(), toIds(snapshot.findAll(null, Set.of("other"), null, null)));
+		Assertions.assertEquals(List.of("u2"), toIds(snapshot.findAll(null, all, "OTH", null)));
+
+		// Pagination
+		final var page = snapshot.findAll(null, all, null, PageRequest.of(1, 1, Sort.by("id")));
+		Assertions.assertEquals(List.of("u2"), toIds(page));
+		Assertions.assertEquals(2, page.getTotalElements());
+		Assertions.assertEquals(List.of(), toIds(snapshot.findAll(null, all, null, PageRequest.of(2, 1))));
+	}
+
+	@Test
+	void findAllIndexed() {
+		users.get("u2").setMails(List.of("mail2"));
+		final var snapshot = repository.getSnapshot();
+		final var all = Set.of("company");
+		Assertions.assertEquals(List.of("u", "u2"), toIds(snapshot.findAll(null, all, "MAIL", null)));
+		Assertions.assertEquals(List.of("u2"), toIds(snapshot.findAll(null, all, "mail2", null)));
+		Assertions.assertEquals(List.of("u"), toIds(snapshot.findAll(List.of(groupLdap), all, "mail", null)));
+		Assertions.assertEquals(List.of(), toIds(snapshot.findAll(List.of(groupLdap2), all, "mail", null)));
+		Assertions.assertEquals(List.of(), toIds(snapshot.findAll(null, all, "any", null)));
+
+		// The previous snapshot is not served by the updated index
+		repository.delete(users.get("u2"));
+		Assertions.assertEquals(List.of("u", "u2"), toIds(snapshot.findAll(null, all, "mail", null)));
+		Assertions.assertEquals(List.of("u"), toIds(repository.getSnapshot().findAll(null, all, "mail", null)));
+		Assertions.assertEquals(List.of(), toIds(repository.getSnapshot().findAll(null, all, "mail2", null)));
+	}
+
+	private List<String> toIds(final Page<UserOrg> page) {
+		return page.getContent().stream().map(UserOrg::getId).toList();
+	}
+
+	@Test
+	void getSortedUsers() {
+		users.get("u2").setLastName("a");
+		final var snapshot = repository.getSnapshot();
+		final var sorted = snapshot.getSortedUsers(new LastNameComparator());
+		Assertions.assertEquals(List.of("u2", "u"), sorted.stream().map(UserOrg::getId).toList());
+		Assertions.assertSame(sorted, snapshot.getSortedUsers(new LastNameComparator()));
+
+		// A published change builds a new order
+		user.setLastName("0");
+		repository.update(user);
+		Assertions.assertEquals(List.of("u", "u2"),
+				repository.getSnapshot().getSortedUsers(new LastNameComparator()).stream().map(UserOrg::getId).toList());
+	}
+
+	@Test
+	void getGroupTree() {
+		final var snapshot = repository.getSnapshot();
+		Assertions.assertTrue(snapshot.isSnapshotOf(groups));
+		Assertions.assertTrue(snapshot.isSnapshotOf(companies));
+		Assertions.assertFalse(snapshot.isSnapshotOf(new HashMap<>(groups)));
+		Assertions.assertEquals(List.of(), snapshot.getGroupTree().getAncestors("group"));
+		Assertions.assertSame(snapshot.getGroupTree(), snapshot.getGroupTree());
+		Assertions.assertEquals(List.of(), snapshot.getCompanyTree().getAncestors("company"));
+
+		// A published change builds a new tree
+		repository.addGroupToGroup(groupLdap, groupLdap2);
+		final var tree = repository.getSnapshot().getGroupTree();
+		Assertions.assertEquals(List.of("group2"), tree.getAncestors("group"));
+		Assertions.assertEquals(List.of("group"), tree.getDescendants("group2"));
+	}
+
 	@Test
 	void removeUserFromGroup() {
 		Assertions.assertEquals(1, user.getGroups().size());
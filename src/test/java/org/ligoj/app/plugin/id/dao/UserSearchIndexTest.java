@@ -0,0 +1,112 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.id.dao;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.ligoj.app.iam.UserOrg;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Test class of {@link UserSearchIndex}
+ */
+class UserSearchIndexTest {
+
+	private UserOrg newUser(final String id, final String firstName, final String lastName, final String... mails) {
+		final var user = new UserOrg();
+		user.setId(id);
+		user.setFirstName(firstName);
+		user.setLastName(lastName);
+		user.setMails(new ArrayList<>(List.of(mails)));
+		return user;
+	}
+
+	@Test
+	void find() {
+		final var jdoe = newUser("jdoe5", "John", "Doe", "john.doe@sample.com");
+		final var fdaugan = newUser("fdaugan", "Fabrice", "Daugan", "fabrice.daugan@ligoj.org");
+		final var mmartin = newUser("mmartin", "Marc", "Martin");
+		final var index = UserSearchIndex.of(List.of(jdoe, fdaugan, mmartin));
+
+		Assertions.assertEquals(List.of("jdoe5"), index.find("JOHN"));
+		Assertions.assertEquals(List.of("jdoe5"), index.find("doe5"));
+		Assertions.assertEquals(List.of("fdaugan"), index.find("ligoj.org"));
+		Assertions.assertEquals(List.of("mmartin"), index.find("mart"));
+		Assertions.assertEquals(List.of(), index.find("any"));
+
+		// All grams are present, but not in the same value: the candidate is rejected by the check
+		Assertions.assertEquals(List.of("jdoe5"), index.find("john.doe5"));
+		Assertions.assertFalse(UserSearchIndex.matches(jdoe, "john.doe5"));
+
+		// Too short criteria
+		Assertions.assertNull(index.find("jo"));
+		Assertions.assertNull(index.find(null));
+	}
+
+	@Test
+	void update() {
+		final var jdoe = newUser("jdoe5", "John", "Doe");
+		final var index = UserSearchIndex.of(List.of(jdoe));
+
+		final var fdaugan = newUser("fdaugan", "Fabrice", "Daugan");
+		index.update(fdaugan);
+		Assertions.assertEquals(List.of("fdaugan"), index.find("fab"));
+		Assertions.assertEquals(1, index.getVersion());
+
+		jdoe.setFirstName("Jane");
+		index.update(jdoe);
+		Assertions.assertEquals(List.of(), index.find("john"));
+		Assertions.assertEquals(List.of("jdoe5"), index.find("jane"));
+
+		index.delete(jdoe);
+		index.delete(jdoe);
+		Assertions.assertEquals(4, index.getVersion());
+		Assertions.assertEquals(List.of(), index.find("jane"));
+		Assertions.assertEquals(List.of("fdaugan"), index.find("daugan"));
+
+		// Growing the identifiers
+		for (var i = 0; i < 20; i++) {
+			index.update(newUser("user" + i, "First", "Last"));
+		}
+		Assertions.assertEquals(20, index.find("first").size());
+		Assertions.assertEquals(List.of("user19"), index.find("user19"));
+	}
+
+	@Test
+	void matches() {
+		final var user = newUser("jdoe5", null, "Doe");
+		user.setMails(null);
+		Assertions.assertTrue(UserSearchIndex.matches(user, "DOE"));
+		Assertions.assertFalse(UserSearchIndex.matches(user, "john"));
+	}
+
+	@Test
+	void findFolded() {
+		// Same case folding for the trigrams and the check
+		final var user = newUser("u1", "\u0130STANBUL", "Doe");
+		final var index = UserSearchIndex.of(List.of(user));
+		for (final var criteria : List.of("\u0130st", "ISTANBUL", "stanbul")) {
+			Assertions.assertEquals(UserSearchIndex.matches(user, criteria), index.find(criteria).contains("u1"), criteria);
+		}
+	}
+
+	@Test
+	void findSameAsScan() {
+		final var users = new ArrayList<UserOrg>();
+		for (var i = 0; i < 2000; i++) {
+			users.add(newUser("user" + i, "First" + (i % 37), "Last" + (i % 101), "user" + i + "@sample" + (i % 7) + ".com"));
+		}
+		final var index = UserSearchIndex.of(users);
+		final var byId = users.stream().collect(Collectors.toMap(UserOrg::getId, Function.identity()));
+		for (final var criteria : List.of("user12", "first3", "last10", "sample3", "r19", "@sample")) {
+			Assertions.assertEquals(users.stream().filter(u -> UserSearchIndex.matches(u, criteria)).toList(),
+					index.find(criteria).stream().map(byId::get).filter(u -> UserSearchIndex.matches(u, criteria)).toList(),
+					criteria);
+		}
+	}
+}
@@ -3,6 +3,8 @@
  */
 package org.ligoj.app.plugin.id.model;
 
+import java.util.List;
+
 import org.apache.commons.lang3.ObjectUtils;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
@@ -44,4 +46,33 @@ class FirstNameComparatorTest {
 		Assertions.assertEquals(-2, new FirstNameComparator().compare(o1, o2));
 	}
 
+	@Test
+	void sort() {
+		final var users = List.of(newSimpleUser("b", "l1"), newSimpleUser("A", "l2"), newSimpleUser(null, "l3"),
+				newSimpleUser("a", "l0"), newSimpleUser("\u00e9", "l4"), newSimpleUser("Z", "l5"), newSimpleUser("_", "l6"));
+		final var comparator = new FirstNameComparator();
+		Assertions.assertEquals(users.stream().sorted(comparator).toList(), comparator.sort(users));
+	}
+
+	@Test
+	void sortOverridden() {
+		// A subclass of the previous API, overriding the comparison
+		final var comparator = new AbstractNameComparator() {
+			@Override
+			public int compare(final UserOrg o1, final UserOrg o2) {
+				return compare(o1, o2, UserOrg::getFirstName);
+			}
+		};
+		final var users = List.of(newSimpleUser("b", "l1"), newSimpleUser("A", "l2"), newSimpleUser(null, "l3"));
+		Assertions.assertEquals(users.stream().sorted(new FirstNameComparator()).toList(), comparator.sort(users));
+	}
+
+	@Test
+	void compareNoProvider() {
+		final var comparator = new AbstractNameComparator() {
+			// Nothing overridden
+		};
+		Assertions.assertTrue(comparator.compare(newSimpleUser("b", "l1"), newSimpleUser("a", "l2")) < 0);
+	}
+
 }
@@ -8,6 +8,7 @@ import org.ligoj.app.AbstractAppTest;
 import org.ligoj.app.iam.*;
 import org.ligoj.app.iam.model.*;
 import org.ligoj.app.plugin.id.dao.ContainerScopeRepository;
+import org.ligoj.app.plugin.id.dao.ContainerVisibilityCache;
 import org.ligoj.app.plugin.id.model.ContainerScope;
 import org.springframework.beans.factory.annotation.Autowired;
 
@@ -35,6 +36,7 @@ public abstract class AbstractContainerResourceTest extends AbstractAppTest {
 				new Class<?>[] { DelegateOrg.class, ContainerScope.class, CacheCompany.class, CacheUser.class, CacheGroup.class, CacheMembership.class },
 				StandardCharsets.UTF_8);
 		cacheManager.getCache("container-scopes").clear();
+		cacheManager.getCache(ContainerVisibilityCache.CACHE).clear();
 
 		iamProvider = mock(IamProvider.class);
 		final IamConfiguration configuration = mock(IamConfiguration.class);
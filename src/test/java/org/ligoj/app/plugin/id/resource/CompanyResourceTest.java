@@ -12,7 +12,9 @@ import org.ligoj.app.iam.CompanyOrg;
 import org.ligoj.app.iam.IamProvider;
 import org.ligoj.app.iam.UserOrg;
 import org.ligoj.app.model.ContainerType;
+import org.ligoj.app.plugin.id.dao.AbstractMemCacheRepository;
 import org.ligoj.app.plugin.id.dao.ContainerScopeRepository;
+import org.ligoj.app.plugin.id.dao.MemberCountIndex;
 import org.ligoj.bootstrap.MatcherUtil;
 import org.ligoj.bootstrap.core.validation.ValidationJsonException;
 import org.mockito.ArgumentMatchers;
@@ -26,6 +28,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 /**
@@ -126,6 +129,21 @@ class CompanyResourceTest extends AbstractContainerResourceTest {
 		Assertions.assertEquals("ing-internal", items.stream().iterator().next().getId());
 	}
 
+	@Test
+	void getContainersForAdminRevoked() {
+		initSpringSecurityContext("fdaugan");
+		final var companies = new HashMap<String, CompanyOrg>();
+		companies.put("ing-internal", new CompanyOrg("ou=ing-internal,ou=ing,ou=external,ou=people,dc=sample,dc=com", "ing-internal"));
+		when(companyRepository.findAll()).thenReturn(companies);
+		Assertions.assertEquals(1, resource.getContainersForAdmin().size());
+		resource.getContainersIdForWrite();
+
+		// A revoked delegate is effective immediately
+		em.createQuery("DELETE FROM DelegateOrg").executeUpdate();
+		Assertions.assertEquals(0, resource.getContainersForAdmin().size());
+		Assertions.assertEquals(0, resource.getContainersIdForWrite().size());
+	}
+
 	@Test
 	void getContainersForAdmin() {
 		initSpringSecurityContext("fdaugan");
@@ -216,6 +234,29 @@ class CompanyResourceTest extends AbstractContainerResourceTest {
 		MatcherUtil.assertThrows(Assertions.assertThrows(ValidationJsonException.class, () -> resource.delete("france")), "company", "not-empty-company");
 	}
 
+	@Test
+	void deleteNotEmptySubCompanyMemberCounts() {
+		final var companyOrg1 = new CompanyOrg("ou=france,ou=people,dc=sample,dc=com", "france");
+		final var companyOrg2 = new CompanyOrg("ou=ligoj,ou=france,ou=people,dc=sample,dc=com", "ligoj");
+		final var companies = new HashMap<String, CompanyOrg>();
+		companies.put("france", companyOrg1);
+		companies.put("ligoj", companyOrg2);
+
+		final var users = new HashMap<String, UserOrg>();
+		final var user1 = new UserOrg();
+		user1.setId("user1");
+		user1.setCompany("ligoj");
+		users.put("user1", user1);
+		final var memCache = mock(AbstractMemCacheRepository.class);
+		when(memCache.getMemberCounts()).thenReturn(MemberCountIndex.of(users, Collections.emptyMap()));
+		resource.setMemCache(memCache);
+
+		when(userRepository.findAll()).thenReturn(users);
+		when(companyRepository.findByIdExpected(DEFAULT_USER, "france")).thenReturn(companyOrg1);
+		when(companyRepository.findAll()).thenReturn(companies);
+		MatcherUtil.assertThrows(Assertions.assertThrows(ValidationJsonException.class, () -> resource.delete("france")), "company", "not-empty-company");
+	}
+
 	@Test
 	void createAlreadyExists() {
 		final var scope = containerScopeRepository.findByName("France");
@@ -310,6 +351,36 @@ class CompanyResourceTest extends AbstractContainerResourceTest {
 		Assertions.assertEquals(ContainerType.COMPANY, group2.getContainerType());
 	}
 
+	@Test
+	void findAllMemberCounts() {
+		final var companyOrg1 = new CompanyOrg("ou=ligoj,ou=france,ou=people,dc=sample,dc=com", "ligoj");
+		final var companyOrg2 = new CompanyOrg("ou=ing-internal,ou=ing,ou=external,ou=people,dc=sample,dc=com", "ing-internal");
+		final var users = new HashMap<String, UserOrg>();
+		final var user1 = new UserOrg();
+		user1.setId("user1");
+		user1.setCompany("france");
+		users.put("user1", user1);
+		final var user2 = new UserOrg();
+		user2.setId("user2");
+		user2.setCompany("ing-internal");
+		users.put("user2", user2);
+		final var memCache = mock(AbstractMemCacheRepository.class);
+		when(memCache.getMemberCounts()).thenReturn(MemberCountIndex.of(users, Collections.emptyMap()));
+		resource.setMemCache(memCache);
+
+		when(userRepository.findAll()).thenReturn(users);
+		when(
+						companyRepository.findAll(ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.any()))
+				.thenReturn(new PageImpl<>(Arrays.asList(companyOrg1, companyOrg2)));
+
+		final var groups = resource.findAll(newUriInfoAscSearch("name", "g"));
+		Assertions.assertEquals(2, groups.getRecordsTotal());
+		Assertions.assertEquals(0, groups.getData().getFirst().getCount());
+		Assertions.assertEquals(0, groups.getData().getFirst().getCountVisible());
+		Assertions.assertEquals(1, groups.getData().get(1).getCount());
+		Assertions.assertEquals(0, groups.getData().get(1).getCountVisible());
+	}
+
 	@Test
 	void isUserInternalCompanyExternal() {
 		initSpringSecurityContext("mlavoine");
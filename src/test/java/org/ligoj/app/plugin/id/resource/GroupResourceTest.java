@@ -13,6 +13,9 @@ import org.ligoj.app.iam.GroupOrg;
 import org.ligoj.app.iam.IamProvider;
 import org.ligoj.app.iam.UserOrg;
 import org.ligoj.app.model.ContainerType;
+import org.ligoj.app.plugin.id.dao.AbstractMemCacheRepository;
+import org.ligoj.app.plugin.id.dao.ContainerTree;
+import org.ligoj.app.plugin.id.dao.MemberCountIndex;
 import org.ligoj.bootstrap.MatcherUtil;
 import org.ligoj.bootstrap.core.json.datatable.DataTableAttributes;
 import org.ligoj.bootstrap.core.validation.ValidationJsonException;
@@ -24,6 +27,7 @@ import org.springframework.test.context.junit.jupiter.SpringExtension;
 
 import java.util.*;
 
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 /**
@@ -105,6 +109,44 @@ class GroupResourceTest extends AbstractContainerResourceTest {
 		Assertions.assertNull(group10.getParents());
 	}
 
+	@Test
+	void findAllMemberCounts() {
+		final var groupOrg1 = new GroupOrg("cn=DIG,ou=fonction,ou=groups,dc=sample,dc=com", "DIG", Set.of("user1", "user2"));
+		final var groupsMap = new HashMap<String, GroupOrg>();
+		groupsMap.put("dig", groupOrg1);
+		final var users = new HashMap<String, UserOrg>();
+		final var user1 = new UserOrg();
+		user1.setId("user1");
+		user1.setCompany("france");
+		users.put("user1", user1);
+		final var user2 = new UserOrg();
+		user2.setId("user2");
+		user2.setCompany("ing-internal");
+		users.put("user2", user2);
+		final var companies = new HashMap<String, CompanyOrg>();
+		companies.put("france", new CompanyOrg("ou=france,ou=people,dc=sample,dc=com", "france"));
+		companies.put("ing-internal", new CompanyOrg("ou=ing-internal,ou=ing,ou=external,ou=people,dc=sample,dc=com", "ing-internal"));
+		when(companyRepository.findAll()).thenReturn(companies);
+		when(userRepository.findAll()).thenReturn(users);
+		when(groupRepository.findAll()).thenReturn(groupsMap);
+		when(groupRepository.findAll(ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.any()))
+				.thenReturn(new PageImpl<>(List.of(groupOrg1)));
+		final var expected = resource.findAll(newUriInfoAscSearch("name", "d")).getData().getFirst();
+
+		// Same counts from the in-memory cache counters
+		final var memCache = mock(AbstractMemCacheRepository.class);
+		when(memCache.getMemberCounts()).thenReturn(MemberCountIndex.of(users, groupsMap));
+		resource.setMemCache(memCache);
+		final var group0 = resource.findAll(newUriInfoAscSearch("name", "d")).getData().getFirst();
+		Assertions.assertEquals(2, group0.getCount());
+		Assertions.assertEquals(expected.getCountVisible(), group0.getCountVisible());
+
+		// Counters built from other users are ignored
+		when(memCache.getMemberCounts()).thenReturn(MemberCountIndex.of(new HashMap<>(users), groupsMap));
+		Assertions.assertEquals(expected.getCountVisible(),
+				resource.findAll(newUriInfoAscSearch("name", "d")).getData().getFirst().getCountVisible());
+	}
+
 	@Test
 	void findByNameNoType() {
 		when(groupRepository.findById(DEFAULT_USER, "business solution"))
@@ -351,7 +393,7 @@ class GroupResourceTest extends AbstractContainerResourceTest {
 	void newContainerCountVo() {
 		final var rawContainer = new GroupOrg("dn=no-scope", "name", Collections.emptySet());
 		final var container = new ContainerCountVo();
-		resource.fillContainerCountVo(rawContainer, Collections.emptySet(), Collections.emptySet(), Collections.emptyList(), container, Collections.emptyMap());
+		resource.fillContainerCountVo(rawContainer, Collections.emptySet(), Collections.emptySet(), Collections.emptyList(), container, ContainerTree.of(Collections.emptyMap()));
 		Assertions.assertNull(container.getScope());
 		Assertions.assertNull(container.getParents());
 	}
@@ -365,8 +407,19 @@ class GroupResourceTest extends AbstractContainerResourceTest {
 		container.setParent("direct-parent");
 		parentContainer.setParent("root");
 		final var all = Map.of("direct-parent", parentContainer, "root", rootContainer, "name", container);
-		resource.fillContainerCountVo(container, Collections.emptySet(), Collections.emptySet(), Collections.emptyList(), containerVo, all);
+		resource.fillContainerCountVo(container, Collections.emptySet(), Collections.emptySet(), Collections.emptyList(), containerVo, ContainerTree.of(all));
 		Assertions.assertNull(containerVo.getScope());
 		Assertions.assertEquals(List.of("direct-parent", "root"), containerVo.getParents());
 	}
+
+	@Test
+	void newContainerCountVoWithParentsMap() {
+		final var containerVo = new ContainerCountVo();
+		final var container = new GroupOrg("dn=no-scope", "name", Collections.emptySet());
+		final var rootContainer = new GroupOrg("dn=no-scope", "root", Collections.emptySet());
+		container.setParent("root");
+		final var all = Map.of("root", rootContainer, "name", container);
+		resource.fillContainerCountVo(container, Collections.emptySet(), Collections.emptySet(), Collections.emptyList(), containerVo, all);
+		Assertions.assertEquals(List.of("root"), containerVo.getParents());
+	}
 }
\ No newline at end of file
@@ -95,8 +95,58 @@ class TypeComparatorTest {
 		Assertions.assertEquals("NameB", groups.get(2).getName());
 	}
 
+	@Test
+	void toScope() {
+		final ContainerScope containerType = new ContainerScope();
+		containerType.setDn("ou=External,dc=sample,dc=com");
+		containerType.setName("name1");
+		containerType.setType(ContainerType.GROUP);
+		final var resource = newResource();
+		final var scopes = Collections.singletonList(containerType);
+		final var group = new GroupOrg("cn=NameA,ou=Client1,ou=Project,ou=External,dc=sample,dc=com", "NameA", null);
+		Assertions.assertSame(containerType, resource.toScope(scopes, group));
+		Assertions.assertSame(containerType, resource.toScope(scopes, group));
+		Assertions.assertNull(resource.toScope(scopes, new GroupOrg(null, "NameB", null)));
+
+		// A new scope list is resolved again
+		final ContainerScope containerType2 = new ContainerScope();
+		containerType2.setDn("ou=Project,ou=External,dc=sample,dc=com");
+		containerType2.setName("name2");
+		containerType2.setType(ContainerType.GROUP);
+		Assertions.assertSame(containerType2, resource.toScope(Arrays.asList(containerType2, containerType), group));
+	}
+
+	@Test
+	void toScopeCopy() {
+		final var resource = newResource();
+		final var group = new GroupOrg("cn=NameA,ou=Client1,ou=Project,ou=External,dc=sample,dc=com", "NameA", null);
+		final var scopes = List.of(newScope("ou=Project,ou=External,dc=sample,dc=com"),
+				newScope("ou=External,dc=sample,dc=com"));
+		Assertions.assertSame(scopes.get(0), resource.toScope(scopes, group));
+
+		// A copy of the same scopes, as returned by a cache storing by value, resolves to its own scopes
+		final var copy = List.of(newScope("ou=Project,ou=External,dc=sample,dc=com"),
+				newScope("ou=External,dc=sample,dc=com"));
+		Assertions.assertSame(copy.get(0), resource.toScope(copy, group));
+		Assertions.assertSame(copy.get(1),
+				resource.toScope(copy, new GroupOrg("cn=NameB,ou=External,dc=sample,dc=com", "NameB", null)));
+		Assertions.assertSame(scopes.get(0), resource.toScope(scopes, group));
+	}
+
+	private ContainerScope newScope(final String dn) {
+		final ContainerScope scope = new ContainerScope();
+		scope.setDn(dn);
+		scope.setName(dn);
+		scope.setType(ContainerType.GROUP);
+		return scope;
+	}
+
 	private Comparator<GroupOrg> newComparator(final List<ContainerScope> containerTypes) {
-		return new AbstractContainerResource<GroupOrg, GroupEditionVo, CacheGroup>(ContainerType.GROUP) {
+		return newResource().new TypeComparator(containerTypes);
+	}
+
+	private AbstractContainerResource<GroupOrg, GroupEditionVo, CacheGroup> newResource() {
+		return new AbstractContainerResource<>(ContainerType.GROUP) {
 
 			@Override
 			protected IGroupRepository getRepository() {
@@ -112,6 +162,6 @@ class TypeComparatorTest {
 			protected CacheContainerRepository<CacheGroup> getCacheRepository() {
 				return null;
 			}
-		}.new TypeComparator(containerTypes);
+		};
 	}
 }
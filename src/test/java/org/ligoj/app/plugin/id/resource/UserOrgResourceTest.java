@@ -5,6 +5,7 @@ package org.ligoj.app.plugin.id.resource;
 
 import jakarta.transaction.Transactional;
 import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.core.StreamingOutput;
 import jakarta.ws.rs.core.UriInfo;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.reflect.FieldUtils;
@@ -16,6 +17,7 @@ import org.ligoj.app.AbstractAppTest;
 import org.ligoj.app.iam.*;
 import org.ligoj.app.iam.dao.DelegateOrgRepository;
 import org.ligoj.app.iam.model.*;
+import org.ligoj.app.plugin.id.dao.ContainerVisibilityCache;
 import org.ligoj.app.plugin.id.dao.PasswordResetAuditRepository;
 import org.ligoj.bootstrap.MatcherUtil;
 import org.ligoj.bootstrap.core.json.datatable.DataTableAttributes;
@@ -45,6 +47,7 @@ import org.springframework.test.annotation.Rollback;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.time.Instant;
@@ -77,6 +80,7 @@ class UserOrgResourceTest extends AbstractAppTest {
 	void prepareData() throws IOException {
 		persistEntities("csv", new Class<?>[]{DelegateOrg.class, CacheCompany.class, CacheGroup.class, CacheUser.class,
 				CacheMembership.class}, StandardCharsets.UTF_8);
+		cacheManager.getCache(ContainerVisibilityCache.CACHE).clear();
 		iamProvider = mock(IamProvider.class);
 		final IamConfiguration configuration = mock(IamConfiguration.class);
 		when(iamProvider.getConfiguration()).thenReturn(configuration);
@@ -883,6 +887,53 @@ class UserOrgResourceTest extends AbstractAppTest {
 		findAllByCommon(true, false, null);
 	}
 
+	@Test
+	void exportCsv() throws IOException {
+		final var lines = export(true);
+		Assertions.assertEquals("id;firstName;lastName;company;mails;groups", lines[0]);
+		Assertions.assertEquals("wild-user;\"First;\"\"2\";Doe2;ing;first2.doe2@ing.fr;DIG", lines[1]);
+		Assertions.assertEquals(2, lines.length);
+	}
+
+	@Test
+	void exportCsvFormula() throws IOException {
+		Assertions.assertEquals("wild-user;'=1+2;Doe2;ing;first2.doe2@ing.fr;DIG", export(true, "=1+2")[1]);
+		Assertions.assertEquals("wild-user;'+1;Doe2;ing;first2.doe2@ing.fr;DIG", export(true, "+1")[1]);
+		Assertions.assertEquals("wild-user;'-1;Doe2;ing;first2.doe2@ing.fr;DIG", export(true, "-1")[1]);
+		Assertions.assertEquals("wild-user;\"'@SUM(A1;A2)\";Doe2;ing;first2.doe2@ing.fr;DIG", export(true, "@SUM(A1;A2)")[1]);
+		Assertions.assertEquals("wild-user;a=1;Doe2;ing;first2.doe2@ing.fr;DIG", export(true, "a=1")[1]);
+	}
+
+	@Test
+	void exportJson() throws IOException {
+		final var lines = export(false);
+		Assertions.assertEquals(1, lines.length);
+		Assertions.assertTrue(lines[0].startsWith("{"));
+		Assertions.assertTrue(lines[0].contains("\"id\":\"wild-user\""));
+		Assertions.assertTrue(lines[0].contains("\"name\":\"DIG\""));
+		Assertions.assertFalse(lines[0].contains("dc=sample"));
+	}
+
+	private String[] export(final boolean csv) throws IOException {
+		return export(csv, "First;\"2");
+	}
+
+	private String[] export(final boolean csv, final String firstName) throws IOException {
+		final var user1 = newUser();
+		user1.setFirstName(firstName);
+		when(userRepository.findAll(ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.any(),
+				ArgumentMatchers.any())).thenReturn(new PageImpl<>(List.of(user1)));
+		final var groupOrg1 = new GroupOrg("cn=DIG,ou=fonction,ou=groups,dc=sample,dc=com", "DIG",
+				Collections.singleton("wild-user"));
+		resource.groupResource = mock(GroupResource.class);
+		when(resource.groupResource.getContainers()).thenReturn(Set.of(groupOrg1));
+		when(resource.groupResource.getContainersForWrite()).thenReturn(Set.of(groupOrg1));
+		final var response = csv ? resource.exportCsv(null, null) : resource.exportJson(null, null);
+		final var output = new ByteArrayOutputStream();
+		((StreamingOutput) response.getEntity()).write(output);
+		return output.toString(StandardCharsets.UTF_8).split("\n");
+	}
+
 	@Test
 	void lock() {
 		final var company = new CompanyOrg("ou=ing,ou=france,ou=people,dc=sample,dc=com", "ing");
@@ -0,0 +1,227 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.id.resource.batch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Test of {@link BatchTaskJournal}
+ */
+class BatchTaskJournalTest {
+
+	private BatchTaskStore store;
+
+	private ImportStatus status;
+
+	private BatchTaskJournal journal;
+
+	@BeforeEach
+	void setup() {
+		store = mock(BatchTaskStore.class);
+		when(store.update(ArgumentMatchers.anyInt(), ArgumentMatchers.any(), ArgumentMatchers.anyMap()))
+				.thenReturn(true);
+		status = new ImportStatus();
+		journal = new BatchTaskJournal(store, 1, status);
+	}
+
+	private List<UserImportEntry> newEntries(final int count) {
+		final var entries = new ArrayList<UserImportEntry>();
+		for (var i = 0; i < count; i++) {
+			entries.add(new UserImportEntry());
+		}
+		return entries;
+	}
+
+	@Test
+	void register() {
+		final var first = newEntries(2);
+		final var next = newEntries(3);
+		journal.register(first);
+		journal.register(next);
+		verify(store).append(1, 0, first);
+		verify(store).append(1, 2, next);
+	}
+
+	@Test
+	void registerFailed() {
+		final var entries = newEntries(2);
+		doThrow(new IllegalStateException()).when(store).append(1, 0, entries);
+		journal.register(entries);
+
+		// The lines are still known
+		journal.done(entries.get(1));
+		journal.flush();
+		verify(store).update(ArgumentMatchers.eq(1), ArgumentMatchers.any(), ArgumentMatchers.eq(Map.of(1, entries.get(1))));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	void done() {
+		final var entries = newEntries(250);
+		journal.attach(entries);
+		verify(store, never()).append(ArgumentMatchers.anyInt(), ArgumentMatchers.anyInt(), ArgumentMatchers.any());
+		status.setEntries(250);
+		entries.forEach(e -> {
+			e.setStatus(Boolean.TRUE);
+			status.setDone(status.getDone() + 1);
+			journal.done(e);
+		});
+
+		// Written by batches of 100 entries
+		final var statuses = ArgumentCaptor.forClass(ImportStatus.class);
+		final var updates = ArgumentCaptor.forClass(Map.class);
+		verify(store, times(2)).update(ArgumentMatchers.eq(1), statuses.capture(), updates.capture());
+		Assertions.assertEquals(100, statuses.getAllValues().get(0).getDone());
+		Assertions.assertEquals(200, statuses.getAllValues().get(1).getDone());
+		Assertions.assertEquals(250, statuses.getAllValues().get(1).getEntries());
+
+		// The last entries are written at the end
+		status.setStatus(Boolean.TRUE);
+		journal.flush();
+		verify(store, times(3)).update(ArgumentMatchers.eq(1), statuses.capture(), updates.capture());
+		Assertions.assertEquals(250, statuses.getValue().getDone());
+		Assertions.assertTrue(statuses.getValue().getStatus());
+		Assertions.assertEquals(50, updates.getValue().size());
+		Assertions.assertSame(entries.get(249), updates.getValue().get(249));
+	}
+
+	@Test
+	void flushFailed() {
+		when(store.update(ArgumentMatchers.anyInt(), ArgumentMatchers.any(), ArgumentMatchers.anyMap()))
+				.thenThrow(new IllegalStateException()).thenReturn(true);
+		final var entries = newEntries(2);
+		journal.attach(entries);
+		journal.done(entries.getFirst());
+		Assertions.assertDoesNotThrow(journal::flush);
+
+		// The entries of the failed write are written by the next one
+		journal.done(entries.get(1));
+		journal.flush();
+		verify(store).update(ArgumentMatchers.eq(1), ArgumentMatchers.any(),
+				ArgumentMatchers.eq(Map.of(0, entries.getFirst(), 1, entries.get(1))));
+
+		// Then forgotten
+		journal.flush();
+		verify(store).update(ArgumentMatchers.eq(1), ArgumentMatchers.any(), ArgumentMatchers.eq(Map.of()));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	void doneFailed() {
+		when(store.update(ArgumentMatchers.anyInt(), ArgumentMatchers.any(), ArgumentMatchers.anyMap()))
+				.thenThrow(new IllegalStateException()).thenReturn(true);
+		final var entries = newEntries(200);
+		journal.attach(entries);
+		entries.forEach(journal::done);
+
+		// The kept entries do not trigger a write for each new entry
+		final var updates = ArgumentCaptor.forClass(Map.class);
+		verify(store, times(2)).update(ArgumentMatchers.eq(1), ArgumentMatchers.any(), updates.capture());
+		Assertions.assertEquals(100, updates.getAllValues().get(0).size());
+		Assertions.assertEquals(200, updates.getAllValues().get(1).size());
+	}
+
+	@Test
+	void flushOtherNode() {
+		when(store.update(ArgumentMatchers.anyInt(), ArgumentMatchers.any(), ArgumentMatchers.anyMap()))
+				.thenReturn(false);
+		final var stopped = new AtomicInteger();
+		journal.onLost(stopped::incrementAndGet);
+		Assertions.assertDoesNotThrow(journal::flush);
+		Assertions.assertTrue(journal.isLost());
+		Assertions.assertEquals(1, stopped.get());
+
+		// Stopped once, and immediately when already owned by another node
+		journal.flush();
+		Assertions.assertEquals(1, stopped.get());
+		journal.onLost(stopped::incrementAndGet);
+		Assertions.assertEquals(2, stopped.get());
+	}
+
+	@Test
+	void fullyRead() {
+		when(store.fullyRead(1)).thenReturn(true);
+		journal.register(newEntries(2));
+		journal.fullyRead();
+		verify(store).fullyRead(1);
+		Assertions.assertFalse(journal.isLost());
+	}
+
+	@Test
+	void fullyReadPartial() {
+		final var entries = newEntries(2);
+		doThrow(new IllegalStateException()).when(store).append(1, 0, entries);
+		journal.register(entries);
+
+		// Some entries are not persisted, the task cannot be marked as fully read
+		journal.fullyRead();
+		verify(store, never()).fullyRead(1);
+	}
+
+	@Test
+	void fullyReadOtherNode() {
+		final var stopped = new AtomicInteger();
+		journal.onLost(stopped::incrementAndGet);
+		journal.fullyRead();
+		Assertions.assertTrue(journal.isLost());
+		Assertions.assertEquals(1, stopped.get());
+	}
+
+	@Test
+	void fullyReadFailed() {
+		when(store.fullyRead(1)).thenThrow(new IllegalStateException());
+		Assertions.assertDoesNotThrow(journal::fullyRead);
+		Assertions.assertFalse(journal.isLost());
+	}
+
+	@Test
+	void beat() {
+		when(store.heartbeat(1)).thenReturn(true);
+		final var stopped = new AtomicInteger();
+		journal.onLost(stopped::incrementAndGet);
+		journal.start();
+		journal.beat();
+		Assertions.assertFalse(journal.isLost());
+
+		// Owned by another node
+		when(store.heartbeat(1)).thenReturn(false);
+		journal.beat();
+		Assertions.assertTrue(journal.isLost());
+		Assertions.assertEquals(1, stopped.get());
+		journal.stop();
+	}
+
+	@Test
+	void beatFailed() {
+		when(store.heartbeat(1)).thenThrow(new IllegalStateException());
+		journal.beat();
+		Assertions.assertFalse(journal.isLost());
+	}
+
+	@Test
+	void stop() {
+		final var stopped = new AtomicInteger();
+		journal.onLost(stopped::incrementAndGet);
+		journal.start();
+		journal.start();
+		journal.stop();
+
+		// The callbacks are forgotten once stopped
+		when(store.update(ArgumentMatchers.anyInt(), ArgumentMatchers.any(), ArgumentMatchers.anyMap()))
+				.thenReturn(false);
+		journal.flush();
+		Assertions.assertEquals(0, stopped.get());
+	}
+}
@@ -0,0 +1,253 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.id.resource.batch;
+
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.cxf.jaxrs.provider.ServerProviderFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.ligoj.app.plugin.id.dao.BatchTaskRepository;
+import org.ligoj.app.plugin.id.resource.UserOrgResource;
+import org.ligoj.bootstrap.core.SpringUtils;
+import org.mockito.ArgumentMatchers;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Test of {@link BatchTaskRegistry} and {@link BatchTaskStore}. The store commits its own transactions.
+ */
+@ExtendWith(SpringExtension.class)
+@ContextConfiguration(locations = "classpath:/META-INF/spring/application-context-test.xml")
+class BatchTaskRegistryTest extends AbstractBatchTest {
+
+	@Autowired
+	private BatchTaskRegistry registry;
+
+	@Autowired
+	private BatchTaskStore store;
+
+	@Autowired
+	private BatchTaskRepository repository;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	private UserOrgResource mockResource;
+
+	@BeforeEach
+	void mockApplicationContext() {
+		final var applicationContext = mock(ApplicationContext.class);
+		SpringUtils.setSharedApplicationContext(applicationContext);
+		mockResource = mock(UserOrgResource.class);
+		final var mockTask = new UserFullTask();
+		mockTask.resource = mockResource;
+		mockTask.securityHelper = securityHelper;
+		mockTask.jaxrsFactory = ServerProviderFactory.createInstance(null);
+		when(applicationContext.getBean(ArgumentMatchers.eq(UserFullTask.class))).thenReturn(mockTask);
+	}
+
+	@AfterEach
+	void removeMockApplicationContext() {
+		SpringUtils.setSharedApplicationContext(super.applicationContext);
+	}
+
+	private UserImportEntry newEntry(final String id, final Boolean status) {
+		final var entry = new UserImportEntry();
+		entry.setId(id);
+		entry.setFirstName("First");
+		entry.setLastName("Last");
+		entry.setCompany("ligoj");
+		entry.setMail(id + "@sample.com");
+		entry.setStatus(status);
+		return entry;
+	}
+
+	/**
+	 * Persist a fully read task with a processed entry and a pending one, owned by the given node.
+	 */
+	private BatchTaskVo<UserImportEntry> persist(final long id, final String node, final Instant heartbeat) {
+		return persist(id, node, heartbeat, true);
+	}
+
+	/**
+	 * Persist a task with a processed entry and a pending one, owned by the given node.
+	 */
+	private BatchTaskVo<UserImportEntry> persist(final long id, final String node, final Instant heartbeat,
+			final boolean fullyRead) {
+		final var vo = new BatchTaskVo<UserImportEntry>();
+		vo.setId(id);
+		vo.setPrincipal(DEFAULT_USER);
+		vo.setEntries(List.of(newEntry("done" + id, Boolean.TRUE), newEntry("pending" + id, null)));
+		final var task = store.create(vo, UserFullTask.class, UserImportEntry.class);
+		store.append(task, 0, vo.getEntries());
+		if (fullyRead) {
+			Assertions.assertTrue(store.fullyRead(task));
+		}
+		final var persisted = store.findBy(DEFAULT_USER, id);
+		new TransactionTemplate(transactionManager).executeWithoutResult(s -> repository.claim(task, node, heartbeat,
+				persisted.getNode(), persisted.getHeartbeat()));
+		return vo;
+	}
+
+	@Test
+	void findUnknown() {
+		Assertions.assertNull(registry.find(DEFAULT_USER, -1));
+	}
+
+	@Test
+	void findOtherNode() throws ClassNotFoundException {
+		final var id = System.nanoTime();
+		persist(id, "other/1", Instant.now());
+
+		// Served from the store, without resuming a task still running on another node
+		final var task = registry.find(DEFAULT_USER, id);
+		Assertions.assertEquals(id, task.getId());
+		Assertions.assertEquals(2, task.getEntries().size());
+		Assertions.assertEquals(2, task.getStatus().getEntries());
+		Assertions.assertNull(task.getStatus().getEnd());
+		final var entry = (UserImportEntry) task.getEntries().getFirst();
+		Assertions.assertEquals("done" + id, entry.getId());
+		Assertions.assertEquals("done" + id + "@sample.com", entry.getMail());
+		Assertions.assertTrue(entry.getStatus());
+		Assertions.assertNull(task.getEntries().get(1).getStatus());
+		Assertions.assertEquals("other/1", store.findBy(DEFAULT_USER, id).getNode());
+		Assertions.assertFalse(store.isRecoverable(store.findBy(DEFAULT_USER, id)));
+		verify(mockResource, never()).create(ArgumentMatchers.any(), ArgumentMatchers.anyBoolean());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	void findResume() throws InterruptedException, ClassNotFoundException {
+		final var id = System.nanoTime();
+		persist(id, "dead/1", Instant.EPOCH);
+		Assertions.assertTrue(store.findAllRecoverable().stream().anyMatch(t -> t.getTaskId() == id));
+
+		// The task of the dead node is resumed by this node, only the pending entry is proceeded
+		final var task = waitImport((BatchTaskVo<UserImportEntry>) registry.find(DEFAULT_USER, id));
+		Assertions.assertTrue(task.getStatus().getStatus());
+		Assertions.assertEquals(2, task.getStatus().getEntries());
+		Assertions.assertEquals(2, task.getStatus().getDone());
+		Assertions.assertTrue(task.getEntries().get(1).getStatus());
+		verify(mockResource).create(ArgumentMatchers.argThat(u -> u.getId().equals("pending" + id)),
+				ArgumentMatchers.eq(false));
+
+		// Served from the memory of this node
+		Assertions.assertSame(task, registry.find(DEFAULT_USER, id));
+
+		// The progress is persisted
+		final var persisted = store.findBy(DEFAULT_USER, id);
+		Assertions.assertEquals(BatchTaskStore.NODE, persisted.getNode());
+		Assertions.assertTrue(persisted.getStatus());
+		Assertions.assertNotNull(persisted.getEndDate());
+		Assertions.assertEquals(2, persisted.getDone());
+		Assertions.assertTrue(store.toVo(persisted).getEntries().stream().allMatch(BatchElement::getStatus));
+		Assertions.assertFalse(store.findAllRecoverable().stream().anyMatch(t -> t.getTaskId() == id));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	void findResumeNotFullyRead() throws InterruptedException {
+		final var id = System.nanoTime();
+		persist(id, "dead/1", Instant.EPOCH, false);
+
+		// The persisted pending entry is proceeded, but the task fails since some entries are lost
+		final var task = waitImport((BatchTaskVo<UserImportEntry>) registry.find(DEFAULT_USER, id));
+		Assertions.assertFalse(task.getStatus().getStatus());
+		Assertions.assertEquals(BatchTaskRegistry.NOT_FULLY_READ, task.getStatus().getStatusText());
+		Assertions.assertTrue(task.getEntries().get(1).getStatus());
+
+		// The failure is persisted
+		final var persisted = store.findBy(DEFAULT_USER, id);
+		Assertions.assertFalse(persisted.getStatus());
+		Assertions.assertEquals(BatchTaskRegistry.NOT_FULLY_READ, persisted.getStatusText());
+		Assertions.assertNotNull(persisted.getEndDate());
+	}
+
+	@Test
+	void appendLargeEntry() throws ClassNotFoundException {
+		final var id = System.nanoTime();
+		final var vo = new BatchTaskVo<UserImportEntry>();
+		vo.setId(id);
+		vo.setPrincipal(DEFAULT_USER);
+		final var entry = newEntry("large" + id, null);
+		entry.setGroups(StringUtils.repeat("group,", 1000));
+		vo.setEntries(List.of(entry));
+		store.append(store.create(vo, UserFullTask.class, UserImportEntry.class), 0, vo.getEntries());
+
+		// The entry is not truncated
+		final var entries = store.toVo(store.findBy(DEFAULT_USER, id)).getEntries();
+		Assertions.assertEquals(entry.getGroups(), ((UserImportEntry) entries.getFirst()).getGroups());
+	}
+
+	@Test
+	void claimOnce() {
+		final var id = System.nanoTime();
+		persist(id, "dead/1", Instant.EPOCH);
+		final var persisted = store.findBy(DEFAULT_USER, id);
+		Assertions.assertTrue(store.claim(persisted));
+
+		// Already claimed
+		Assertions.assertFalse(store.claim(persisted));
+	}
+
+	@Test
+	void updateOtherNode() {
+		final var id = System.nanoTime();
+		persist(id, "other/1", Instant.now());
+		final var status = new ImportStatus();
+		status.setEnd(new Date());
+		Assertions.assertFalse(store.update(store.findBy(DEFAULT_USER, id).getId(), status, Map.of()));
+		Assertions.assertNull(store.findBy(DEFAULT_USER, id).getEndDate());
+	}
+
+	@Test
+	void heartbeat() {
+		final var id = System.nanoTime();
+		persist(id, BatchTaskStore.NODE, Instant.EPOCH);
+		final var task = store.findBy(DEFAULT_USER, id).getId();
+		Assertions.assertTrue(store.heartbeat(task));
+		Assertions.assertTrue(store.findBy(DEFAULT_USER, id).getHeartbeat().isAfter(Instant.EPOCH));
+
+		// Owned by another node
+		final var other = System.nanoTime();
+		persist(other, "other/1", Instant.EPOCH);
+		Assertions.assertFalse(store.heartbeat(store.findBy(DEFAULT_USER, other).getId()));
+		Assertions.assertEquals(Instant.EPOCH, store.findBy(DEFAULT_USER, other).getHeartbeat());
+	}
+
+	@Test
+	void findOtherRunSameHost() {
+		// Another run of the same host is recovered only once its heartbeat is stale
+		final var id = System.nanoTime();
+		persist(id, BatchTaskStore.NODE.substring(0, BatchTaskStore.NODE.indexOf('/')) + "/previous", Instant.now());
+		Assertions.assertFalse(store.isRecoverable(store.findBy(DEFAULT_USER, id)));
+		Assertions.assertFalse(store.findAllRecoverable().stream().anyMatch(t -> t.getTaskId() == id));
+	}
+
+	@Test
+	void deleteFinished() {
+		final var id = System.nanoTime();
+		persist(id, BatchTaskStore.NODE, Instant.now());
+		final var task = store.findBy(DEFAULT_USER, id).getId();
+		final var status = new ImportStatus();
+		status.setEnd(new Date(System.currentTimeMillis() - 1000));
+		Assertions.assertTrue(store.update(task, status, Map.of()));
+		store.deleteFinished(new Date());
+		Assertions.assertNull(store.findBy(DEFAULT_USER, id));
+	}
+}
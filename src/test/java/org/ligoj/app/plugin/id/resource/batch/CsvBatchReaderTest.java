@@ -0,0 +1,76 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.id.resource.batch;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.ligoj.bootstrap.core.csv.CsvForBean;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+/**
+ * Test class of {@link CsvBatchReader}
+ */
+class CsvBatchReaderTest {
+
+	/**
+	 * The parsed chunks, including the header.
+	 */
+	private final List<String> chunks = new ArrayList<>();
+
+	private final UserImportEntry entry = new UserImportEntry();
+
+	private CsvBatchReader<UserImportEntry> newReader(final String csv, final int chunkSize) throws IOException {
+		final var csvForBean = Mockito.mock(CsvForBean.class);
+		Mockito.when(csvForBean.toBean(ArgumentMatchers.eq(UserImportEntry.class), ArgumentMatchers.any(Reader.class)))
+				.then(invocation -> {
+					final var chunk = new StringWriter();
+					invocation.getArgument(1, Reader.class).transferTo(chunk);
+					chunks.add(chunk.toString());
+					return new ArrayList<>(Arrays.asList(entry, null));
+				});
+		return new CsvBatchReader<>(csvForBean, UserImportEntry.class, "lastName\n",
+				new BufferedReader(new StringReader(csv)), chunkSize);
+	}
+
+	@Test
+	void next() throws IOException {
+		try (var reader = newReader("a\nb\n\nc", 2)) {
+			Assertions.assertTrue(reader.hasNext());
+			Assertions.assertEquals(List.of(entry), reader.next());
+			Assertions.assertTrue(reader.hasNext());
+			Assertions.assertEquals(List.of(entry), reader.next());
+			Assertions.assertFalse(reader.hasNext());
+		}
+		Assertions.assertEquals(List.of("lastName\na\nb\n", "lastName\n\nc\n"), chunks);
+	}
+
+	@Test
+	void nextQuotedLines() throws IOException {
+		try (var reader = newReader("\"a\nb\";x\nc", 1)) {
+			reader.next();
+			reader.next();
+			Assertions.assertFalse(reader.hasNext());
+		}
+		Assertions.assertEquals(List.of("lastName\n\"a\nb\";x\n", "lastName\nc\n"), chunks);
+	}
+
+	@Test
+	void nextEnd() throws IOException {
+		try (var reader = newReader("", 2)) {
+			Assertions.assertFalse(reader.hasNext());
+			reader.next();
+		}
+		Assertions.assertEquals(List.of("lastName\n"), chunks);
+	}
+}
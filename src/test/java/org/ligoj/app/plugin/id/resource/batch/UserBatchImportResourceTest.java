@@ -90,6 +90,59 @@ class UserBatchImportResourceTest extends AbstractUserBatchResourceTest {
 				encoding);
 	}
 
+	@Test
+	void executeStreaming() throws IOException, InterruptedException {
+		final BatchTaskVo<UserImportEntry> importTask = execute(toCsv(2500, -1));
+
+		Assertions.assertEquals(Boolean.TRUE, importTask.getStatus().getStatus());
+		Assertions.assertEquals(2500, importTask.getStatus().getEntries());
+		Assertions.assertEquals(2500, importTask.getStatus().getDone());
+		final var entries = importTask.getEntries();
+		Assertions.assertEquals(2500, entries.size());
+		Assertions.assertEquals("kloubli2499", entries.get(2499).getId());
+		Assertions.assertEquals(Boolean.TRUE, entries.get(2499).getStatus());
+		Mockito.verify(mockResource, Mockito.times(2500)).create(ArgumentMatchers.any(UserOrgEditionVo.class),
+				ArgumentMatchers.eq(false));
+	}
+
+	@Test
+	void executeStreamingInvalid() throws IOException, InterruptedException {
+		// An invalid entry after the first chunk is failed, the other entries are still imported
+		final BatchTaskVo<UserImportEntry> importTask = execute(toCsv(2500, 2100));
+
+		Assertions.assertEquals(Boolean.TRUE, importTask.getStatus().getStatus());
+		Assertions.assertEquals(2500, importTask.getStatus().getEntries());
+		Assertions.assertEquals(2500, importTask.getStatus().getDone());
+		final var entries = importTask.getEntries();
+		Assertions.assertEquals(Boolean.TRUE, entries.get(2499).getStatus());
+		Assertions.assertEquals(Boolean.FALSE, entries.get(2100).getStatus());
+		Assertions.assertNotNull(entries.get(2100).getStatusText());
+		Mockito.verify(mockResource, Mockito.times(2499)).create(ArgumentMatchers.any(UserOrgEditionVo.class),
+				ArgumentMatchers.eq(false));
+	}
+
+	@Test
+	void executeStreamingInvalidFirst() throws IOException {
+		// An invalid entry of the first chunk rejects the whole import
+		final var input = new ByteArrayInputStream(toCsv(2500, 10).getBytes("cp1252"));
+		initSpringSecurityContext(DEFAULT_USER);
+		MatcherUtil.assertThrows(Assertions.assertThrows(ConstraintViolationException.class,
+				() -> resource.execute(input, new String[0], "cp1252", false)), "id", "NotBlank");
+		Mockito.verify(mockResource, Mockito.never()).create(ArgumentMatchers.any(UserOrgEditionVo.class),
+				ArgumentMatchers.anyBoolean());
+	}
+
+	/**
+	 * Return a CSV of the given amount of users, with an optional entry without identifier.
+	 */
+	private String toCsv(final int count, final int invalid) {
+		final var csv = new StringBuilder();
+		for (var i = 0; i < count; i++) {
+			csv.append("Loubli;Sébastien;").append(i == invalid ? "" : "kloubli" + i).append(";my.address@sample.com;ligoj;jira\n");
+		}
+		return csv.toString();
+	}
+
 	@Test
 	void executeDefaultHeader() throws IOException, InterruptedException {
 		final InputStream input = new ByteArrayInputStream(
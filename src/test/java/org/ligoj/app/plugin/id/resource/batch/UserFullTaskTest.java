@@ -19,8 +19,10 @@ import org.ligoj.bootstrap.core.resource.mapper.FailSafeExceptionMapper;
 import org.ligoj.bootstrap.core.security.SecurityHelper;
 import tools.jackson.jakarta.rs.json.JacksonJsonProvider;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import static org.mockito.Mockito.*;
 
@@ -67,6 +69,72 @@ class UserFullTaskTest extends AbstractSecurityTest {
 		Assertions.assertEquals(1, importTask.getStatus().getEntries());
 	}
 
+	@Test
+	void runParallel() {
+		final var entries = new ArrayList<UserImportEntry>();
+		for (var i = 0; i < 20; i++) {
+			final var entry = new UserImportEntry();
+			entry.setId("user" + (i % 5));
+			entry.setLastName("last" + i);
+			entries.add(entry);
+		}
+		final UserImportEntry invalid = mock(UserImportEntry.class);
+		when(invalid.getId()).thenThrow(new RuntimeException());
+		entries.add(invalid);
+		final BatchTaskVo<UserImportEntry> importTask = new BatchTaskVo<>();
+		importTask.setEntries(entries);
+		importTask.setParallelism(4);
+		task.configure(importTask);
+		task.run();
+		Assertions.assertEquals(Boolean.TRUE, importTask.getStatus().getStatus());
+		Assertions.assertEquals(21, importTask.getStatus().getDone());
+		Assertions.assertEquals(21, importTask.getStatus().getEntries());
+		entries.subList(0, 20).forEach(e -> Assertions.assertEquals(Boolean.TRUE, e.getStatus()));
+		verify(invalid, atLeastOnce()).setStatus(Boolean.FALSE);
+
+		// The entries of the same user are processed in the input order
+		final var inOrder = inOrder(task.resource);
+		for (var i = 0; i < 4; i++) {
+			final var lastName = "last" + (i * 5);
+			inOrder.verify(task.resource).create(argThat(u -> u != null && lastName.equals(u.getLastName())), eq(false));
+		}
+	}
+
+	@Test
+	void runParallelPending() throws InterruptedException {
+		final var chunks = new ArrayList<List<UserImportEntry>>();
+		for (var c = 0; c < 6; c++) {
+			final var chunk = new ArrayList<UserImportEntry>();
+			for (var i = 0; i < 3; i++) {
+				final var entry = new UserImportEntry();
+				entry.setId("user" + i);
+				entry.setLastName("last" + c + "-" + i);
+				chunk.add(entry);
+			}
+			chunks.add(chunk);
+		}
+		final var pending = new LinkedBlockingQueue<List<UserImportEntry>>();
+		for (final var chunk : chunks.subList(1, chunks.size())) {
+			pending.put(chunk);
+		}
+		pending.put(Collections.emptyList());
+		final var importTask = new BatchTaskVo<UserImportEntry>();
+		importTask.setEntries(chunks.getFirst());
+		importTask.setParallelism(2);
+		task.configure(importTask, pending);
+		task.run();
+		Assertions.assertEquals(Boolean.TRUE, importTask.getStatus().getStatus());
+		Assertions.assertEquals(18, importTask.getStatus().getDone());
+		chunks.forEach(chunk -> chunk.forEach(e -> Assertions.assertEquals(Boolean.TRUE, e.getStatus())));
+
+		// The entries of the same user are processed in the input order across the chunks
+		final var inOrder = inOrder(task.resource);
+		for (var c = 0; c < 6; c++) {
+			final var lastName = "last" + c + "-0";
+			inOrder.verify(task.resource).create(argThat(u -> u != null && lastName.equals(u.getLastName())), eq(false));
+		}
+	}
+
 	@Test
 	void configureMessage() throws IllegalArgumentException, IllegalAccessException {
 		final ServerProviderFactory instance = ServerProviderFactory.getInstance();